@@ -0,0 +1,78 @@
+package de.neebs.franchise.control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single position operations every engine is built on: draw generation, both on game rounds and packed into a
+ * {@link DrawBuffer}, executing a draw, copying a round and the static evaluation of the alpha-beta search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+    private final FranchiseService franchiseService = new FranchiseService(franchiseCoreService);
+    private final DrawBuffer buffer = new DrawBuffer();
+    private Draw[] draws;
+    private int[] actors;
+
+    @Setup
+    public void setup(Positions positions) {
+        draws = new Draw[positions.rounds.length];
+        actors = new int[positions.states.length];
+        for (int i = 0; i < draws.length; i++) {
+            List<Draw> legal = franchiseCoreService.nextDraws(positions.rounds[i]);
+            draws[i] = legal.get(legal.size() / 2);
+            GameState state = positions.states[i];
+            actors[i] = state.actual() == GameState.NONE ? state.next() : state.actual();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        franchiseService.shutdownPool();
+    }
+
+    @Benchmark
+    public List<Draw> nextDraws(Positions positions) {
+        return franchiseCoreService.nextDraws(positions.rounds[positions.next()]);
+    }
+
+    @Benchmark
+    public int nextDrawsPacked(Positions positions) {
+        return franchiseCoreService.nextDraws(positions.states[positions.next()], buffer);
+    }
+
+    @Benchmark
+    public ExtendedGameRound manualDraw(Positions positions) {
+        int i = positions.next();
+        return franchiseCoreService.manualDraw(positions.rounds[i], draws[i]);
+    }
+
+    @Benchmark
+    public GameRound copy(Positions positions) {
+        return GameRound.copy(positions.rounds[positions.next()]);
+    }
+
+    @Benchmark
+    public double evaluatePosition(Positions positions) {
+        int i = positions.next();
+        return franchiseService.evaluatePosition(positions.states[i], actors[i]);
+    }
+}
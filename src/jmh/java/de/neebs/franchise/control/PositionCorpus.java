@@ -0,0 +1,73 @@
+package de.neebs.franchise.control;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The fixed positions the benchmarks run on: complete seeded random games for two to four players, the most the rules
+ * allow besides the neutral color, stored as trajectories in {@code positions.bin} next to this class, so every run
+ * measures exactly the same boards. Run {@link #main(String[])} from the project directory to regenerate the file.
+ */
+final class PositionCorpus {
+    static final String RESOURCE = "positions.bin";
+    static final int MIN_PLAYERS = 2;
+    static final int MAX_PLAYERS = 4;
+    private static final int GAMES_PER_PLAYER_COUNT = 4;
+    private static final int MAX_PLIES = 1000;
+
+    private PositionCorpus() {
+    }
+
+    /**
+     * @return the positions of all games with the number of players in the phase, excluding finished games
+     */
+    static List<GameState> positions(int players, FranchiseService.GamePhase phase) {
+        FranchiseService service = new FranchiseService(new FranchiseCoreService());
+        List<GameState> positions = new ArrayList<>();
+        InputStream stream = PositionCorpus.class.getResourceAsStream(RESOURCE);
+        if (stream == null) {
+            throw new IllegalStateException("Missing " + RESOURCE + ", run PositionCorpus first");
+        }
+        try (TrajectoryReader reader = new TrajectoryReader(stream)) {
+            for (TrajectoryCodec.Trajectory game = reader.readPacked(); game != null; game = reader.readPacked()) {
+                for (GameState state : game.states()) {
+                    if (state.playerCount() == players && !state.isEnd() && service.evaluateGamePhase(state) == phase) {
+                        positions.add(state);
+                    }
+                }
+            }
+        } finally {
+            service.shutdownPool();
+        }
+        if (positions.isEmpty()) {
+            throw new IllegalStateException("No " + phase + " positions for " + players + " players");
+        }
+        return positions;
+    }
+
+    public static void main(String[] args) {
+        Path file = Path.of(args.length > 0 ? args[0] : "src/jmh/resources/de/neebs/franchise/control/" + RESOURCE);
+        FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+        List<PlayerColor> colors = List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK, PlayerColor.ORANGE);
+        try (TrajectoryWriter writer = TrajectoryWriter.open(file)) {
+            for (int players = MIN_PLAYERS; players <= MAX_PLAYERS; players++) {
+                for (int game = 0; game < GAMES_PER_PLAYER_COUNT; game++) {
+                    Random random = new Random(players * 100L + game);
+                    GameRound round = franchiseCoreService.init(colors.subList(0, players));
+                    List<GameRoundDraw> rounds = new ArrayList<>();
+                    for (int ply = 0; ply < MAX_PLIES && !round.isEnd(); ply++) {
+                        List<Draw> draws = franchiseCoreService.nextDraws(round);
+                        Draw draw = draws.get(random.nextInt(draws.size()));
+                        rounds.add(GameRoundDraw.builder().gameRound(round).draw(draw).build());
+                        round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+                    }
+                    rounds.add(GameRoundDraw.builder().gameRound(round).build());
+                    writer.write(rounds);
+                }
+            }
+        }
+    }
+}
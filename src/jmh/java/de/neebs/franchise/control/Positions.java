@@ -0,0 +1,37 @@
+package de.neebs.franchise.control;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * The positions of the {@link PositionCorpus} with the number of players in the phase. Every call of {@link #next()}
+ * moves on to the next one, so a benchmark cycles through all of them.
+ */
+@State(Scope.Thread)
+public class Positions {
+    @Param({"2", "3", "4"})
+    public int players;
+
+    @Param({"START", "GROW", "END"})
+    public String phase;
+
+    GameState[] states;
+    GameRound[] rounds;
+    private int index;
+
+    @Setup
+    public void load() {
+        List<GameState> positions = PositionCorpus.positions(players, FranchiseService.GamePhase.valueOf(phase));
+        states = positions.toArray(new GameState[0]);
+        rounds = positions.stream().map(GameState::toGameRound).toArray(GameRound[]::new);
+    }
+
+    int next() {
+        index = index + 1 == states.length ? 0 : index + 1;
+        return index;
+    }
+}
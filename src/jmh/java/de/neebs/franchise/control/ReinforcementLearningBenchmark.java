@@ -0,0 +1,50 @@
+package de.neebs.franchise.control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A greedy draw of the reinforcement learning engine: featurizing the board, the forward pass of a freshly initialized
+ * network and rating all draws. With a single caller every batch holds one board, so the batcher does not wait. The
+ * memory of the network engine is native and not part of the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReinforcementLearningBenchmark {
+    private FranchiseRLService franchiseRLService;
+
+    @Setup
+    public void setup() {
+        franchiseRLService = new FranchiseRLService(new FranchiseCoreService(), new BoardFeaturizer());
+        ReflectionTestUtils.setField(franchiseRLService, "maxBatchSize", 1);
+        ReflectionTestUtils.setField(franchiseRLService, "replayCapacity", 1);
+        ReflectionTestUtils.setField(franchiseRLService, "replayDirectory", "");
+        franchiseRLService.setup(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        franchiseRLService.close();
+    }
+
+    @Benchmark
+    public Draw reinforcementLearning(Positions positions) {
+        return franchiseRLService.reinforcementLearning(positions.rounds[positions.next()], 1);
+    }
+}
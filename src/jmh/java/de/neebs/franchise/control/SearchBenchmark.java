@@ -0,0 +1,44 @@
+package de.neebs.franchise.control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single-threaded alpha-beta search without time budget. The transposition table is cleared before every search,
+ * as the corpus repeats its positions and a warm table would answer them from the previous search. Clearing only
+ * changes the salt of the keys, so it is part of the measured search instead of a per invocation setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"1", "2", "3"})
+    public int depth;
+
+    private final FranchiseService franchiseService = new FranchiseService(new FranchiseCoreService());
+
+    @TearDown
+    public void tearDown() {
+        franchiseService.shutdownPool();
+    }
+
+    @Benchmark
+    public Draw minimaxAbPrune(Positions positions) {
+        franchiseService.clearTranspositionTable();
+        return franchiseService.minimaxAbPrune(positions.rounds[positions.next()], depth, 1);
+    }
+}
@@ -51,8 +51,7 @@ public class FranchiseController implements DefaultApi {
 
     @Override
     public ResponseEntity<GameField> retrieveGameBoard(String gameId) {
-        List<GameRoundDraw> gdrs = gamePersistence.loadGame(gameId);
-        GameRound round = gdrs.get(gdrs.size() - 1).getGameRound();
+        GameRound round = gamePersistence.loadLatestRound(gameId);
         GameField field = mapGameField(round);
         return ResponseEntity.ok(field);
     }
@@ -86,12 +85,15 @@ public class FranchiseController implements DefaultApi {
         return field;
     }
 
+    /**
+     * The draw of a computer player is searched without holding the lock of the game, so other games and reads are not
+     * blocked by the search. It is only made if the game did not change in the meantime. The learning models are
+     * trained after the game is saved. Computer players are kept with the game, so they can reuse their search
+     * between their draws.
+     */
     @Override
     public ResponseEntity<ExtendedDraw> createDraw(String gameId, Draw draw) {
-        List<GameRoundDraw> gdrs = gamePersistence.loadGame(gameId);
-        GameRoundDraw gdr = gdrs.get(gdrs.size() - 1);
-        GameRound round = gdr.getGameRound();
-
+        GameRound round = gamePersistence.loadLatestRound(gameId);
         if (mapPlayerColor(round.getNext()) != draw.getColor()) {
             throw new IllegalDrawException("Not your turn");
         }
@@ -101,16 +103,27 @@ public class FranchiseController implements DefaultApi {
         final HumanDraw humanDraw;
         if (draw.getPlayerType() == PlayerType.COMPUTER) {
             final de.neebs.franchise.client.entity.ComputerPlayer computer = (de.neebs.franchise.client.entity.ComputerPlayer) draw;
-            final ComputerPlayer player = createComputerPlayer(computer);
+            final ComputerPlayer player = gamePersistence.computerPlayer(gameId,
+                    computer.getStrategy() + ":" + computer.getColor() + ":" + computer.getParams(), () -> createComputerPlayer(computer));
             humanDraw = mapDraw(mapPlayerColor(round.getNext()), player.evaluateDraw(round));
         } else {
             humanDraw = (HumanDraw) draw;
         }
         log.info("Best Move: " + draw);
 
-        gdr.setDraw(mapDraw(humanDraw));
-        ExtendedGameRound extendedGameRound = gameEngine.makeDraw(round, mapDraw(humanDraw));
-        gdrs.add(GameRoundDraw.builder().gameRound(extendedGameRound.getGameRound()).build());
+        GameState searched = GameState.of(round);
+        List<GameRoundDraw> gdrs = new ArrayList<>();
+        ExtendedGameRound extendedGameRound = gamePersistence.updateGame(gameId, rounds -> {
+            GameRoundDraw gdr = rounds.get(rounds.size() - 1);
+            if (!GameState.of(gdr.getGameRound()).equals(searched)) {
+                throw new GameChangedException("Game " + gameId + " changed during the draw");
+            }
+            gdr.setDraw(mapDraw(humanDraw));
+            ExtendedGameRound result = gameEngine.makeDraw(gdr.getGameRound(), mapDraw(humanDraw));
+            rounds.add(GameRoundDraw.builder().gameRound(result.getGameRound()).build());
+            gdrs.addAll(rounds);
+            return result;
+        });
 
         if (extendedGameRound.getGameRound().isEnd() && learningAlgorithms.containsKey(gameId)) {
             for (ComputerStrategy strategy : learningAlgorithms.get(gameId)) {
@@ -120,8 +133,6 @@ public class FranchiseController implements DefaultApi {
             }
         }
 
-        gamePersistence.saveGame(gameId, gdrs);
-
         ExtendedDraw extendedDraw = new ExtendedDraw();
         extendedDraw.setDraw(humanDraw);
         if (extendedGameRound.getAdditionalInfo() != null) {
@@ -134,8 +145,7 @@ public class FranchiseController implements DefaultApi {
 
     @Override
     public ResponseEntity<List<HumanDraw>> evaluateNextPossibleDraws(String gameId) {
-        List<GameRoundDraw> gdrs = gamePersistence.loadGame(gameId);
-        GameRound round = gdrs.get(gdrs.size() - 1).getGameRound();
+        GameRound round = gamePersistence.loadLatestRound(gameId);
         return ResponseEntity.ok(gameEngine.nextPossibleDraws(round).stream().map(f -> mapDraw(mapPlayerColor(round.getNext()), f)).toList());
     }
 
@@ -149,23 +159,34 @@ public class FranchiseController implements DefaultApi {
         return ResponseEntity.ok(mapDraw(mapPlayerColor(gdr.getGameRound().getNext()), gdr.getDraw()));
     }
 
+    /**
+     * Undoes the draws back to the round with the index, so the round and all later ones are removed; a negative index
+     * counts from the end. The initial round cannot be removed.
+     */
     @Override
     public ResponseEntity<GameField> undoDraws(String gameId, Integer index) {
-        List<GameRoundDraw> gdrs = gamePersistence.loadGame(gameId);
-        if (gdrs.size() < 2) {
+        GameRound round = gamePersistence.updateGame(gameId, gdrs -> {
+            if (gdrs.size() < 2) {
+                return null;
+            }
+            int first = (gdrs.size() + index) % gdrs.size();
+            if (first <= 0) {
+                throw new IllegalDrawException("The initial round cannot be undone");
+            }
+            gdrs.subList(first, gdrs.size()).clear();
+            GameRoundDraw gdr = gdrs.get(gdrs.size() - 1);
+            gdr.setDraw(null);
+            return gdr.getGameRound();
+        });
+        if (round == null) {
             return ResponseEntity.notFound().build();
         }
-        gdrs.remove((gdrs.size() + index) % gdrs.size());
-        GameRoundDraw gdr = gdrs.get(gdrs.size() - 1);
-        gdr.setDraw(null);
-        gamePersistence.saveGame(gameId, gdrs);
-        return ResponseEntity.ok(mapGameField(gdr.getGameRound()));
+        return ResponseEntity.ok(mapGameField(round));
     }
 
     @Override
     public ResponseEntity<List<PlayerColorAndInteger>> playGame(String gameId, PlayConfig playConfig) {
-        List<GameRoundDraw> gdrs = gamePersistence.loadGame(gameId);
-        GameRound round = gdrs.get(gdrs.size() - 1).getGameRound();
+        GameRound round = gamePersistence.loadLatestRound(gameId);
         if (playConfig == null) {
             throw new IllegalArgumentException("No config given");
         }
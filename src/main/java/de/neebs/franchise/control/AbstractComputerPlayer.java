@@ -6,6 +6,9 @@ import lombok.Getter;
 import java.util.Map;
 
 abstract class AbstractComputerPlayer implements ComputerPlayer{
+    protected static final String THREADS = "threads";
+    protected static final String TIME_BUDGET_MS = "timeBudgetMs";
+
     @Getter
     private final PlayerColor playerColor;
     @Getter(AccessLevel.PROTECTED)
@@ -16,6 +19,28 @@ abstract class AbstractComputerPlayer implements ComputerPlayer{
         this.params = params;
     }
 
+    /**
+     * @return the number of threads the player may use for evaluating a draw, one by default
+     */
+    protected int getThreads() {
+        return Math.max(1, getInt(params, THREADS, 1));
+    }
+
+    /**
+     * @return the wall-clock time in milliseconds the player may use for evaluating a draw, zero for no limit
+     */
+    protected int getTimeBudgetMs() {
+        return Math.max(0, getInt(params, TIME_BUDGET_MS, 0));
+    }
+
+    /**
+     * @return the given search depth, if there is no time budget, otherwise the depth up to which the search is
+     * deepened, unlimited by default
+     */
+    protected int getDepth(String name, int defaultValue) {
+        return getInt(params, name, getTimeBudgetMs() > 0 ? FranchiseService.MAX_DEPTH : defaultValue);
+    }
+
     protected boolean getBoolean(Map<String, Object> map, String name, boolean defaultValue) {
         if (map == null) {
             return defaultValue;
@@ -28,7 +53,19 @@ abstract class AbstractComputerPlayer implements ComputerPlayer{
         }
     }
 
-    protected int getInt(Map<String, Object> map, String name, int defaultValue) {
+    protected String getString(Map<String, Object> map, String name, String defaultValue) {
+        if (map == null) {
+            return defaultValue;
+        }
+        Object o = map.get(name);
+        if (o instanceof String value) {
+            return value;
+        } else {
+            return defaultValue;
+        }
+    }
+
+    protected static int getInt(Map<String, Object> map, String name, int defaultValue) {
         if (map == null) {
             return defaultValue;
         }
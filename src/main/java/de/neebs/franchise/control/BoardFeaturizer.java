@@ -0,0 +1,207 @@
+package de.neebs.franchise.control;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes boards as rows of numbers for the learning engines, directly into rows given by the caller
+ * ({@code float[]}, {@code double[]}, {@code int[]} or {@link FloatBuffer}), without allocating.
+ * <p>
+ * A row holds the actual and the next player, the owner of every branch slot of every city (by city ordinal and slot)
+ * and optionally the bonus tiles, influence and money of every player, see {@link #header(Encoding, boolean)}. How a
+ * player is represented depends on the {@link Encoding}.
+ */
+@Component
+public class BoardFeaturizer {
+    private static final int SLOTS;
+    // index of the first branch slot of every city among all slots
+    private static final int[] FIRST_SLOT = new int[GameState.CITIES.length];
+    private static final int STATS = 3;
+
+    static {
+        int slots = 0;
+        for (City city : GameState.CITIES) {
+            FIRST_SLOT[city.ordinal()] = slots;
+            slots += city.getSize();
+        }
+        SLOTS = slots;
+    }
+
+    public enum Encoding {
+        /**
+         * The ordinal of the color, -1 for none. The stats are ordered by color.
+         */
+        ORDINAL,
+        /**
+         * One value per color, which is 1 for the color and 0 otherwise. The stats are ordered by color.
+         */
+        ONE_HOT,
+        /**
+         * The seat relative to the acting player, who is 0; -1 for none and the number of players for the neutral
+         * color. The stats are ordered by relative seat.
+         */
+        RELATIVE;
+
+        int width() {
+            return this == ONE_HOT ? GameState.COLORS.length : 1;
+        }
+    }
+
+    public int dimension(Encoding encoding, boolean stats) {
+        return encoding.width() * (2 + SLOTS) + (stats ? STATS * GameState.COLORS.length : 0);
+    }
+
+    /**
+     * @return the names of the values of a row
+     */
+    public List<String> header(Encoding encoding, boolean stats) {
+        List<String> names = new ArrayList<>();
+        addNames(names, "actual", encoding);
+        addNames(names, "next", encoding);
+        for (City city : GameState.CITIES) {
+            for (int i = 0; i < city.getSize(); i++) {
+                addNames(names, city.name() + i, encoding);
+            }
+        }
+        if (stats) {
+            for (int i = 0; i < GameState.COLORS.length; i++) {
+                String player = encoding == Encoding.RELATIVE ? "Seat" + i : GameState.COLORS[i].name();
+                names.add(player + "BonusTile");
+                names.add(player + "Influence");
+                names.add(player + "Money");
+            }
+        }
+        return names;
+    }
+
+    private static void addNames(List<String> names, String name, Encoding encoding) {
+        if (encoding == Encoding.ONE_HOT) {
+            for (PlayerColor color : GameState.COLORS) {
+                names.add(name + color.name());
+            }
+        } else {
+            names.add(name);
+        }
+    }
+
+    public void write(GameState state, Encoding encoding, boolean stats, float[] row, int offset) {
+        write(state, encoding, stats, (index, value) -> row[index] = value, offset);
+    }
+
+    public void write(GameState state, Encoding encoding, boolean stats, double[] row, int offset) {
+        write(state, encoding, stats, (index, value) -> row[index] = value, offset);
+    }
+
+    public void write(GameState state, Encoding encoding, boolean stats, int[] row, int offset) {
+        write(state, encoding, stats, (index, value) -> row[index] = value, offset);
+    }
+
+    /**
+     * Writes the row at the absolute index {@code offset} of the buffer, without moving its position.
+     */
+    public void write(GameState state, Encoding encoding, boolean stats, FloatBuffer row, int offset) {
+        write(state, encoding, stats, (index, value) -> row.put(index, value), offset);
+    }
+
+    /**
+     * Writes the rows of the first {@code count} states one after another into the matrix.
+     */
+    public void write(GameState[] states, int count, Encoding encoding, boolean stats, float[] matrix) {
+        int dimension = dimension(encoding, stats);
+        Row row = (index, value) -> matrix[index] = value;
+        for (int i = 0; i < count; i++) {
+            write(states[i], encoding, stats, row, i * dimension);
+        }
+    }
+
+    private void write(GameState state, Encoding encoding, boolean stats, Row row, int offset) {
+        writePlayers(state, encoding, row, offset);
+        for (int city = 0; city < GameState.CITIES.length; city++) {
+            writePlate(state, city, encoding, row, offset);
+        }
+        if (stats) {
+            writeStats(state, encoding, row, offset + encoding.width() * (2 + SLOTS));
+        }
+    }
+
+    /**
+     * Rewrites only the actual and next player of a row, e.g. after a draw.
+     */
+    public void writePlayers(GameState state, Encoding encoding, double[] row, int offset) {
+        writePlayers(state, encoding, (index, value) -> row[index] = value, offset);
+    }
+
+    /**
+     * Rewrites only the branch slots of the city in a row, e.g. after a draw changed its plate.
+     */
+    public void writePlate(GameState state, int city, Encoding encoding, double[] row, int offset) {
+        writePlate(state, city, encoding, (index, value) -> row[index] = value, offset);
+    }
+
+    private static void writePlayers(GameState state, Encoding encoding, Row row, int offset) {
+        int actual = state.actual() == GameState.NONE ? state.next() : state.actual();
+        writePlayer(state, actual, encoding, row, offset);
+        writePlayer(state, state.next(), encoding, row, offset + encoding.width());
+    }
+
+    private static void writePlate(GameState state, int city, Encoding encoding, Row row, int offset) {
+        int width = encoding.width();
+        int start = offset + width * (2 + FIRST_SLOT[city]);
+        int branches = state.branchCount(city);
+        for (int slot = 0; slot < GameState.CITIES[city].getSize(); slot++) {
+            writePlayer(state, slot < branches ? state.branch(city, slot) : GameState.NONE, encoding, row, start + slot * width);
+        }
+    }
+
+    private static void writePlayer(GameState state, int color, Encoding encoding, Row row, int index) {
+        switch (encoding) {
+            case ORDINAL -> row.set(index, color);
+            case ONE_HOT -> {
+                for (int i = 0; i < GameState.COLORS.length; i++) {
+                    row.set(index + i, i == color ? 1 : 0);
+                }
+            }
+            case RELATIVE -> row.set(index, color == GameState.NONE ? GameState.NONE : seat(state, color));
+        }
+    }
+
+    private static int seat(GameState state, int color) {
+        int players = state.playerCount();
+        int seat = state.playerIndex(color);
+        if (seat == GameState.NONE) {
+            return players;
+        }
+        return (seat - state.playerIndex(acting(state)) + players) % players;
+    }
+
+    private static int acting(GameState state) {
+        return state.actual() == GameState.NONE ? state.next() : state.actual();
+    }
+
+    private static void writeStats(GameState state, Encoding encoding, Row row, int offset) {
+        int players = state.playerCount();
+        int first = state.playerIndex(acting(state));
+        for (int i = 0; i < GameState.COLORS.length; i++) {
+            int color;
+            if (encoding == Encoding.RELATIVE) {
+                color = i < players ? state.player((first + i) % players) : GameState.NONE;
+            } else {
+                color = state.playerIndex(i) == GameState.NONE ? GameState.NONE : i;
+            }
+            int index = offset + STATS * i;
+            row.set(index, color == GameState.NONE ? -1 : state.bonusTiles(color));
+            row.set(index + 1, color == GameState.NONE ? -1 : state.influence(color));
+            row.set(index + 2, color == GameState.NONE ? -1 : state.money(color));
+        }
+    }
+
+    /**
+     * The row a board is written into, chosen once per call by the type of the caller's row.
+     */
+    private interface Row {
+        void set(int index, int value);
+    }
+}
@@ -0,0 +1,27 @@
+package de.neebs.franchise.control;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Refits the regression model of the MACHINE_LEARNING strategy on all stored training data at startup, if
+ * {@code franchise.ml.bulk-retrain} is set, e.g. by starting the service with {@code --franchise.ml.bulk-retrain=true}.
+ */
+@Component
+@ConditionalOnProperty("franchise.ml.bulk-retrain")
+@RequiredArgsConstructor
+@Slf4j
+public class BulkRetrainRunner implements ApplicationRunner {
+    private final FranchiseMLService franchiseMLService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        franchiseMLService.bulkRetrain();
+        log.info("Refitted the regression model in {} s", (System.nanoTime() - start) / 1_000_000_000);
+    }
+}
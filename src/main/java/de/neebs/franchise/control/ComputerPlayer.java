@@ -4,4 +4,12 @@ public interface ComputerPlayer {
     PlayerColor getPlayerColor();
 
     Draw evaluateDraw(GameRound round);
+
+    /**
+     * @return a player with the same settings for a game played at the same time as the games of this player;
+     * players without state of their own return themselves
+     */
+    default ComputerPlayer copy() {
+        return this;
+    }
 }
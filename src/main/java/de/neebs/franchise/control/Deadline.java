@@ -0,0 +1,31 @@
+package de.neebs.franchise.control;
+
+/**
+ * Wall-clock limit of a search. The search calls {@link #check()} on every node and is aborted by a
+ * {@link SearchTimeoutException} once the deadline has passed.
+ */
+final class Deadline {
+    static final Deadline NONE = new Deadline(0, false);
+
+    private final long nanoTime;
+    private final boolean limited;
+
+    private Deadline(long nanoTime, boolean limited) {
+        this.nanoTime = nanoTime;
+        this.limited = limited;
+    }
+
+    static Deadline in(long millis) {
+        return new Deadline(System.nanoTime() + millis * 1_000_000, true);
+    }
+
+    boolean isExpired() {
+        return limited && System.nanoTime() - nanoTime >= 0;
+    }
+
+    void check() {
+        if (isExpired()) {
+            throw new SearchTimeoutException();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.neebs.franchise.control;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of packed draws (see {@link PackedDraw}) for one search. Every ply appends its draws behind the ones
+ * of its parent and truncates the buffer to its start again when it is done, so a whole search runs on one buffer.
+ * <p>
+ * Besides the draw every slot holds an ordering score and the slot the draw was generated in, which stays stable while
+ * {@link #pickBest(int, int, int)} reorders the slots lazily. Draws using a bonus tile come first, followed by the draws
+ * placing the most branches.
+ */
+final class DrawBuffer {
+    static final int LAZY_PICKS = 16;
+
+    private long[] draws;
+    private int[] scores;
+    private int[] indexes;
+    private int size;
+
+    DrawBuffer() {
+        this(1024);
+    }
+
+    DrawBuffer(int capacity) {
+        draws = new long[capacity];
+        scores = new int[capacity];
+        indexes = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long draw(int slot) {
+        return draws[slot];
+    }
+
+    void add(long draw) {
+        if (size == draws.length) {
+            draws = Arrays.copyOf(draws, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+            indexes = Arrays.copyOf(indexes, size * 2);
+        }
+        draws[size] = draw;
+        scores[size] = score(draw);
+        indexes[size] = size;
+        size++;
+    }
+
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the slot the draw now in the given slot was generated in
+     */
+    int index(int slot) {
+        return indexes[slot];
+    }
+
+    /**
+     * Moves the draw generated in the slot {@code index} to the slot {@code from}.
+     *
+     * @return whether the draw was found in the slots {@code from} (inclusive) to {@code to} (exclusive)
+     */
+    boolean moveToFront(int from, int to, int index) {
+        for (int slot = from; slot < to; slot++) {
+            if (indexes[slot] == index) {
+                swap(from, slot);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selection step of a lazy sort over the draws of one ply in the slots {@code start} (inclusive) to {@code end}
+     * (exclusive): moves the draw with the highest score of the slots from {@code slot} on to the slot {@code slot}.
+     * Ties keep the generation order. As every step scans all remaining slots, only the first {@link #LAZY_PICKS}
+     * slots of a ply are picked, the remaining draws keep the generation order.
+     */
+    void pickBest(int start, int slot, int end) {
+        if (slot - start >= LAZY_PICKS) {
+            return;
+        }
+        int best = slot;
+        for (int i = slot + 1; i < end; i++) {
+            if (scores[i] > scores[best] || (scores[i] == scores[best] && indexes[i] < indexes[best])) {
+                best = i;
+            }
+        }
+        swap(slot, best);
+    }
+
+    private static int score(long draw) {
+        return (PackedDraw.bonusTileCount(draw) << 16) + (PackedDraw.extensionCount(draw) << 8) + PackedDraw.increaseCount(draw);
+    }
+
+    /**
+     * Exchanges the draws in the two slots together with their scores and indexes.
+     */
+    void swap(int a, int b) {
+        if (a == b) {
+            return;
+        }
+        long draw = draws[a];
+        draws[a] = draws[b];
+        draws[b] = draw;
+        int score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        int index = indexes[a];
+        indexes[a] = indexes[b];
+        indexes[b] = index;
+    }
+}
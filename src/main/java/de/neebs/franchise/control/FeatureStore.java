@@ -0,0 +1,512 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar store of integer training rows in a single file. Every column has a name and a fixed width of one or two
+ * bytes. The file starts with the schema, followed by row groups of up to {@code rowGroupSize} rows:
+ * {@code [rows][min, max per column][values of column 0]...[values of column n-1][occurrence counts]}. The minimum and
+ * maximum of every column per group allow scans to skip groups.
+ * <p>
+ * Rows are deduplicated: adding a row that is already stored increments its occurrence count, which is updated in
+ * place in the memory-mapped groups. New rows are buffered until the group is full or {@link #flush()} is called, which
+ * only forces the new group and the groups with changed counts to disk. A torn group at the end of the file, left by a
+ * crash, is cut off on opening.
+ */
+final class FeatureStore implements AutoCloseable {
+    private static final int MAGIC = 0x46524653;
+    private static final int VERSION = 1;
+
+    private final String[] names;
+    private final int[] widths;
+    private final int rowWidth;
+    private final int rowGroupSize;
+    private final FileChannel channel;
+    private final List<RowGroup> groups = new ArrayList<>();
+    private final List<RowGroup> dirtyGroups = new ArrayList<>();
+    // hash of a row to its number; rows with a colliding hash are stored without deduplication
+    private final RowIndex index = new RowIndex();
+
+    private long end;
+    private long storedRows;
+    private int[][] pending;
+    private int[] pendingCounts;
+    private int pendingRows;
+
+    /**
+     * Opens the store, creating it with the given schema if it does not exist.
+     *
+     * @param widths the width of every column in bytes, {@code 1} or {@code 2}
+     * @throws IllegalStateException if the existing store has a different schema
+     */
+    FeatureStore(Path file, List<String> names, int[] widths, int rowGroupSize) {
+        if (names.size() != widths.length || rowGroupSize < 1) {
+            throw new IllegalArgumentException("Every column needs a width and groups must hold rows");
+        }
+        int width = 0;
+        for (int w : widths) {
+            if (w != 1 && w != 2) {
+                throw new IllegalArgumentException("Columns are one or two bytes wide");
+            }
+            width += w;
+        }
+        this.names = names.toArray(new String[0]);
+        this.widths = widths.clone();
+        rowWidth = width;
+        this.rowGroupSize = rowGroupSize;
+        pending = new int[Math.min(rowGroupSize, 1024)][];
+        pendingCounts = new int[pending.length];
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                writeSchema();
+            } else {
+                readSchema(file);
+                recover();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeSchema() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(schemaBytes());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) name.length).put(name).put((byte) widths[i]);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+    }
+
+    private int schemaBytes() {
+        int bytes = 3 * Integer.BYTES;
+        for (String name : names) {
+            bytes += Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        return bytes;
+    }
+
+    private void readSchema(Path file) throws IOException {
+        int bytes = schemaBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        channel.read(buffer, 0);
+        buffer.flip();
+        if (buffer.remaining() < 3 * Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a feature store: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported feature store version " + version + ": " + file);
+        }
+        boolean same = buffer.getInt() == names.length && buffer.remaining() == bytes - 3 * Integer.BYTES;
+        for (int i = 0; same && i < names.length; i++) {
+            byte[] name = new byte[buffer.getShort()];
+            if (name.length >= buffer.remaining()) {
+                same = false;
+            } else {
+                buffer.get(name);
+                same = names[i].equals(new String(name, StandardCharsets.UTF_8)) && buffer.get() == widths[i];
+            }
+        }
+        if (!same) {
+            throw new IllegalStateException("Schema of " + file + " does not match");
+        }
+        end = bytes;
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        int statistics = 2 * Short.BYTES * names.length;
+        while (end + Integer.BYTES + statistics <= size) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(header, end);
+            int rows = header.getInt(0);
+            long bytes = groupBytes(rows);
+            if (rows < 1 || end + bytes > size) {
+                break;
+            }
+            RowGroup group = map(end, rows);
+            group.firstRow = storedRows;
+            for (int row = 0; row < rows; row++) {
+                index.putIfAbsent(hash(group, row), storedRows + row);
+            }
+            groups.add(group);
+            storedRows += rows;
+            end += bytes;
+        }
+        if (end < size) {
+            channel.truncate(end);
+        }
+    }
+
+    private long groupBytes(int rows) {
+        return Integer.BYTES + 2L * Short.BYTES * names.length + (long) rows * (rowWidth + Integer.BYTES);
+    }
+
+    private RowGroup map(long offset, int rows) throws IOException {
+        return map(channel, FileChannel.MapMode.READ_WRITE, widths, offset, rows);
+    }
+
+    private static RowGroup map(FileChannel channel, FileChannel.MapMode mode, int[] widths, long offset, int rows) throws IOException {
+        int position = Integer.BYTES + 2 * Short.BYTES * widths.length;
+        long bytes = position + (long) rows * Integer.BYTES;
+        for (int width : widths) {
+            bytes += (long) rows * width;
+        }
+        MappedByteBuffer buffer = channel.map(mode, offset, bytes);
+        int[] columnOffsets = new int[widths.length];
+        for (int i = 0; i < widths.length; i++) {
+            columnOffsets[i] = position;
+            position += rows * widths[i];
+        }
+        return new RowGroup(buffer, offset, rows, columnOffsets, position);
+    }
+
+    List<String> names() {
+        return List.of(names);
+    }
+
+    int[] widths() {
+        return widths.clone();
+    }
+
+    /**
+     * Adds one occurrence of the row.
+     *
+     * @throws IllegalArgumentException if a value does not fit into its column
+     */
+    synchronized void add(int[] row) {
+        if (row.length != names.length) {
+            throw new IllegalArgumentException("Expected " + names.length + " values, got " + row.length);
+        }
+        for (int i = 0; i < row.length; i++) {
+            int limit = widths[i] == 1 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+            if (row[i] > limit || row[i] < -limit - 1) {
+                throw new IllegalArgumentException("Value " + row[i] + " does not fit into column " + names[i]);
+            }
+        }
+        long hash = hash(row);
+        long number = index.get(hash);
+        if (number >= storedRows && Arrays.equals(pending[(int) (number - storedRows)], row)) {
+            pendingCounts[(int) (number - storedRows)]++;
+            return;
+        }
+        if (number != RowIndex.NONE && number < storedRows) {
+            RowGroup group = group(number);
+            int r = (int) (number - group.firstRow);
+            if (equals(group, r, row)) {
+                group.buffer.putInt(group.countsOffset + r * Integer.BYTES, group.count(r) + 1);
+                if (!group.dirty) {
+                    group.dirty = true;
+                    dirtyGroups.add(group);
+                }
+                return;
+            }
+        }
+        if (pendingRows == pending.length) {
+            pending = Arrays.copyOf(pending, 2 * pendingRows);
+            pendingCounts = Arrays.copyOf(pendingCounts, pending.length);
+        }
+        pending[pendingRows] = row.clone();
+        pendingCounts[pendingRows] = 1;
+        index.putIfAbsent(hash, storedRows + pendingRows);
+        pendingRows++;
+        if (pendingRows == rowGroupSize) {
+            flush();
+        }
+    }
+
+    private RowGroup group(long number) {
+        int low = 0;
+        int high = groups.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (groups.get(middle).firstRow <= number) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return groups.get(low);
+    }
+
+    private boolean equals(RowGroup group, int row, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (group.value(row, i, widths[i]) != values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(int[] row) {
+        long hash = 0;
+        for (int i = 0; i < row.length; i++) {
+            hash = hash * 31 + GameState.mix(i, row[i]);
+        }
+        return hash;
+    }
+
+    private long hash(RowGroup group, int row) {
+        long hash = 0;
+        for (int i = 0; i < names.length; i++) {
+            hash = hash * 31 + GameState.mix(i, group.value(row, i, widths[i]));
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the buffered rows as a new row group and forces it and the groups with changed counts to disk.
+     */
+    synchronized void flush() {
+        if (pendingRows > 0) {
+            writePending();
+        }
+        for (RowGroup group : dirtyGroups) {
+            group.buffer.force();
+            group.dirty = false;
+        }
+        dirtyGroups.clear();
+    }
+
+    private void writePending() {
+        int rows = pendingRows;
+        ByteBuffer buffer = ByteBuffer.allocate((int) groupBytes(rows));
+        buffer.putInt(rows);
+        for (int i = 0; i < names.length; i++) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int r = 0; r < rows; r++) {
+                min = Math.min(min, pending[r][i]);
+                max = Math.max(max, pending[r][i]);
+            }
+            buffer.putShort((short) min).putShort((short) max);
+        }
+        for (int i = 0; i < names.length; i++) {
+            for (int r = 0; r < rows; r++) {
+                if (widths[i] == 1) {
+                    buffer.put((byte) pending[r][i]);
+                } else {
+                    buffer.putShort((short) pending[r][i]);
+                }
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            buffer.putInt(pendingCounts[r]);
+        }
+        buffer.flip();
+        try {
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            RowGroup group = map(end, rows);
+            group.firstRow = storedRows;
+            group.dirty = true;
+            groups.add(group);
+            dirtyGroups.add(group);
+            end = position;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        storedRows += rows;
+        Arrays.fill(pending, 0, rows, null);
+        pendingRows = 0;
+    }
+
+    /**
+     * @return the number of distinct rows stored
+     */
+    synchronized long rows() {
+        return storedRows + pendingRows;
+    }
+
+    synchronized int groupCount() {
+        return groups.size();
+    }
+
+    synchronized int min(int group, int column) {
+        return groups.get(group).buffer.getShort(Integer.BYTES + 2 * Short.BYTES * column);
+    }
+
+    synchronized int max(int group, int column) {
+        return groups.get(group).buffer.getShort(Integer.BYTES + 2 * Short.BYTES * column + Short.BYTES);
+    }
+
+    /**
+     * Visits every distinct row with its number of occurrences. The buffered rows are flushed first; the row array is
+     * reused between the calls.
+     */
+    synchronized void scan(RowVisitor visitor) {
+        flush();
+        int[] row = new int[names.length];
+        for (RowGroup group : groups) {
+            group.scan(widths, row, visitor);
+        }
+    }
+
+    /**
+     * The buffered rows are flushed first, so every row is in one of the groups.
+     *
+     * @return the position of every row group in the file, see {@link #scan(Path, int[], long, RowVisitor)}
+     */
+    synchronized long[] groupOffsets() {
+        flush();
+        return groups.stream().mapToLong(group -> group.offset).toArray();
+    }
+
+    /**
+     * Visits the rows of a single group of a store file without opening the store, e.g. to read the groups in
+     * parallel. The row array is reused between the calls.
+     *
+     * @param widths the width of every column, as the store was opened with
+     * @param offset the position of the group, see {@link #groupOffsets()}
+     */
+    static void scan(Path file, int[] widths, long offset, RowVisitor visitor) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(header, offset);
+            RowGroup group = map(channel, FileChannel.MapMode.READ_ONLY, widths, offset, header.getInt(0));
+            group.scan(widths, new int[widths.length], visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    interface RowVisitor {
+        void visit(int[] row, int count);
+    }
+
+    /**
+     * Open addressing hash table of row hashes to row numbers, without boxing a key or value per row.
+     */
+    private static final class RowIndex {
+        static final long NONE = -1;
+
+        private long[] hashes = new long[1024];
+        private long[] numbers = filled(hashes.length);
+        private int size;
+
+        private static long[] filled(int length) {
+            long[] numbers = new long[length];
+            Arrays.fill(numbers, NONE);
+            return numbers;
+        }
+
+        private static int slot(long hash, int mask) {
+            return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        /**
+         * @return the number of the row with the hash or {@link #NONE}
+         */
+        long get(long hash) {
+            int mask = hashes.length - 1;
+            for (int i = slot(hash, mask); numbers[i] != NONE; i = (i + 1) & mask) {
+                if (hashes[i] == hash) {
+                    return numbers[i];
+                }
+            }
+            return NONE;
+        }
+
+        void putIfAbsent(long hash, long number) {
+            if (2 * (size + 1) > hashes.length) {
+                grow();
+            }
+            int mask = hashes.length - 1;
+            int i = slot(hash, mask);
+            while (numbers[i] != NONE) {
+                if (hashes[i] == hash) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            hashes[i] = hash;
+            numbers[i] = number;
+            size++;
+        }
+
+        private void grow() {
+            long[] oldHashes = hashes;
+            long[] oldNumbers = numbers;
+            hashes = new long[2 * oldHashes.length];
+            numbers = filled(hashes.length);
+            int mask = hashes.length - 1;
+            for (int j = 0; j < oldHashes.length; j++) {
+                if (oldNumbers[j] != NONE) {
+                    int i = slot(oldHashes[j], mask);
+                    while (numbers[i] != NONE) {
+                        i = (i + 1) & mask;
+                    }
+                    hashes[i] = oldHashes[j];
+                    numbers[i] = oldNumbers[j];
+                }
+            }
+        }
+    }
+
+    private static final class RowGroup {
+        private final MappedByteBuffer buffer;
+        private final long offset;
+        private final int rows;
+        private final int[] columnOffsets;
+        private final int countsOffset;
+        private long firstRow;
+        private boolean dirty;
+
+        RowGroup(MappedByteBuffer buffer, long offset, int rows, int[] columnOffsets, int countsOffset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.rows = rows;
+            this.columnOffsets = columnOffsets;
+            this.countsOffset = countsOffset;
+        }
+
+        int value(int row, int column, int width) {
+            int offset = columnOffsets[column] + row * width;
+            return width == 1 ? buffer.get(offset) : buffer.getShort(offset);
+        }
+
+        int count(int row) {
+            return buffer.getInt(countsOffset + row * Integer.BYTES);
+        }
+
+        void scan(int[] widths, int[] row, RowVisitor visitor) {
+            for (int r = 0; r < rows; r++) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = value(r, i, widths[i]);
+                }
+                visitor.visit(row, count(r));
+            }
+        }
+    }
+}
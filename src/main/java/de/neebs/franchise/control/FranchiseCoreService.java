@@ -69,23 +69,26 @@ public class FranchiseCoreService {
     }
 
     private void updateExtensionCosts(GameRound round) {
-        Set<City> ownCities = retrieveOwnedCities(round.getPlates(), round.getNext());
-        for (City city : City.values()) {
-            CityPlate plate = round.getPlates().get(city);
-            if (plate != null) {
-                plate.setExtensionCosts(null);
-                if (!ownCities.contains(city) && !plate.isClosed() && !plate.getBranches().contains(round.getNext())) {
-                        Optional<Connection> optionalConnection = Rules.CONNECTIONS.stream()
-                                .filter(f -> f.getCities().contains(city) && f.getCities().stream().anyMatch(ownCities::contains))
-                                .min(Comparator.comparingInt(Connection::getCosts));
-                    optionalConnection.ifPresent(connection -> plate.setExtensionCosts(connection.getCosts()));
+        long owned = 0;
+        for (Map.Entry<City, CityPlate> entry : round.getPlates().entrySet()) {
+            if (entry.getValue().getBranches().contains(round.getNext())) {
+                owned |= 1L << entry.getKey().ordinal();
+            }
+        }
+        for (Map.Entry<City, CityPlate> entry : round.getPlates().entrySet()) {
+            CityPlate plate = entry.getValue();
+            plate.setExtensionCosts(null);
+            if ((owned & 1L << entry.getKey().ordinal()) == 0 && !plate.isClosed()) {
+                int costs = Rules.extensionCosts(entry.getKey().ordinal(), owned);
+                if (costs != Rules.NO_CONNECTION) {
+                    plate.setExtensionCosts(costs);
                 }
             }
         }
     }
 
     private void manualDrawStandard(GameRound gameRound, Set<City> extension, List<City> increase, BonusTileUsage bonusTile, AdditionalInfo additionalInfo) {
-        Map<City, Long> counts = isDrawAllowed(gameRound, extension, increase, bonusTile);
+        Map<City, Long> counts = isDrawAllowed(gameRound.getActualScore().getBonusTiles(), extension, increase, bonusTile);
         Score score = gameRound.getActualScore();
         score.setIncome(calcIncome(gameRound, gameRound.getActual()));
         score.setMoney(score.getMoney() + score.getIncome());
@@ -227,13 +230,15 @@ public class FranchiseCoreService {
         if (set.size() == 1) {
             return List.of(set.iterator().next());
         }
+        // regions made of towns only (e.g. Montana) have no first city scorer
+        int start = closer == null ? 0 : players.indexOf(closer);
         List<PlayerColor> list = new ArrayList<>();
-        for (int i = players.indexOf(closer); i < players.size(); i++) {
+        for (int i = start; i < players.size(); i++) {
             if (set.contains(players.get(i))) {
                 list.add(players.get(i));
             }
         }
-        for (int i = 0; i <= players.indexOf(closer) - 1; i++) {
+        for (int i = 0; i <= start - 1; i++) {
             if (set.contains(players.get(i))) {
                 list.add(players.get(i));
             }
@@ -271,8 +276,7 @@ public class FranchiseCoreService {
                 entry.getValue().getBranches().removeIf(f -> f == round.getNext());
                 entry.getValue().getBranches().add(round.getNext());
                 entry.getValue().setClosed(true);
-                Region region = Arrays.stream(Region.values()).filter(f -> f.getCities().contains(entry.getKey())).findAny().orElseThrow();
-                round.getFirstCityScorers().computeIfAbsent(region, k -> round.getNext());
+                round.getFirstCityScorers().computeIfAbsent(Rules.regionOf(entry.getKey()), k -> round.getNext());
             }
         }
     }
@@ -316,8 +320,8 @@ public class FranchiseCoreService {
         }
     }
 
-    private Map<City, Long> isDrawAllowed(GameRound gameRound, Set<City> extension, List<City> increase, BonusTileUsage bonusTile) {
-        if (bonusTile != null && gameRound.getActualScore().getBonusTiles() == 0) {
+    private Map<City, Long> isDrawAllowed(int bonusTiles, Set<City> extension, List<City> increase, BonusTileUsage bonusTile) {
+        if (bonusTile != null && bonusTiles == 0) {
             throw new IllegalDrawException("All bonus tiles are already used");
         }
         if (extension.size() == 1 && bonusTile == BonusTileUsage.EXTENSION) {
@@ -347,7 +351,7 @@ public class FranchiseCoreService {
             throw new IllegalDrawException("In initialization phase exactly one extension is needed");
         }
         City city = extension.iterator().next();
-        if (!City.getTowns().contains(city)) {
+        if (!Rules.isTown(city.ordinal())) {
             throw new IllegalDrawException("In initialization phase only towns are allowed");
         }
         CityPlate plate = gameRound.getPlates().get(city);
@@ -359,111 +363,427 @@ public class FranchiseCoreService {
         gameRound.getPlates().put(city, plate);
     }
 
-    public List<Draw> nextDraws(GameRound gameRound) {
-        if (gameRound.isEnd()) {
-            return List.of();
-        } else if (gameRound.getRound() + 1 <= gameRound.getPlayers().size()) {
-            return City.getTowns().stream()
-                    .filter(f -> !gameRound.getPlates().containsKey(f) || gameRound.getPlates().get(f).getBranches().isEmpty())
-                    .map(f -> Draw.builder().extension(Set.of(f)).increase(List.of()).build()).toList();
-        } else {
-            int income = calcIncome(gameRound, gameRound.getNext());
-            int money = gameRound.getScores().get(gameRound.getNext()).getMoney() + income;
-            // evaluate owned cities
-            Set<City> owned = retrieveOwnedCities(gameRound.getPlates(), gameRound.getNext());
-            // ne extension
-            Map<Draw, Integer> map = new HashMap<>();
-            map.put(Draw.builder().extension(Set.of()).increase(List.of()).build(), money);
-            if (gameRound.canUseBonusTile()) {
-                map.put(Draw.builder().extension(Set.of()).increase(List.of()).bonusTileUsage(BonusTileUsage.MONEY).build(), money + 10);
+    /**
+     * Applies the draw in place on the given state, like {@link #manualDraw(GameRound, Draw)} does on a copy of a
+     * game round. All changes are recorded in the undo log of the state, so {@link #undo(GameState)} restores the
+     * state before the draw. If the draw is not allowed, the state stays untouched.
+     */
+    public void apply(GameState state, Draw draw) {
+        state.mark();
+        try {
+            state.setRound(state.round() + 1);
+            state.setActual(state.next());
+            if (isInitialization(state)) {
+                applyInitialization(state, draw.getExtension());
+            } else {
+                applyStandard(state, draw);
             }
-            // extension to one city in the neighbourhood
-            Map<Draw, Integer> extension = evaluateExtensions(gameRound, owned, map);
-            // is a second extension possible?
-            if (gameRound.canUseBonusTile()) {
-                map.putAll(evaluateExtensions(gameRound, owned, extension));
+            nextPlayer(state);
+        } catch (RuntimeException e) {
+            state.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a packed draw (see {@link PackedDraw}) in place, like {@link #apply(GameState, Draw)}.
+     */
+    void apply(GameState state, long draw) {
+        state.mark();
+        try {
+            state.setRound(state.round() + 1);
+            state.setActual(state.next());
+            if (isInitialization(state)) {
+                if (PackedDraw.extensionCount(draw) != 1) {
+                    throw new IllegalDrawException("In initialization phase exactly one extension is needed");
+                }
+                applyInitialization(state, GameState.CITIES[PackedDraw.extension1(draw)]);
+            } else {
+                if (PackedDraw.bonusTileCount(draw) > 1) {
+                    throw new IllegalDrawException("Only one bonus tile can be used per draw");
+                }
+                int doubled = PackedDraw.doubledCity(draw);
+                long twice = doubled == GameState.NONE ? 0 : 1L << doubled;
+                applyStandard(state, PackedDraw.extension1(draw), PackedDraw.extension2(draw),
+                        PackedDraw.increases(draw) & ~twice, twice, PackedDraw.bonusTileUsage(draw));
             }
-            map.putAll(extension);
-            // increases
-            return increase(gameRound, owned, map);
+            nextPlayer(state);
+        } catch (RuntimeException e) {
+            state.rollback();
+            throw e;
         }
     }
 
-    int calcIncome(GameRound gameRound, PlayerColor playerColor) {
-        return Rules.calcIncome(gameRound.getPlayers().size(), calcIncomeScore(playerColor, gameRound.getPlates()));
+    /**
+     * Reverts the last draw applied by {@link #apply(GameState, Draw)} or {@link #apply(GameState, long)}.
+     */
+    public void undo(GameState state) {
+        state.rollback();
     }
 
-    int calcIncomeScore(PlayerColor playerColor, Map<City, CityPlate> plates) {
-        int moneyScore = 0;
-        for (Map.Entry<City, CityPlate> entry : plates.entrySet().stream().filter(f -> !f.getValue().isClosed() && f.getValue().getBranches().contains(playerColor)).collect(Collectors.toSet())) {
-            moneyScore += entry.getKey().getSize() - entry.getValue().getBranches().size();
+    private boolean isInitialization(GameState state) {
+        return state.round() <= state.playerCount();
+    }
+
+    private void applyInitialization(GameState state, Set<City> extension) {
+        if (extension.size() != 1) {
+            throw new IllegalDrawException("In initialization phase exactly one extension is needed");
         }
-        return moneyScore;
+        applyInitialization(state, extension.iterator().next());
     }
 
-    Set<City> retrieveOwnedCities(Map<City, CityPlate> plates, PlayerColor playerColor) {
-        return plates.entrySet().stream().filter(f -> f.getValue().getBranches().contains(playerColor)).map(Map.Entry::getKey).collect(Collectors.toSet());
+    private void applyInitialization(GameState state, City city) {
+        if (city.getSize() != 1) {
+            throw new IllegalDrawException("In initialization phase only towns are allowed");
+        }
+        if (state.branchCount(city.ordinal()) > 0) {
+            throw new IllegalDrawException("Can only use towns, which are not occupied so far");
+        }
+        state.occupyTown(city.ordinal(), state.next());
     }
 
-    private List<Draw> increase(GameRound gameRound, Set<City> owned, Map<Draw, Integer> drawMoneyMap) {
-        List<Draw> list = new ArrayList<>();
-        for (Map.Entry<Draw, Integer> entry : drawMoneyMap.entrySet()) {
-            Set<Draw> inner = new HashSet<>();
-            inner.add(entry.getKey());
-            for (City city : gameRound.getPlates().entrySet().stream().filter(f -> owned.contains(f.getKey())).filter(f -> !f.getValue().isClosed()).map(Map.Entry::getKey).toList()) {
-                Set<Draw> increases = increaseForCity(gameRound, entry, inner, city);
-                inner.addAll(increases);
+    private void applyStandard(GameState state, Draw draw) {
+        Map<City, Long> counts = isDrawAllowed(state.bonusTiles(state.next()), draw.getExtension(), draw.getIncrease(), draw.getBonusTileUsage());
+        int[] extension = {GameState.NONE, GameState.NONE};
+        int i = 0;
+        for (City city : draw.getExtension()) {
+            extension[i++] = city.ordinal();
+        }
+        long once = 0;
+        long twice = 0;
+        for (Map.Entry<City, Long> entry : counts.entrySet()) {
+            if (entry.getValue() == 1) {
+                once |= 1L << entry.getKey().ordinal();
+            } else {
+                twice |= 1L << entry.getKey().ordinal();
             }
-            list.addAll(inner);
         }
-        return list;
+        applyStandard(state, extension[0], extension[1], once, twice, draw.getBonusTileUsage());
     }
 
-    private Set<Draw> increaseForCity(GameRound gameRound, Map.Entry<Draw, Integer> entry, Set<Draw> inner, City city) {
-        Set<Draw> increases = new HashSet<>();
-        for (Draw draw : inner) {
-            if (draw.getIncrease().size() < entry.getValue()) {
-                List<City> cities = new ArrayList<>(draw.getIncrease());
-                cities.add(city);
-                increases.add(Draw.builder().extension(draw.getExtension()).increase(cities).bonusTileUsage(draw.getBonusTileUsage()).build());
-                if (gameRound.canUseBonusTile() && !draw.isBonusTile()) {
-                    CityPlate cityPlate = gameRound.getPlates().get(city);
-                    if (cityPlate.getBranches().size() + 2 > city.getSize()) {
-                        continue; // not enough places left
-                    }
-                    if (cities.size() >= entry.getValue()) {
-                        continue; // we do not have enough money to pay it
-                    }
-                    if (cityPlate.getBranches().stream().filter(f -> gameRound.getNext() == f).count() + 1 > city.getSize() / 2) {
-                        continue; // the first plate will already close it
-                    }
-                    cities = new ArrayList<>(cities);
-                    cities.add(city);
-                    increases.add(Draw.builder().extension(draw.getExtension()).increase(cities).bonusTileUsage(BonusTileUsage.INCREASE).build());
+    /**
+     * @param once  cities (by ordinal) increased by one branch
+     * @param twice cities (by ordinal) increased by two branches
+     */
+    private void applyStandard(GameState state, int extension1, int extension2, long once, long twice, BonusTileUsage bonusTile) {
+        int player = state.next();
+        if (bonusTile != null && state.bonusTiles(player) == 0) {
+            throw new IllegalDrawException("All bonus tiles are already used");
+        }
+        int income = calcIncome(state, player);
+        state.setIncome(player, income);
+        int money = state.money(player) + income;
+        if (bonusTile != null) {
+            state.setBonusTiles(player, state.bonusTiles(player) - 1);
+        }
+        if (bonusTile == BonusTileUsage.MONEY) {
+            money += 10;
+        }
+        money = expand(state, extension1, money);
+        money = expand(state, extension2, money);
+        money = increase(state, once, 1, money);
+        money = increase(state, twice, 2, money);
+        state.setMoney(player, money);
+        if (extension1 != GameState.NONE) {
+            state.addBranch(extension1, player);
+        }
+        if (extension2 != GameState.NONE) {
+            state.addBranch(extension2, player);
+        }
+        scoreCities(state);
+        scoreRegions(state);
+    }
+
+    private int expand(GameState state, int city, int money) {
+        if (city == GameState.NONE) {
+            return money;
+        }
+        if (state.isClosed(city)) {
+            throw new IllegalDrawException("City " + GameState.CITIES[city] + " is already closed");
+        }
+        if (state.hasBranch(city, state.next())) {
+            throw new IllegalDrawException("Player " + GameState.COLORS[state.next()] + " already has a branch in " + GameState.CITIES[city]);
+        }
+        int costs = state.extensionCosts(city);
+        if (costs == GameState.NONE) {
+            throw new IllegalDrawException("No connection exists for " + GameState.CITIES[city]);
+        }
+        if (money < costs) {
+            throw new IllegalDrawException("Not enough money for expansion to " + GameState.CITIES[city]);
+        }
+        return money - costs;
+    }
+
+    private int increase(GameState state, long cities, int count, int money) {
+        int player = state.next();
+        for (; cities != 0; cities &= cities - 1) {
+            int c = Long.numberOfTrailingZeros(cities);
+            if (!state.isClosed(c)
+                    && state.hasBranch(c, player)
+                    && money >= count
+                    && state.branchCount(c) + count <= GameState.CITIES[c].getSize()) {
+                for (int i = 0; i < count; i++) {
+                    state.addBranch(c, player);
+                }
+                money -= count;
+            } else {
+                throw new IllegalDrawException("Cannot increase market share in " + GameState.CITIES[c].getName());
+            }
+        }
+        return money;
+    }
+
+    private void scoreCities(GameState state) {
+        int player = state.next();
+        for (City city : GameState.CITIES) {
+            int c = city.ordinal();
+            int count = state.branchCount(c);
+            if (city.getSize() == 1 && count == 1 && !state.isClosed(c)) {
+                state.setClosed(c);
+            }
+            if (state.isClosed(c)) {
+                continue;
+            }
+            int max = 0;
+            for (int color = 0; color < GameState.COLORS.length; color++) {
+                max = Math.max(max, state.countBranches(c, color));
+            }
+            final int influence;
+            if (max > city.getSize() / 2) {
+                influence = city.getSize();
+            } else if (count == city.getSize()) {
+                influence = city.getSize() / 2;
+            } else {
+                continue;
+            }
+            state.addInfluence(player, influence);
+            state.keepSingleBranch(c, player);
+            state.setClosed(c);
+            int region = Rules.regionOf(city).ordinal();
+            if (state.firstCityScorer(region) == GameState.NONE) {
+                state.setFirstCityScorer(region, player);
+            }
+        }
+    }
+
+    private void scoreRegions(GameState state) {
+        for (Region region : GameState.REGIONS) {
+            if (state.isRegionScored(region.ordinal())) {
+                continue;
+            }
+            boolean scoreIt = true;
+            for (City city : region.getCities()) {
+                if (!state.isClosed(city.ordinal())) {
+                    scoreIt = false;
                 }
             }
+            if (scoreIt) {
+                scoreRegion(state, region);
+            }
+        }
+        state.setEnd(state.scoredRegionCount() > GameState.REGIONS.length - 3);
+        if (state.isEnd()) {
+            scoreRound(state);
+        }
+    }
+
+    private void scoreRegion(GameState state, Region region) {
+        int[] counts = new int[GameState.COLORS.length];
+        for (City city : region.getCities()) {
+            for (int i = 0; i < state.branchCount(city.ordinal()); i++) {
+                counts[state.branch(city.ordinal(), i)]++;
+            }
+        }
+        int profitLevel = 1;
+        int playerCount = state.playerCount();
+        int closer = state.playerIndex(state.firstCityScorer(region.ordinal()));
+        while (true) {
+            int max = 0;
+            for (int count : counts) {
+                max = Math.max(max, count);
+            }
+            if (max == 0) {
+                break;
+            }
+            // players with the same count are scored starting with the first city scorer of the region
+            for (int i = 0; i < playerCount; i++) {
+                int color = state.player((Math.max(closer, 0) + i) % playerCount);
+                if (counts[color] == max) {
+                    state.addInfluence(color, region.getByProfitLevel(profitLevel));
+                    profitLevel += playerCount == 2 ? 2 : 1;
+                }
+            }
+            for (int color = 0; color < counts.length; color++) {
+                if (counts[color] == max) {
+                    counts[color] = 0;
+                }
+            }
+        }
+        state.addInfluence(state.next(), Region.getRegionFinishInfluence().get(state.scoredRegionCount()));
+        state.addScoredRegion(region.ordinal());
+    }
+
+    private void scoreRound(GameState state) {
+        for (long towns = Rules.towns(); towns != 0; towns &= towns - 1) {
+            int c = Long.numberOfTrailingZeros(towns);
+            if (state.branchCount(c) > 0 && state.playerIndex(state.branch(c, 0)) != GameState.NONE) {
+                state.addInfluence(state.branch(c, 0), 1);
+            }
+        }
+        for (int i = 0; i < state.playerCount(); i++) {
+            int color = state.player(i);
+            state.addInfluence(color, state.money(color) / 3 + state.bonusTiles(color) * 4);
+            state.setMoney(color, state.money(color) % 3);
+            state.setBonusTiles(color, 0);
+        }
+    }
+
+    private void nextPlayer(GameState state) {
+        int index = state.playerIndex(state.next());
+        if (isInitialization(state)) {
+            if (index > 0) {
+                state.setNext(state.player(index - 1));
+            } else {
+                updateExtensionCosts(state);
+            }
+        } else {
+            state.setNext(state.player((index + 1) % state.playerCount()));
+            updateExtensionCosts(state);
+        }
+    }
+
+    private void updateExtensionCosts(GameState state) {
+        long owned = state.ownedCities(state.next());
+        long blocked = owned | state.closedCities();
+        for (int c = 0; c < GameState.CITIES.length; c++) {
+            int costs = (blocked & 1L << c) != 0 ? Rules.NO_CONNECTION : Rules.extensionCosts(c, owned);
+            state.setExtensionCosts(c, costs == Rules.NO_CONNECTION ? GameState.NONE : costs);
+        }
+    }
+
+    int calcIncome(GameState state, int player) {
+        int moneyScore = 0;
+        for (City city : GameState.CITIES) {
+            int c = city.ordinal();
+            if (!state.isClosed(c) && state.hasBranch(c, player)) {
+                moneyScore += city.getSize() - state.branchCount(c);
+            }
+        }
+        return Rules.calcIncome(state.playerCount(), moneyScore);
+    }
+
+    public List<Draw> nextDraws(GameRound gameRound) {
+        DrawBuffer buffer = new DrawBuffer();
+        int count = nextDraws(GameState.of(gameRound), buffer);
+        List<Draw> draws = new ArrayList<>(count);
+        for (int slot = 0; slot < count; slot++) {
+            draws.add(PackedDraw.toDraw(buffer.draw(slot)));
         }
-        return increases;
+        return draws;
     }
 
-    private Map<Draw, Integer> evaluateExtensions(GameRound gameRound, Set<City> owned, Map<Draw, Integer> basis) {
-        Map<Draw, Integer> map = new HashMap<>();
-        for (Map.Entry<Draw, Integer> entry : basis.entrySet()) {
-            for (City city : Arrays.stream(City.values()).filter(f -> !owned.contains(f)).toList()) {
-                Integer costs = gameRound.getPlates().get(city).getExtensionCosts();
-                if (costs != null // es gibt eine Möglichkeit zu expandieren
-                        && entry.getValue() >= costs // die Kosten können getragen werden
-                        && !entry.getKey().getExtension().contains(city) // die Stadt ist noch nicht im Draw
-                        && (!entry.getKey().isBonusTile() || entry.getKey().getExtension().isEmpty())) { // es wurde noch kein Bonus Tile verwendet oder es wurde noch keine Stadt expandiert
-                    Set<City> set = new HashSet<>(entry.getKey().getExtension());
-                    set.add(city);
-                    map.put(Draw.builder().extension(set).increase(List.of()).bonusTileUsage(set.size() > 1 ? BonusTileUsage.EXTENSION : entry.getKey().getBonusTileUsage()).build(), entry.getValue() - costs);
+    /**
+     * Appends all draws allowed for the next player to the buffer, packed as described in {@link PackedDraw}. No
+     * objects are allocated, the draws are materialized by {@link #nextDraws(GameRound)} only.
+     *
+     * @return the number of draws appended
+     */
+    int nextDraws(GameState state, DrawBuffer buffer) {
+        int start = buffer.size();
+        if (state.isEnd()) {
+            return 0;
+        } else if (state.round() + 1 <= state.playerCount()) {
+            for (long towns = Rules.towns(); towns != 0; towns &= towns - 1) {
+                int c = Long.numberOfTrailingZeros(towns);
+                if (state.branchCount(c) == 0) {
+                    buffer.add(PackedDraw.extension(PackedDraw.EMPTY, c));
+                }
+            }
+        } else {
+            int player = state.next();
+            int money = state.money(player) + calcIncome(state, player);
+            boolean bonusTile = state.round() >= state.playerCount() * 2 && state.bonusTiles(player) > 0;
+            long owned = 0;
+            long doubles = 0;
+            long extensions = 0;
+            for (City city : GameState.CITIES) {
+                int c = city.ordinal();
+                if (state.isClosed(c)) {
+                    continue;
+                }
+                if (state.hasBranch(c, player)) {
+                    owned |= 1L << c;
+                    if (bonusTile
+                            && state.branchCount(c) + 2 <= city.getSize() // enough places left
+                            && state.countBranches(c, player) + 1 <= city.getSize() / 2) { // the first branch does not close it already
+                        doubles |= 1L << c;
+                    }
+                } else if (state.extensionCosts(c) != GameState.NONE) {
+                    extensions |= 1L << c;
+                }
+            }
+            addIncreases(buffer, PackedDraw.EMPTY, owned, money, doubles);
+            if (bonusTile) {
+                addIncreases(buffer, PackedDraw.money(PackedDraw.EMPTY), owned, money + 10, 0);
+            }
+            for (long first = extensions; first != 0; first &= first - 1) {
+                int c1 = Long.numberOfTrailingZeros(first);
+                int costs1 = state.extensionCosts(c1);
+                long draw = PackedDraw.extension(PackedDraw.EMPTY, c1);
+                if (money >= costs1) {
+                    addIncreases(buffer, draw, owned, money - costs1, doubles);
+                }
+                if (!bonusTile) {
+                    continue;
+                }
+                if (money + 10 >= costs1) {
+                    addIncreases(buffer, PackedDraw.money(draw), owned, money + 10 - costs1, 0);
+                }
+                for (long second = first & (first - 1); second != 0; second &= second - 1) {
+                    int c2 = Long.numberOfTrailingZeros(second);
+                    int costs2 = state.extensionCosts(c2);
+                    if (money >= costs1 + costs2) {
+                        addIncreases(buffer, PackedDraw.extension(draw, c2), owned, money - costs1 - costs2, 0);
+                    }
                 }
             }
         }
-        return map;
+        return buffer.size() - start;
     }
 
+    /**
+     * Appends the draw combined with every affordable set of increases in the given cities. One city out of
+     * {@code doubles} may be increased twice using the bonus tile.
+     */
+    private void addIncreases(DrawBuffer buffer, long draw, long cities, int money, long doubles) {
+        if (cities == 0 || money == 0) {
+            buffer.add(draw);
+            return;
+        }
+        int city = Long.numberOfTrailingZeros(cities);
+        long others = cities & (cities - 1);
+        addIncreases(buffer, draw, others, money, doubles);
+        addIncreases(buffer, PackedDraw.increase(draw, city), others, money - 1, doubles);
+        if (money >= 2 && (doubles & 1L << city) != 0) {
+            addIncreases(buffer, PackedDraw.increaseTwice(draw, city), others, money - 2, 0);
+        }
+    }
+
+    int calcIncome(GameRound gameRound, PlayerColor playerColor) {
+        return Rules.calcIncome(gameRound.getPlayers().size(), calcIncomeScore(playerColor, gameRound.getPlates()));
+    }
+
+    int calcIncomeScore(PlayerColor playerColor, Map<City, CityPlate> plates) {
+        int moneyScore = 0;
+        for (Map.Entry<City, CityPlate> entry : plates.entrySet().stream().filter(f -> !f.getValue().isClosed() && f.getValue().getBranches().contains(playerColor)).collect(Collectors.toSet())) {
+            moneyScore += entry.getKey().getSize() - entry.getValue().getBranches().size();
+        }
+        return moneyScore;
+    }
+
+    Set<City> retrieveOwnedCities(Map<City, CityPlate> plates, PlayerColor playerColor) {
+        return plates.entrySet().stream().filter(f -> f.getValue().getBranches().contains(playerColor)).map(Map.Entry::getKey).collect(Collectors.toSet());
+    }
 
     Map<PlayerColor, Integer> score(Map<PlayerColor, Score> s) {
         return calculateInfluenceDifferences(s.entrySet().stream()
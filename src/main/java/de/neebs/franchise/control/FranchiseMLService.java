@@ -1,41 +1,151 @@
 package de.neebs.franchise.control;
 
-import lombok.Builder;
-import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.Setter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.ml.feature.VectorAssembler;
-import org.apache.spark.ml.linalg.Vector;
-import org.apache.spark.ml.linalg.Vectors;
 import org.apache.spark.ml.regression.LinearRegression;
 import org.apache.spark.ml.regression.LinearRegressionModel;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.stream.Stream;
 
+/**
+ * Value model of the MACHINE_LEARNING strategy: a linear regression of the final score on the board seen by the player
+ * who acted. The model is an {@link OnlineRegression}, which learns from every trained game and is persisted in
+ * {@code franchise.ml.file}. If {@code franchise.ml.export-training-data} is set, the training rows are also collected
+ * in a {@link FeatureStore} with the columns of {@link #createHeader()}. A missing model is learned once from the
+ * stored training data (or the CSV of earlier versions); Spark is only used to refit the model on that data in bulk,
+ * see {@link #bulkRetrain()} and {@link BulkRetrainRunner}.
+ */
 @Service
-@RequiredArgsConstructor
+@Slf4j
 public class FranchiseMLService {
-    private static final Random RANDOM = new Random();
+    private static final Path DATA_FILE = Path.of("ml-model", "data.csv");
+    private static final String COUNT = "count";
+    private static final BoardFeaturizer.Encoding ENCODING = BoardFeaturizer.Encoding.ORDINAL;
 
     private final FranchiseCoreService franchiseCoreService;
+    private final BoardFeaturizer boardFeaturizer;
+    private final int dimension;
+    private final Path modelFile;
+    private final double forgettingFactor;
+    private final boolean exportTrainingData;
+    private final Path dataFile;
+    private final int rowGroupSize;
 
-    private final List<List<Integer>> unsavedTrainingData = new ArrayList<>();
+    private volatile OnlineRegression regressionModel;
+    private volatile FeatureStore featureStore;
 
-    private LinearRegressionModel regressionModel;
+    public FranchiseMLService(FranchiseCoreService franchiseCoreService,
+                              BoardFeaturizer boardFeaturizer,
+                              @Value("${franchise.ml.file:ml-model/model.bin}") String modelFile,
+                              @Value("${franchise.ml.forgetting-factor:1.0}") double forgettingFactor,
+                              @Value("${franchise.ml.export-training-data:false}") boolean exportTrainingData,
+                              @Value("${franchise.ml.data-file:ml-model/data.bin}") String dataFile,
+                              @Value("${franchise.ml.row-group-size:65536}") int rowGroupSize) {
+        this.franchiseCoreService = franchiseCoreService;
+        this.boardFeaturizer = boardFeaturizer;
+        dimension = boardFeaturizer.dimension(ENCODING, false);
+        this.modelFile = Path.of(modelFile);
+        this.forgettingFactor = forgettingFactor;
+        this.exportTrainingData = exportTrainingData;
+        this.dataFile = Path.of(dataFile);
+        this.rowGroupSize = rowGroupSize;
+    }
 
-    public void init() {
+    public synchronized void init() {
         if (regressionModel != null) {
             return;
         }
+        if (exportTrainingData || Files.exists(dataFile)) {
+            featureStore = openFeatureStore();
+        }
+        if (Files.exists(modelFile)) {
+            regressionModel = OnlineRegression.read(modelFile, forgettingFactor);
+            return;
+        }
+        OnlineRegression model = new OnlineRegression(dimension, forgettingFactor);
+        if (featureStore != null && featureStore.rows() > 0) {
+            learnFromStore(model);
+            log.info("Learned regression model from {} samples in {}", model.samples(), dataFile);
+        } else if (Files.exists(DATA_FILE)) {
+            learnFromCsv(model);
+            log.info("Learned regression model from {} samples in {}", model.samples(), DATA_FILE);
+        }
+        regressionModel = model;
+    }
+
+    FeatureStore openFeatureStore() {
+        List<String> header = createHeader();
+        int[] widths = new int[header.size()];
+        for (int i = 0; i < widths.length; i++) {
+            String name = header.get(i);
+            widths[i] = name.endsWith("Influence") || name.endsWith("Money") || name.equals("Score") ? 2 : 1;
+        }
+        return new FeatureStore(dataFile, header, widths, rowGroupSize);
+    }
+
+    private static Iterator<Row> readRowGroup(String file, int[] widths, long offset) {
+        List<Row> rows = new ArrayList<>();
+        FeatureStore.scan(Path.of(file), widths, offset, (row, count) -> {
+            Object[] values = new Object[row.length + 1];
+            for (int i = 0; i < row.length; i++) {
+                values[i] = row[i];
+            }
+            values[row.length] = count;
+            rows.add(RowFactory.create(values));
+        });
+        return rows.iterator();
+    }
+
+    private void learnFromStore(OnlineRegression model) {
+        double[] features = new double[dimension];
+        featureStore.scan((row, count) -> {
+            for (int i = 0; i < dimension; i++) {
+                features[i] = row[i];
+            }
+            for (int i = 0; i < count; i++) {
+                model.update(features, row[row.length - 1]);
+            }
+        });
+    }
+
+    private void learnFromCsv(OnlineRegression model) {
+        double[] features = new double[dimension];
+        try (Stream<String> lines = Files.lines(DATA_FILE)) {
+            lines.filter(line -> !line.isEmpty() && !line.startsWith("actual")).forEach(line -> {
+                String[] values = line.split(",");
+                for (int i = 0; i < dimension; i++) {
+                    features[i] = Double.parseDouble(values[i]);
+                }
+                model.update(features, Double.parseDouble(values[values.length - 1]));
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Fits the model on all training data with Spark and continues learning online from that fit. The rows of the
+     * feature store are weighted by their occurrences; without a store, the CSV of earlier versions is read.
+     */
+    public synchronized void bulkRetrain() {
+        init();
         SparkSession spark = SparkSession.builder()
                 .appName("Franchise ML Example")
                 .master("local[*]")
@@ -44,13 +154,26 @@ public class FranchiseMLService {
                 .config("spark.ui.enabled", "false") // Disable Spark UI
                 .getOrCreate();
 
-        String dataFile = Path.of("ml-model", "data.csv").toString();
-
-        Dataset<Row> df = spark.read()
-                .format("csv")
-                .option("header", "true")
-                .option("inferSchema", "true")
-                .load(dataFile);
+        Dataset<Row> df;
+        if (featureStore != null) {
+            List<StructField> fields = new ArrayList<>();
+            featureStore.names().forEach(name -> fields.add(DataTypes.createStructField(name, DataTypes.IntegerType, false)));
+            fields.add(DataTypes.createStructField(COUNT, DataTypes.IntegerType, false));
+            // one partition per row group, read by the tasks themselves, so the rows are never collected on the driver
+            List<Long> offsets = Arrays.stream(featureStore.groupOffsets()).boxed().toList();
+            String file = dataFile.toString();
+            int[] widths = featureStore.widths();
+            JavaRDD<Row> rows = JavaSparkContext.fromSparkContext(spark.sparkContext())
+                    .parallelize(offsets, Math.max(1, offsets.size()))
+                    .flatMap(offset -> readRowGroup(file, widths, offset));
+            df = spark.createDataFrame(rows, DataTypes.createStructType(fields));
+        } else {
+            df = spark.read()
+                    .format("csv")
+                    .option("header", "true")
+                    .option("inferSchema", "true")
+                    .load(DATA_FILE.toString());
+        }
 
         StructType schema = df.schema();
         String[] inputCols = schema.fieldNames();
@@ -58,6 +181,7 @@ public class FranchiseMLService {
         List<String> inputs = Arrays.asList(inputCols);
         inputs = new ArrayList<>(inputs);
         inputs.remove("Score");
+        inputs.remove(COUNT);
         for (PlayerColor pc : PlayerColor.values()) {
             inputs.removeIf(f -> f.startsWith(pc.name()));
         }
@@ -71,119 +195,108 @@ public class FranchiseMLService {
 
         // Create and train the model
         LinearRegression lr = new LinearRegression().setFeaturesCol("features").setLabelCol("Score");
-        regressionModel = lr.train(vectorData);
+        if (featureStore != null) {
+            lr.setWeightCol(COUNT);
+        }
+        LinearRegressionModel model = lr.train(vectorData);
         spark.close();
+        regressionModel.setWeights(model.coefficients().toArray(), model.intercept());
+        regressionModel.writeTo(modelFile);
     }
 
     public List<String> createHeader() {
-        List<String> result = new ArrayList<>();
-        result.add("actual");
-        result.add("next");
-        for (City city : City.values()) {
-            for (int i = 0; i < city.getSize(); i++) {
-                result.add(city.name() + i);
-            }
-        }
-        for (PlayerColor color : PlayerColor.values()) {
-            result.add(color.name() + "BonusTile");
-            result.add(color.name() + "Influence");
-            result.add(color.name() + "Money");
-        }
+        List<String> result = new ArrayList<>(boardFeaturizer.header(ENCODING, true));
         result.add("Score");
         return result;
     }
 
-    private List<Integer> createVectorizedBoard(GameRound round, boolean includePlayerStats) {
-        List<Integer> result = new ArrayList<>();
-        result.add(round.getActual() == null ? round.getNext().ordinal() : round.getActual().ordinal());
-        result.add(round.getNext().ordinal());
-        for (City city : City.values()) {
-            CityPlate plate = round.getPlates().get(city);
-            if (plate == null) {
-                plate = new CityPlate(false, new ArrayList<>(), null);
-            }
-            for (int i = 0; i < city.getSize(); i++) {
-                if (i < plate.getBranches().size()) {
-                    result.add(plate.getBranches().get(i).ordinal());
-                } else {
-                    result.add(-1);
-                }
-            }
-        }
-        if (includePlayerStats) {
-            for (PlayerColor color : PlayerColor.values()) {
-                Score score = round.getScores().get(color);
-                if (score != null) {
-                    result.add(score.getBonusTiles());
-                    result.add(score.getInfluence());
-                    result.add(score.getMoney());
-                } else {
-                    result.add(-1);
-                    result.add(-1);
-                    result.add(-1);
-                }
+    /**
+     * @return the row of the training data in the order of {@link #createHeader()}, -1 for the stats of absent players
+     */
+    int[] trainingRow(GameState state, int score) {
+        int[] row = new int[boardFeaturizer.dimension(ENCODING, true) + 1];
+        boardFeaturizer.write(state, ENCODING, true, row, 0);
+        row[row.length - 1] = score;
+        return row;
+    }
+
+    /**
+     * Writes the features of the boards after each of the first {@code count} draws of the buffer into consecutive
+     * rows of the matrix. Every row starts as a copy of the features of the current board, and only the players and
+     * the plates changed by the draw are rewritten.
+     */
+    void candidateFeatures(GameState state, DrawBuffer draws, int count, double[] matrix) {
+        double[] board = new double[dimension];
+        boardFeaturizer.write(state, ENCODING, false, board, 0);
+        for (int row = 0; row < count; row++) {
+            int offset = row * dimension;
+            System.arraycopy(board, 0, matrix, offset, dimension);
+            franchiseCoreService.apply(state, draws.draw(row));
+            boardFeaturizer.writePlayers(state, ENCODING, matrix, offset);
+            for (long cities = state.changedCities(); cities != 0; cities &= cities - 1) {
+                boardFeaturizer.writePlate(state, Long.numberOfTrailingZeros(cities), ENCODING, matrix, offset);
             }
+            franchiseCoreService.undo(state);
         }
-        return result;
     }
 
     public Draw machineLearning(GameRound round, int range) {
         init();
 
-        List<Draw> draws = franchiseCoreService.nextDraws(round);
-        List<RatedDraw> ratedDraws = new ArrayList<>();
-        for (Draw draw : draws) {
-            ExtendedGameRound gr = franchiseCoreService.manualDraw(round, draw);
-            List<Integer> list = createVectorizedBoard(gr.getGameRound(), false);
-            double[] doubles = list.stream().mapToDouble(f -> (double)f).toArray();
-            Vector vector = Vectors.dense(doubles);
-            double value = regressionModel.predict(vector);
-            ratedDraws.add(RatedDraw.builder().draw(draw).rating(value).build());
+        GameState state = GameState.of(round);
+        DrawBuffer draws = new DrawBuffer();
+        int count = franchiseCoreService.nextDraws(state, draws);
+        double[] matrix = new double[count * dimension];
+        candidateFeatures(state, draws, count, matrix);
+        double[] ratings = new double[count];
+        regressionModel.predict(matrix, count, ratings);
+
+        // the best draws in descending order
+        int[] best = new int[Math.min(count, range)];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size == best.length && ratings[i] <= ratings[best[size - 1]]) {
+                continue;
+            }
+            int j = size == best.length ? size - 1 : size++;
+            for (; j > 0 && ratings[i] > ratings[best[j - 1]]; j--) {
+                best[j] = best[j - 1];
+            }
+            best[j] = i;
         }
-        ratedDraws.sort(Comparator.comparing(RatedDraw::getRating).reversed());
-        int maxIndex = Math.min(ratedDraws.size(), range);
-        return ratedDraws.get(RANDOM.nextInt(maxIndex)).getDraw();
+        return PackedDraw.toDraw(draws.draw(best[RandomStreams.current().nextInt(size)]));
     }
 
     public void train(List<GameRoundDraw> gameRoundDraws) {
         init();
 
         GameRound round = gameRoundDraws.get(gameRoundDraws.size() - 1).getGameRound();
-        Map<GameRound, Integer> map = new HashMap<>();
         Map<PlayerColor, Integer> score = franchiseCoreService.score(round.getScores());
+        double[] features = new double[dimension];
         for (GameRoundDraw gr : gameRoundDraws) {
-            map.put(gr.getGameRound(), score.get(gr.getGameRound().getActual() == null ? gr.getGameRound().getNext() : gr.getGameRound().getActual()));
-        }
-
-        for (Map.Entry<GameRound, Integer> entry : map.entrySet()) {
-            List<Integer> run = createVectorizedBoard(entry.getKey(), true);
-            run.add(entry.getValue());
-            unsavedTrainingData.add(run);
+            GameRound r = gr.getGameRound();
+            int label = score.get(r.getActual() == null ? r.getNext() : r.getActual());
+            GameState state = GameState.of(r);
+            boardFeaturizer.write(state, ENCODING, false, features, 0);
+            regressionModel.update(features, label);
+            if (exportTrainingData) {
+                featureStore.add(trainingRow(state, label));
+            }
         }
     }
 
     public void save() {
         init();
-
-        List<String> list = new ArrayList<>();
-        for (List<Integer> data : unsavedTrainingData) {
-            list.add(String.join(",", data.stream().map(String::valueOf).toList()));
-        }
-
-        try {
-            Files.write(Path.of("ml-model", "data.csv"), list, StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            throw new IllegalArgumentException(e);
+        regressionModel.writeTo(modelFile);
+        if (featureStore != null) {
+            featureStore.flush();
         }
-
-        unsavedTrainingData.clear();
     }
 
-    @Getter
-    @Setter
-    @Builder
-    private static class RatedDraw {
-        private Draw draw;
-        private Double rating;
+    @PreDestroy
+    synchronized void close() {
+        if (featureStore != null) {
+            featureStore.close();
+        }
     }
 }
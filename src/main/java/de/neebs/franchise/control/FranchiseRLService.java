@@ -12,7 +12,9 @@ import ai.djl.training.*;
 import ai.djl.training.loss.Loss;
 import ai.djl.training.optimizer.Optimizer;
 import lombok.*;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ai.djl.ndarray.NDManager;
 
@@ -25,17 +27,47 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 @Slf4j
 public class FranchiseRLService {
-    private static final Random RANDOM = new Random();
+    private static final int INCREASE_OUTPUTS = GameState.CITIES.length;
 
     private final FranchiseCoreService franchiseCoreService;
 
+    private final BoardFeaturizer boardFeaturizer;
+
+    @Value("${franchise.rl.max-batch-size:64}")
+    private int maxBatchSize;
+
+    @Value("${franchise.rl.max-batch-wait-micros:200}")
+    private long maxBatchWaitMicros;
+
+    @Value("${franchise.rl.training-batch-size:32}")
+    private int trainingBatchSize;
+
+    @Value("${franchise.replay.capacity:10000}")
+    private int replayCapacity;
+
+    @Value("${franchise.replay.prioritized:false}")
+    private boolean prioritizedReplay;
+
+    @Value("${franchise.replay.importance-exponent:0.4}")
+    private double importanceExponent;
+
+    @Value("${franchise.replay.directory:}")
+    private String replayDirectory;
+
+    private ReplayBuffer replayBuffer;
+
+    private InferenceBatcher batcher;
+
     private NDManager manager;
 
     private ParameterStore parameterStore;
 
     private Trainer trainer;
 
-    void setup(boolean load) {
+    /**
+     * The network is neither thread-safe to set up nor to use, so every access is synchronized on the service.
+     */
+    synchronized void setup(boolean load) {
         if (manager != null) {
             return;
         }
@@ -43,7 +75,7 @@ public class FranchiseRLService {
         manager = NDManager.newBaseManager();
         parameterStore = new ParameterStore(manager, false);
 
-        int countInputDimension = createInputDimension().size();
+        int countInputDimension = boardFeaturizer.dimension(BoardFeaturizer.Encoding.ORDINAL, true);
         try (Model model = Model.newInstance("policy-network")) {
             List<Draw> outputs = createOutputDimension();
             SequentialBlock net = new SequentialBlock();
@@ -69,16 +101,28 @@ public class FranchiseRLService {
             trainer = model.newTrainer(trainerConfig);
         }
         trainer.initialize(new Shape(1, countInputDimension));
+        batcher = new InferenceBatcher(this::forward, maxBatchSize, maxBatchWaitMicros * 1000);
+        replayBuffer = new ReplayBuffer(replayCapacity, countInputDimension, replayDirectory.isEmpty() ? null : Path.of(replayDirectory, "rl-replay.bin"));
     }
 
+    @PreDestroy
+    synchronized void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Not synchronized: the boards of concurrent games are collected by the {@link InferenceBatcher} and rated in one
+     * forward pass.
+     */
     public Draw reinforcementLearning(GameRound round, float epsilon) {
         setup(true);
 
-        RatedDraw rd = evaluateDraw(round, epsilon);
-        return rd.getDraw();
+        return evaluateDraw(round, epsilon);
     }
 
-    public PlayerColor learn(List<GameRoundDraw> gameRoundDraws) {
+    public synchronized PlayerColor learn(List<GameRoundDraw> gameRoundDraws) {
         setup(true);
 
         List<Learning> learnings = new ArrayList<>();
@@ -108,68 +152,173 @@ public class FranchiseRLService {
         }
     }
 
+    /**
+     * Adds the samples of a game to the replay buffer and trains on as many mini-batches drawn from the buffer as the
+     * game added samples. The advantage of a sample is its reward and its magnitude the priority of the sample.
+     */
     private void trainModel(List<Learning> learnings) {
-        try (GradientCollector collector = trainer.newGradientCollector()) {
-            List<Draw> outputs = createOutputDimension();
-            for (Learning learning : learnings) {
-                if (!learning.getDraw().isNull() && !learning.getDraw().isMoney()) {
-                    float[] intInput = convert(createVectorizedBoard(learning.getGameRound(), true));
-
-                    NDArray input = manager.create(intInput);
-
-                    NDArray array = trainer.getModel().getBlock().forward(parameterStore, new NDList(input), true).singletonOrThrow();
-                    array = array.log();
-                    NDArray totalLoss = manager.create(0f);
-                    for (int j = 0; j < array.size(); j++) {
-                        if (learning.getDraw().includes(outputs.get(j))) {
-                            NDArray actionLogProp = array.get(j);
-                            NDArray loss = actionLogProp.mul(-learning.getInfluence().get(learning.getGameRound().getActual() == null ? learning.getGameRound().getNext() : learning.getGameRound().getActual()));
-                            totalLoss = totalLoss.add(loss);
-                        }
-                    }
-                    collector.backward(totalLoss);
-
-                    trainer.step();
-                }
+        int added = 0;
+        for (int i = 0; i < learnings.size(); i++) {
+            Learning learning = learnings.get(i);
+            if (!learning.getDraw().isNull() && !learning.getDraw().isMoney()) {
+                GameRound round = learning.getGameRound();
+                float[] board = board(round);
+                boolean done = i == learnings.size() - 1;
+                float[] nextBoard = done ? board : board(learnings.get(i + 1).getGameRound());
+                float advantage = learning.getInfluence().get(round.getActual() == null ? round.getNext() : round.getActual());
+                replayBuffer.add(board, PackedDraw.of(learning.getDraw()), advantage, nextBoard, done, advantage);
+                added++;
             }
         }
+        train((added + trainingBatchSize - 1) / trainingBatchSize);
     }
 
-    private RatedDraw evaluateDraw(GameRound round, float epsilon) {
-        List<Draw> outputs = createOutputDimension();
+    private void train(int batches) {
+        if (batches == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        double lossSum = 0;
+        for (int i = 0; i < batches; i++) {
+            int[] indexes = replayBuffer.sample(trainingBatchSize, prioritizedReplay, RandomStreams.current());
+            lossSum += trainBatch(indexes, prioritizedReplay ? replayBuffer.weights(indexes, importanceExponent) : null);
+        }
+        int count = batches * trainingBatchSize;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info("Trained {} samples in {} batches: {} samples/s, mean loss {}", count, batches, Math.round(count / seconds), lossSum / batches);
+    }
 
-        float[] intInput = convert(createVectorizedBoard(round, true));
+    /**
+     * One policy-gradient step on a mini-batch of the replay buffer: the loss is the negative log-probability of the
+     * outputs included in the draws, weighted with the advantage of the player and averaged over the batch. All arrays
+     * of the batch live in a sub-manager that is closed afterwards.
+     * <p>
+     * With prioritized replay, the loss of every sample is scaled by its importance sampling weight and its magnitude
+     * becomes the new priority of the sample.
+     *
+     * @param weights the importance sampling weights of the samples or {@code null} for uniformly drawn samples
+     * @return the loss of the batch
+     */
+    private float trainBatch(int[] indexes, double[] weights) {
+        int inputDimension = replayBuffer.stateDimension();
+        int outputDimension = 2 * INCREASE_OUTPUTS;
+        float[] boards = new float[indexes.length * inputDimension];
+        float[] masks = new float[indexes.length * outputDimension];
+        float[] advantages = new float[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            System.arraycopy(replayBuffer.state(indexes[i]), 0, boards, i * inputDimension, inputDimension);
+            mask(replayBuffer.action(indexes[i]), masks, i * outputDimension);
+            advantages[i] = replayBuffer.reward(indexes[i]);
+        }
+        try (NDManager batch = manager.newSubManager();
+             GradientCollector collector = trainer.newGradientCollector()) {
+            NDArray input = batch.create(boards, new Shape(indexes.length, inputDimension));
+            NDArray mask = batch.create(masks, new Shape(indexes.length, outputDimension));
+            NDArray advantage = batch.create(advantages, new Shape(indexes.length));
+            NDArray logits = trainer.getModel().getBlock().forward(parameterStore, new NDList(input), true).singletonOrThrow();
+            NDArray losses = logits.logSoftmax(1).mul(mask).sum(new int[]{1}).mul(advantage).neg();
+            NDArray loss;
+            if (weights == null) {
+                loss = losses.mean();
+            } else {
+                float[] scales = new float[weights.length];
+                for (int i = 0; i < weights.length; i++) {
+                    scales[i] = (float) weights[i];
+                }
+                loss = losses.mul(batch.create(scales, new Shape(indexes.length))).mean();
+            }
+            collector.backward(loss);
+            trainer.step();
+            if (weights != null) {
+                float[] priorities = losses.toFloatArray();
+                for (int i = 0; i < indexes.length; i++) {
+                    replayBuffer.updatePriority(indexes[i], priorities[i]);
+                }
+            }
+            return loss.getFloat();
+        }
+    }
 
-        NDArray input = manager.create(intInput);
+    /**
+     * Marks the outputs of the cities the draw expands to and increases in, laid out as in {@link #rate(long, float[])}.
+     */
+    static void mask(long draw, float[] masks, int offset) {
+        if (PackedDraw.extension1(draw) != GameState.NONE) {
+            masks[offset + PackedDraw.extension1(draw)] = 1;
+        }
+        if (PackedDraw.extension2(draw) != GameState.NONE) {
+            masks[offset + PackedDraw.extension2(draw)] = 1;
+        }
+        for (long cities = PackedDraw.increases(draw); cities != 0; cities &= cities - 1) {
+            masks[offset + INCREASE_OUTPUTS + Long.numberOfTrailingZeros(cities)] = 1;
+        }
+    }
 
-        NDList list = trainer.getModel().getBlock().forward(parameterStore, new NDList(input), false);
+    private Draw evaluateDraw(GameRound round, float epsilon) {
+        float[] ratings = batcher.infer(board(round));
 
-        List<RatedDraw> ratedDraws = new ArrayList<>();
-        for (NDArray array : list) {
-            for (int j = 0; j < array.size(); j++) {
-                ratedDraws.add(RatedDraw.builder().draw(outputs.get(j)).rating(array.get(j).getFloat()).build());
-            }
+        DrawBuffer buffer = new DrawBuffer();
+        if (franchiseCoreService.nextDraws(GameState.of(round), buffer) == 0) {
+            throw new IllegalStateException("No draw possible");
         }
-        List<Draw> draws = franchiseCoreService.nextDraws(round);
-        List<RatedDraw> ratedPossibleDraws = draws.stream().map(f -> RatedDraw.builder().draw(f).rating(0f).build()).toList();
-        for (RatedDraw rd : ratedPossibleDraws) {
-            for (RatedDraw rd2 : ratedDraws) {
-                if (rd.getDraw().includes(rd2.getDraw())) {
-                    rd.setRating(rd.getRating() + rd2.getRating());
+        int best;
+        if (RandomStreams.current().nextDouble(1) < epsilon) {
+            best = 0;
+            float bestRating = -Float.MAX_VALUE;
+            for (int i = 0; i < buffer.size(); i++) {
+                float rating = rate(buffer.draw(i), ratings);
+                if (rating > bestRating) {
+                    best = i;
+                    bestRating = rating;
                 }
             }
-            if (rd.getDraw().isNull()) {
-                rd.setRating(-Float.MAX_VALUE);
-            }
+        } else {
+            best = RandomStreams.current().nextInt(buffer.size());
         }
+        return PackedDraw.toDraw(buffer.draw(best));
+    }
 
-        RatedDraw bestDraw;
-        if (RANDOM.nextDouble(1) < epsilon) {
-            bestDraw = ratedPossibleDraws.stream().max(Comparator.comparing(RatedDraw::getRating)).orElseThrow();
-        } else {
-            bestDraw = ratedPossibleDraws.get(RANDOM.nextInt(ratedPossibleDraws.size()));
+    /**
+     * Sums the outputs of the cities the draw expands to and increases in. The outputs are laid out as in
+     * {@link #createOutputDimension()}, so the index of a city follows from its ordinal.
+     */
+    static float rate(long draw, float[] outputs) {
+        if (PackedDraw.extensionCount(draw) == 0 && PackedDraw.increases(draw) == 0 && PackedDraw.bonusTileUsage(draw) == null) {
+            return -Float.MAX_VALUE;
+        }
+        float rating = 0;
+        if (PackedDraw.extension1(draw) != GameState.NONE) {
+            rating += outputs[PackedDraw.extension1(draw)];
+        }
+        if (PackedDraw.extension2(draw) != GameState.NONE) {
+            rating += outputs[PackedDraw.extension2(draw)];
+        }
+        for (long cities = PackedDraw.increases(draw); cities != 0; cities &= cities - 1) {
+            rating += outputs[INCREASE_OUTPUTS + Long.numberOfTrailingZeros(cities)];
+        }
+        return rating;
+    }
+
+    /**
+     * Runs a batch of boards through the network in one pass. The arrays of the batch live in a sub-manager that is
+     * closed afterwards, and the outputs are copied from the engine at once.
+     */
+    private synchronized float[][] forward(float[][] boards) {
+        int inputDimension = boards[0].length;
+        float[] flat = new float[boards.length * inputDimension];
+        for (int i = 0; i < boards.length; i++) {
+            System.arraycopy(boards[i], 0, flat, i * inputDimension, inputDimension);
+        }
+        try (NDManager batch = manager.newSubManager()) {
+            NDArray input = batch.create(flat, new Shape(boards.length, inputDimension));
+            float[] ratings = trainer.getModel().getBlock().forward(parameterStore, new NDList(input), false).singletonOrThrow().toFloatArray();
+            int outputDimension = ratings.length / boards.length;
+            float[][] result = new float[boards.length][];
+            for (int i = 0; i < boards.length; i++) {
+                result[i] = Arrays.copyOfRange(ratings, i * outputDimension, (i + 1) * outputDimension);
+            }
+            return result;
         }
-        return bestDraw;
     }
 
     private Map<PlayerColor, Float> discountRevenues(List<Learning> learnings) {
@@ -217,12 +366,10 @@ public class FranchiseRLService {
         return result;
     }
 
-    private float[] convert(List<Integer> list) {
-        float[] result = new float[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            result[i] = list.get(i).floatValue();
-        }
-        return result;
+    private float[] board(GameRound round) {
+        float[] board = new float[boardFeaturizer.dimension(BoardFeaturizer.Encoding.ORDINAL, true)];
+        boardFeaturizer.write(GameState.of(round), BoardFeaturizer.Encoding.ORDINAL, true, board, 0);
+        return board;
     }
 
     private List<Draw> createOutputDimension() {
@@ -236,58 +383,7 @@ public class FranchiseRLService {
         return result;
     }
 
-    private List<String> createInputDimension() {
-        List<String> result = new ArrayList<>();
-        result.add("actual");
-        result.add("next");
-        for (City city : City.values()) {
-            for (int i = 0; i < city.getSize(); i++) {
-                result.add(city.name() + i);
-            }
-        }
-        for (PlayerColor color : PlayerColor.values()) {
-            result.add(color.name() + "BonusTile");
-            result.add(color.name() + "Influence");
-            result.add(color.name() + "Money");
-        }
-        return result;
-    }
-
-    private List<Integer> createVectorizedBoard(GameRound round, boolean includePlayerStats) {
-        List<Integer> result = new ArrayList<>();
-        result.add(round.getActual() == null ? round.getNext().ordinal() : round.getActual().ordinal());
-        result.add(round.getNext().ordinal());
-        for (City city : City.values()) {
-            CityPlate plate = round.getPlates().get(city);
-            if (plate == null) {
-                plate = new CityPlate(false, new ArrayList<>(), null);
-            }
-            for (int i = 0; i < city.getSize(); i++) {
-                if (i < plate.getBranches().size()) {
-                    result.add(plate.getBranches().get(i).ordinal());
-                } else {
-                    result.add(-1);
-                }
-            }
-        }
-        if (includePlayerStats) {
-            for (PlayerColor color : PlayerColor.values()) {
-                Score score = round.getScores().get(color);
-                if (score != null) {
-                    result.add(score.getBonusTiles());
-                    result.add(score.getInfluence());
-                    result.add(score.getMoney());
-                } else {
-                    result.add(-1);
-                    result.add(-1);
-                    result.add(-1);
-                }
-            }
-        }
-        return result;
-    }
-
-    public void save() {
+    public synchronized void save() {
         setup(true);
 
         try {
@@ -297,15 +393,6 @@ public class FranchiseRLService {
         }
     }
 
-    @Getter
-    @Setter
-    @Builder
-    @ToString
-    private static class RatedDraw {
-        private Draw draw;
-        private float rating;
-    }
-
     @Getter
     @Setter
     @Builder
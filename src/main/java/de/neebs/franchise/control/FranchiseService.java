@@ -1,26 +1,53 @@
 package de.neebs.franchise.control;
 
+import jakarta.annotation.PreDestroy;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
 import java.util.function.Function;
+import java.util.random.RandomGenerator;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class FranchiseService {
-    private static final Random RANDOM = new Random();
+    /**
+     * Maximum depth of the searches deepened iteratively within a time budget
+     */
+    public static final int MAX_DEPTH = 64;
+    private static final double EXPLORATION = 1.5;
+    private static final double PRIOR_TEMPERATURE = 2.0;
+    private static final int ROLLOUT_TRIES = 8;
+    // most children of an expanded node, the best by evaluation
+    static final int MAX_CHILDREN = 256;
+    private static final int MAX_LEARNED_VISITS = 32;
 
     private final FranchiseCoreService franchiseCoreService;
 
-    private List<GameRoundDrawPredecessor> nextRounds(GameRound gameRound, int count) {
+    private final TranspositionTable transpositionTable = new TranspositionTable(1 << 18);
+
+    private static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // shared by all searches; the threads of a search are limited by the number of tasks it is split into
+    private final ForkJoinPool pool = new ForkJoinPool(MAX_THREADS);
+
+    private List<GameRoundDrawPredecessor> nextRounds(GameRound gameRound, int count, Deadline deadline) {
         List<GameRoundDrawPredecessor> set = List.of(GameRoundDrawPredecessor.builder().gameRound(new ExtendedGameRound(gameRound, null)).build());
         for (int i = 0; i < count && set.size() < 25000; i++) {
             List<GameRoundDrawPredecessor> intermediate = new ArrayList<>();
             for (GameRoundDrawPredecessor round : set) {
+                deadline.check();
                 intermediate.addAll(nextRound2(round.getGameRound().getGameRound()));
             }
             set = intermediate;
@@ -42,31 +69,18 @@ public class FranchiseService {
         return rounds;
     }
 
-    private Optional<Draw> filterDrawsByLearnings(GameRound round, List<Draw> draws, Map<Draw, List<Integer>> learnings, float epsilon) {
-        if (learnings == null) {
-            return Optional.empty();
-        }
-        List<Draw> bestDraws = draws.stream()
-                .filter(f -> learnings.get(f) != null)
-                .collect(Collectors.toMap(Function.identity(), f -> learnings.get(f).stream().mapToInt(g -> g).average().orElseThrow()))
-                .entrySet().stream().sorted((o1, o2) -> -Double.compare(o1.getValue(), o2.getValue()))
-                .map(Map.Entry::getKey).toList();
-        if (bestDraws.isEmpty()) {
-            return Optional.empty();
-        }
-        if (RANDOM.nextDouble(1) < epsilon) {
-            log.info("Hit " + round.getRound());
-            return Optional.of(bestDraws.get(0));
-        } else {
-            return Optional.empty();
-        }
+    int openPlates(GameRound round) {
+        return openPlates(GameState.of(round));
     }
 
-    int openPlates(GameRound round) {
-        return Arrays.stream(City.values())
-                .filter(f -> round.getPlates().get(f) == null || !round.getPlates().get(f).isClosed())
-                .mapToInt(f -> f.getSize() - (round.getPlates().get(f) == null ? 0 : round.getPlates().get(f).getBranches().size()))
-                .sum();
+    int openPlates(GameState state) {
+        int openPlates = 0;
+        for (City city : GameState.CITIES) {
+            if (!state.isClosed(city.ordinal())) {
+                openPlates += city.getSize() - state.branchCount(city.ordinal());
+            }
+        }
+        return openPlates;
     }
 
     /**
@@ -76,7 +90,11 @@ public class FranchiseService {
      * @return percentage (0-100)
      */
     GamePhase evaluateGamePhase(GameRound round) {
-        int openPlates = openPlates(round) * 100 / (round.getPlayers().size() == 2 ? 94 : 121);
+        return evaluateGamePhase(GameState.of(round));
+    }
+
+    GamePhase evaluateGamePhase(GameState state) {
+        int openPlates = openPlates(state) * 100 / (state.playerCount() == 2 ? 94 : 121);
         if (openPlates <= 35) {
             return GamePhase.END;
         } else if (openPlates >= 75) {
@@ -87,7 +105,23 @@ public class FranchiseService {
     }
 
     public Draw minimax(GameRound round, int depth) {
-        List<GameRoundDrawPredecessor> rounds = nextRounds(round, depth);
+        return minimax(round, depth, 0);
+    }
+
+    /**
+     * @param timeBudgetMs if positive, the depth is deepened iteratively up to {@code depth} until the time budget
+     *                     is used up, see {@link #iterativeDeepening(int, Deadline, IntFunction)}
+     */
+    public Draw minimax(GameRound round, int depth, long timeBudgetMs) {
+        if (timeBudgetMs <= 0) {
+            return minimax(round, depth, Deadline.NONE);
+        }
+        Deadline deadline = Deadline.in(timeBudgetMs);
+        return iterativeDeepening(depth, deadline, d -> minimax(round, d, d == 1 ? Deadline.NONE : deadline));
+    }
+
+    private Draw minimax(GameRound round, int depth, Deadline deadline) {
+        List<GameRoundDrawPredecessor> rounds = nextRounds(round, depth, deadline);
         Map<GameRoundDrawPredecessor, Map<PlayerColor, Integer>> scores = score(rounds);
         Map<GameRoundDrawPredecessor, GameRoundDrawPredecessor> bestMoves = new HashMap<>();
         while (scores.size() > 1) {
@@ -108,7 +142,7 @@ public class FranchiseService {
     }
 
     public Draw maximax(GameRound round, int depth) {
-        List<GameRoundDrawPredecessor> rounds = nextRounds(round, depth);
+        List<GameRoundDrawPredecessor> rounds = nextRounds(round, depth, Deadline.NONE);
         Map<GameRoundDrawPredecessor, Map<PlayerColor, Integer>> scores = score(rounds);
         Map<GameRoundDrawPredecessor, GameRoundDrawPredecessor> bestMoves = new HashMap<>();
         while (scores.size() > 1) {
@@ -131,122 +165,575 @@ public class FranchiseService {
         return map;
     }
 
-    public Draw monteCarloTreeSearch(GameRound gameRound, Map<Draw, List<Integer>> learnings, float epsilon) {
-        List<Draw> draws = franchiseCoreService.nextDraws(gameRound);
-        if (learnings == null || learnings.isEmpty()) {
-            return draws.get(RANDOM.nextInt(draws.size()));
-        } else {
-            return filterDrawsByLearnings(gameRound, draws, learnings, epsilon).orElse(draws.get(RANDOM.nextInt(draws.size())));
+    public Draw monteCarloTreeSearch(GameRound round, MonteCarloTree tree, int iterations, long timeBudgetMs) {
+        return monteCarloTreeSearch(round, List.of(tree), 1, iterations, timeBudgetMs);
+    }
+
+    /**
+     * Monte Carlo tree search: every iteration selects a path through the tree by PUCT, expands the leaf, plays the
+     * game to its end with random draws and backs the result up along the path. Every node keeps the rewards of the
+     * player who made its draw, so the selection maximizes the rewards of the player to move. The priors of the
+     * children are a softmax of {@link #evaluatePosition(GameState, int)} after their draws.
+     * <p>
+     * Every tree is searched by {@code threadsPerTree} threads together (tree parallelization, see
+     * {@link MonteCarloTree}). With several trees, the trees are searched independently and their statistics of the
+     * root draws are summed up (root parallelization). The roots are expanded before the search, so every iteration
+     * visits a root draw.
+     *
+     * @param trees the trees of the player, reused if the search starts from a position already in them
+     * @param iterations number of iterations of all threads, if there is no time budget
+     * @param timeBudgetMs if positive, iterates until the time budget is used up
+     * @return the draw visited most often
+     */
+    public Draw monteCarloTreeSearch(GameRound round, List<MonteCarloTree> trees, int threadsPerTree, int iterations, long timeBudgetMs) {
+        return monteCarloTreeSearch(round, trees, threadsPerTree, iterations, timeBudgetMs, null);
+    }
+
+    /**
+     * @param learnings if not {@code null}, the children of every expanded position start with the visits (at most
+     *                  {@value #MAX_LEARNED_VISITS}) and mean rewards learned for their draws in earlier games
+     */
+    public Draw monteCarloTreeSearch(GameRound round, List<MonteCarloTree> trees, int threadsPerTree, int iterations, long timeBudgetMs,
+                                     InMemoryMonteCarloLearningModel learnings) {
+        GameState root = GameState.of(round);
+        if (root.isEnd()) {
+            throw new IllegalStateException("The game has already ended");
+        }
+        boolean reused = false;
+        for (MonteCarloTree tree : trees) {
+            reused |= tree.moveRoot(root.hash64(), root.playerCount());
+            if (!tree.isExpanded(0) && tree.room() == 0) {
+                tree.clear(root.hash64());
+            }
+            if (threadsPerTree > 1) {
+                tree.reserve();
+            }
+            // expanded before the workers start, so no iteration rolls out from the root while another expands it
+            if (!tree.isExpanded(0)) {
+                expand(tree, 0, root.copy(), new DrawBuffer(), learnings);
+            }
+        }
+        Deadline deadline = timeBudgetMs > 0 ? Deadline.in(timeBudgetMs) : Deadline.NONE;
+        AtomicInteger remaining = new AtomicInteger(Math.max(1, iterations));
+        AtomicInteger done = new AtomicInteger();
+        int workers = trees.size() * threadsPerTree;
+        IntConsumer worker = w -> done.addAndGet(searchTree(root, trees.get(w / threadsPerTree), remaining, deadline,
+                RandomStreams.current(), learnings));
+        forEach(0, workers, workers, worker);
+
+        Map<Long, double[]> statistics = new LinkedHashMap<>();
+        for (MonteCarloTree tree : trees) {
+            if (!tree.isExpanded(0)) {
+                continue;
+            }
+            for (int child = tree.firstChild(0); child < tree.firstChild(0) + tree.childCount(0); child++) {
+                double[] statistic = statistics.computeIfAbsent(tree.draw(child), k -> new double[2]);
+                statistic[0] += tree.visits(child);
+                statistic[1] += tree.value(child);
+            }
+        }
+        Map.Entry<Long, double[]> best = null;
+        for (Map.Entry<Long, double[]> entry : statistics.entrySet()) {
+            if (best == null || entry.getValue()[0] > best.getValue()[0]
+                    || (entry.getValue()[0] == best.getValue()[0] && entry.getValue()[1] > best.getValue()[1])) {
+                best = entry;
+            }
+        }
+        log.info("Monte Carlo tree search: {} iterations, {} trees, {} threads, tree reused: {}", done.get(), trees.size(), workers, reused);
+        if (best == null) {
+            throw new IllegalStateException("No draw searched in round " + root.round());
+        }
+        return PackedDraw.toDraw(best.getKey());
+    }
+
+    /**
+     * Runs iterations on the tree until the time budget is used up or no iterations remain.
+     *
+     * @return the number of iterations run
+     */
+    private int searchTree(GameState root, MonteCarloTree tree, AtomicInteger remaining, Deadline deadline, RandomGenerator random,
+                           InMemoryMonteCarloLearningModel learnings) {
+        DrawBuffer buffer = new DrawBuffer();
+        double[] rewards = new double[GameState.COLORS.length];
+        int[] path = new int[64];
+        int iterations = 0;
+        while (deadline == Deadline.NONE ? remaining.getAndDecrement() > 0 : iterations == 0 || !deadline.isExpired()) {
+            GameState state = root.copy();
+            int node = 0;
+            int length = 0;
+            tree.visit(node);
+            path[length++] = node;
+            while (tree.isExpanded(node)) {
+                node = selectChild(tree, node);
+                tree.visit(node);
+                franchiseCoreService.apply(state, tree.draw(node));
+                path = append(path, length++, node);
+            }
+            if (!state.isEnd() && (node == 0 || tree.visits(node) > 1) && expand(tree, node, state, buffer, learnings)) {
+                node = selectChild(tree, node);
+                tree.visit(node);
+                franchiseCoreService.apply(state, tree.draw(node));
+                path = append(path, length++, node);
+            }
+            rollout(state, buffer, rewards, random);
+            for (int i = 1; i < length; i++) {
+                tree.addReward(path[i], rewards[tree.mover(path[i])]);
+            }
+            iterations++;
+        }
+        return iterations;
+    }
+
+    private static int[] append(int[] path, int length, int node) {
+        int[] result = length == path.length ? Arrays.copyOf(path, 2 * length) : path;
+        result[length] = node;
+        return result;
+    }
+
+    /**
+     * PUCT selection. Children not visited yet are valued with the mean reward of their visited siblings.
+     */
+    private static int selectChild(MonteCarloTree tree, int node) {
+        int first = tree.firstChild(node);
+        int end = first + tree.childCount(node);
+        double sum = 0;
+        int visited = 0;
+        for (int child = first; child < end; child++) {
+            sum += tree.value(child);
+            visited += tree.visits(child);
+        }
+        double firstPlayUrgency = visited == 0 ? 0 : sum / visited;
+        double exploration = EXPLORATION * Math.sqrt(Math.max(1, tree.visits(node)));
+        int best = first;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = first; child < end; child++) {
+            int visits = tree.visits(child);
+            double value = (visits == 0 ? firstPlayUrgency : tree.value(child) / visits)
+                    + exploration * tree.prior(child) / (1 + visits);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Expands the leaf with its best {@link #MAX_CHILDREN} draws by evaluation. The root takes as many as still fit
+     * into the pool, so there is always a draw to choose.
+     */
+    private boolean expand(MonteCarloTree tree, int node, GameState state, DrawBuffer buffer, InMemoryMonteCarloLearningModel learnings) {
+        if (!tree.tryExpand(node)) {
+            return false;
+        }
+        buffer.truncate(0);
+        int count = franchiseCoreService.nextDraws(state, buffer);
+        GamePhase phase = evaluateGamePhase(state);
+        int considered = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (isConsidered(phase, buffer.draw(slot))) {
+                buffer.swap(considered++, slot);
+            }
+        }
+        if (considered == 0) {
+            considered = count;
+        }
+        int children = Math.min(considered, node == 0 ? Math.min(MAX_CHILDREN, tree.room()) : MAX_CHILDREN);
+        int first = children == 0 ? MonteCarloTree.NO_NODE : tree.allocate(children);
+        if (first == MonteCarloTree.NO_NODE) {
+            tree.release(node);
+            return false;
+        }
+        int mover = state.next();
+        double[] evaluations = new double[considered];
+        long[] keys = new long[considered];
+        for (int slot = 0; slot < considered; slot++) {
+            franchiseCoreService.apply(state, buffer.draw(slot));
+            evaluations[slot] = evaluatePosition(state, mover);
+            keys[slot] = state.hash64();
+            franchiseCoreService.undo(state);
+        }
+        double threshold = Double.NEGATIVE_INFINITY;
+        if (children < considered) {
+            double[] sorted = evaluations.clone();
+            Arrays.sort(sorted);
+            threshold = sorted[considered - children];
+        }
+        int[] slots = new int[children];
+        int kept = 0;
+        for (int slot = 0; slot < considered; slot++) {
+            if (evaluations[slot] > threshold) {
+                slots[kept++] = slot;
+            }
+        }
+        for (int slot = 0; slot < considered && kept < children; slot++) {
+            if (evaluations[slot] == threshold) {
+                slots[kept++] = slot;
+            }
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (int slot : slots) {
+            max = Math.max(max, evaluations[slot]);
+        }
+        double sum = 0;
+        for (int slot : slots) {
+            sum += Math.exp((evaluations[slot] - max) / PRIOR_TEMPERATURE);
+        }
+        Map<Long, InMemoryMonteCarloLearningModel.Statistics> learned = learnings == null ? null : learnings.getLearnings(state.hash64());
+        for (int i = 0; i < children; i++) {
+            int slot = slots[i];
+            float prior = (float) (Math.exp((evaluations[slot] - max) / PRIOR_TEMPERATURE) / sum);
+            tree.initNode(first + i, buffer.draw(slot), keys[slot], mover, prior);
+            InMemoryMonteCarloLearningModel.Statistics statistics = learned == null ? null : learned.get(buffer.draw(slot));
+            if (statistics != null) {
+                int visits = Math.min(statistics.count(), MAX_LEARNED_VISITS);
+                tree.seed(first + i, visits, visits * statistics.mean());
+            }
+        }
+        tree.publish(node, first, children);
+        return true;
+    }
+
+    /**
+     * Plays random draws until the end of the game. Every winner gets an equal share of a reward of one.
+     */
+    private void rollout(GameState state, DrawBuffer buffer, double[] rewards, RandomGenerator random) {
+        while (!state.isEnd()) {
+            buffer.truncate(0);
+            int count = franchiseCoreService.nextDraws(state, buffer);
+            GamePhase phase = evaluateGamePhase(state);
+            long draw = buffer.draw(random.nextInt(count));
+            for (int i = 0; i < ROLLOUT_TRIES && !isConsidered(phase, draw); i++) {
+                draw = buffer.draw(random.nextInt(count));
+            }
+            franchiseCoreService.apply(state, draw);
         }
+        rewards(state, rewards);
     }
 
-    private List<Draw> filterAndSortDraws(GameRound round, List<Draw> draws) {
-        GamePhase phase = evaluateGamePhase(round);
-        if (phase == GamePhase.START) {
-            draws = draws.stream()
-                    .filter(f -> f.getBonusTileUsage() != BonusTileUsage.INCREASE)
-                    .filter(f -> !f.getExtension().isEmpty())
-                    .toList();
+    /**
+     * Fills the rewards of every color at the end of a game, as used by the playouts.
+     */
+    static void rewards(GameState state, double[] rewards) {
+        Arrays.fill(rewards, 0);
+        int best = Integer.MIN_VALUE;
+        int winners = 0;
+        for (int i = 0; i < state.playerCount(); i++) {
+            int influence = state.influence(state.player(i));
+            if (influence > best) {
+                best = influence;
+                winners = 1;
+            } else if (influence == best) {
+                winners++;
+            }
+        }
+        for (int i = 0; i < state.playerCount(); i++) {
+            if (state.influence(state.player(i)) == best) {
+                rewards[state.player(i)] = 1.0 / winners;
+            }
         }
-        return draws.stream().sorted((o1, o2) -> Boolean.compare(o2.isBonusTile(), o1.isBonusTile())).toList();
+    }
+
+    /**
+     * At the start of the game draws without extension or with an increase bonus tile are not considered.
+     */
+    private static boolean isConsidered(GamePhase phase, long draw) {
+        return phase != GamePhase.START
+                || (PackedDraw.extensionCount(draw) > 0 && PackedDraw.bonusTileUsage(draw) != BonusTileUsage.INCREASE);
     }
 
     public Draw minimaxAbPrune(GameRound round, int depth) {
-        Map<PlayerColor, Double> alpha = new EnumMap<>(PlayerColor.class);
-        Map<PlayerColor, Double> beta = new EnumMap<>(PlayerColor.class);
-        for (PlayerColor color : round.getPlayers()) {
-            alpha.put(color, -Double.MAX_VALUE);
-            beta.put(color, Double.MAX_VALUE);
-        }
-        return minimaxAbPrune2(round, round.getNext(), depth, alpha, beta, new HashMap<>()).getDraw();
-    }
-
-    private ScoredDraw minimaxAbPrune2(GameRound round, PlayerColor actual, int depth, Map<PlayerColor, Double> alpha, Map<PlayerColor, Double> beta, Map<Integer, Double> savedScores) {
-        if (depth == 0 || round.isEnd()) {
-            double score = evaluatePosition(round, actual);
-            return ScoredDraw.builder().gameRound(round).score(score).build();
-        }
-
-        double extremeScore = round.getNext() == actual ? -Double.MAX_VALUE : Double.MAX_VALUE;
-        ScoredDraw bestMove = null;
-        for (Draw draw : filterAndSortDraws(round, franchiseCoreService.nextDraws(round))) {
-            GameRound newBoard = franchiseCoreService.manualDraw(round, draw).getGameRound();
-            final ScoredDraw scoredDraw;
-            if (savedScores.get(newBoard.hashCode()) == null) {
-                scoredDraw = minimaxAbPrune2(newBoard, actual, depth - 1, alpha, beta, savedScores);
-                if (newBoard.getActual() == actual) {
-                    if (scoredDraw.getScore() > extremeScore) {
-                        extremeScore = scoredDraw.getScore();
-                        bestMove = scoredDraw;
-                    }
-                    if (scoredDraw.getScore() > alpha.get(newBoard.getActual())) {
-                        alpha.put(newBoard.getActual(), scoredDraw.getScore());
-                    }
-                } else {
-                    if (scoredDraw.getScore() < extremeScore) {
-                        extremeScore = scoredDraw.getScore();
-                        bestMove = scoredDraw;
-                    }
-                    if (scoredDraw.getScore() < beta.get(newBoard.getActual())) {
-                        beta.put(newBoard.getActual(), scoredDraw.getScore());
-                    }
+        return minimaxAbPrune(round, depth, 1);
+    }
+
+    public Draw minimaxAbPrune(GameRound round, int depth, int threads) {
+        return minimaxAbPrune(round, depth, threads, 0);
+    }
+
+    /**
+     * Alpha-beta search splitting the draws of the root across {@code threads} threads. The first draw is searched
+     * alone, the others in parallel, sharing the best score found so far as alpha bound. Every root draw is searched
+     * with an alpha just below that score, so all draws reaching the best score get their exact score, and the first
+     * generated of them is chosen. The choice therefore neither depends on timing nor on the number of threads.
+     *
+     * @param timeBudgetMs if positive, the depth is deepened iteratively up to {@code depth} until the time budget
+     *                     is used up. The best draws of the previous iteration are kept in the transposition table and
+     *                     searched first.
+     */
+    public Draw minimaxAbPrune(GameRound round, int depth, int threads, long timeBudgetMs) {
+        GameState board = GameState.of(round);
+        transpositionTable.newSearch();
+        if (timeBudgetMs <= 0) {
+            return minimaxAbPrune(board, depth, threads, Deadline.NONE);
+        }
+        Deadline deadline = Deadline.in(timeBudgetMs);
+        return iterativeDeepening(depth, deadline, d -> minimaxAbPrune(board, d, threads, d == 1 ? Deadline.NONE : deadline));
+    }
+
+    /**
+     * Searches with increasing depth, starting at one, until {@code maxDepth} is reached or the deadline passes. The
+     * first iteration is always completed, an iteration aborted by the deadline is discarded.
+     *
+     * @return the result of the deepest completed iteration
+     */
+    private <T> T iterativeDeepening(int maxDepth, Deadline deadline, IntFunction<T> search) {
+        T result = search.apply(1);
+        int depth = 1;
+        while (depth < maxDepth && !deadline.isExpired()) {
+            try {
+                result = search.apply(depth + 1);
+                depth++;
+            } catch (SearchTimeoutException e) {
+                break;
+            }
+        }
+        log.info("Iterative deepening completed depth " + depth);
+        return result;
+    }
+
+    private Draw minimaxAbPrune(GameState board, int depth, int threads, Deadline deadline) {
+        int actual = board.next();
+        long key = transpositionKey(board, actual);
+        TranspositionTable.Entry entry = transpositionTable.probe(key);
+        RootDraws root = rootDraws(board, entry == null ? TranspositionTable.NO_DRAW : entry.bestDraw());
+        if (root.draws().length == 0) {
+            throw new IllegalStateException("No draw to consider in round " + board.round());
+        }
+        AtomicLong alpha = new AtomicLong(Double.doubleToLongBits(-Double.MAX_VALUE));
+        double[] scores = new double[root.draws().length];
+        IntConsumer search = i -> {
+            GameState child = board.copy();
+            franchiseCoreService.apply(child, root.draws()[i]);
+            double bound = Math.nextDown(Double.longBitsToDouble(alpha.get()));
+            scores[i] = minimaxAbPrune2(child, new DrawBuffer(), actual, depth - 1, bound, Double.MAX_VALUE, deadline);
+            raise(alpha, scores[i]);
+        };
+        search.accept(0);
+        forEach(1, scores.length, threads, search);
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best] || (scores[i] == scores[best] && root.indexes()[i] < root.indexes()[best])) {
+                best = i;
+            }
+        }
+        transpositionTable.store(key, scores[best], depth, TranspositionTable.EXACT, root.indexes()[best]);
+        return PackedDraw.toDraw(root.draws()[best]);
+    }
+
+    private static void raise(AtomicLong alpha, double score) {
+        long current;
+        do {
+            current = alpha.get();
+            if (score <= Double.longBitsToDouble(current)) {
+                return;
+            }
+        } while (!alpha.compareAndSet(current, Double.doubleToLongBits(score)));
+    }
+
+    /**
+     * The draws considered at the root, best first, together with their generation index.
+     */
+    private RootDraws rootDraws(GameState board, int hashDraw) {
+        DrawBuffer buffer = new DrawBuffer();
+        GamePhase phase = evaluateGamePhase(board);
+        int end = franchiseCoreService.nextDraws(board, buffer);
+        boolean hashDrawFirst = hashDraw != TranspositionTable.NO_DRAW && buffer.moveToFront(0, end, hashDraw);
+        long[] draws = new long[end];
+        int[] indexes = new int[end];
+        int count = 0;
+        for (int slot = 0; slot < end; slot++) {
+            if (slot > 0 || !hashDrawFirst) {
+                buffer.pickBest(0, slot, end);
+            }
+            if (isConsidered(phase, buffer.draw(slot))) {
+                draws[count] = buffer.draw(slot);
+                indexes[count] = buffer.index(slot);
+                count++;
+            }
+        }
+        return new RootDraws(Arrays.copyOf(draws, count), Arrays.copyOf(indexes, count));
+    }
+
+    /**
+     * Runs the action for all indexes from {@code from} (inclusive) to {@code to} (exclusive), in parallel on the
+     * shared pool. The indexes are taken by {@code threads} tasks, at most one per available processor, so a search
+     * never uses more threads than it asked for, however large the number requested.
+     */
+    private void forEach(int from, int to, int threads, IntConsumer action) {
+        int parallelism = Math.min(Math.min(threads, MAX_THREADS), to - from);
+        if (parallelism <= 1) {
+            for (int i = from; i < to; i++) {
+                action.accept(i);
+            }
+            return;
+        }
+        AtomicInteger next = new AtomicInteger(from);
+        List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+        for (int t = 0; t < parallelism; t++) {
+            tasks.add(() -> {
+                for (int i = next.getAndIncrement(); i < to; i = next.getAndIncrement()) {
+                    action.accept(i);
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void clearTranspositionTable() {
+        transpositionTable.clear();
+    }
+
+    @PreDestroy
+    void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Paranoid alpha-beta search on a single board: the player {@code actual} maximizes the evaluation, all other
+     * players minimize it. Results are cached in the transposition table together with their depth and bound. Scores
+     * are only taken from entries of exactly the same depth, so the score of a position does not depend on what other
+     * searches or threads stored before; best draws of any depth are tried first. The draws of every ply are generated
+     * into the buffer behind the ones of the parent ply and picked best first.
+     */
+    private double minimaxAbPrune2(GameState board, DrawBuffer buffer, int actual, int depth, double alpha, double beta, Deadline deadline) {
+        if (depth <= 0 || board.isEnd()) {
+            return evaluatePosition(board, actual);
+        }
+        deadline.check();
+        long key = transpositionKey(board, actual);
+        TranspositionTable.Entry entry = transpositionTable.probe(key);
+        if (entry != null && entry.depth() == depth) {
+            if (entry.bound() == TranspositionTable.EXACT
+                    || (entry.bound() == TranspositionTable.LOWER_BOUND && entry.score() >= beta)
+                    || (entry.bound() == TranspositionTable.UPPER_BOUND && entry.score() <= alpha)) {
+                return entry.score();
+            }
+        }
+
+        GamePhase phase = evaluateGamePhase(board);
+        int start = buffer.size();
+        int end = start + franchiseCoreService.nextDraws(board, buffer);
+        boolean hashDrawFirst = entry != null
+                && entry.bestDraw() != TranspositionTable.NO_DRAW
+                && buffer.moveToFront(start, end, start + entry.bestDraw());
+        boolean maximize = board.next() == actual;
+        double alphaOriginal = alpha;
+        double betaOriginal = beta;
+        double extremeScore = maximize ? -Double.MAX_VALUE : Double.MAX_VALUE;
+        int bestDraw = TranspositionTable.NO_DRAW;
+        for (int slot = start; slot < end; slot++) {
+            if (slot > start || !hashDrawFirst) {
+                buffer.pickBest(start, slot, end);
+            }
+            if (!isConsidered(phase, buffer.draw(slot))) {
+                continue;
+            }
+            franchiseCoreService.apply(board, buffer.draw(slot));
+            double score = minimaxAbPrune2(board, buffer, actual, depth - 1, alpha, beta, deadline);
+            franchiseCoreService.undo(board);
+            if (maximize) {
+                if (score > extremeScore || bestDraw == TranspositionTable.NO_DRAW) {
+                    extremeScore = score;
+                    bestDraw = buffer.index(slot) - start;
                 }
-                savedScores.put(newBoard.hashCode(), scoredDraw.getScore());
+                alpha = Math.max(alpha, extremeScore);
             } else {
-                scoredDraw = ScoredDraw.builder().score(savedScores.get(newBoard.hashCode())).build();
+                if (score < extremeScore || bestDraw == TranspositionTable.NO_DRAW) {
+                    extremeScore = score;
+                    bestDraw = buffer.index(slot) - start;
+                }
+                beta = Math.min(beta, extremeScore);
             }
-            scoredDraw.setDraw(draw);
-            if (alpha.get(newBoard.getActual()) > beta.get(newBoard.getActual())) {
+            if (alpha >= beta) {
                 break;
             }
         }
-        if (bestMove == null) {
-            return ScoredDraw.builder().score(extremeScore).build();
+        buffer.truncate(start);
+        final int bound;
+        if (extremeScore <= alphaOriginal) {
+            bound = TranspositionTable.UPPER_BOUND;
+        } else if (extremeScore >= betaOriginal) {
+            bound = TranspositionTable.LOWER_BOUND;
         } else {
-            return bestMove;
+            bound = TranspositionTable.EXACT;
         }
+        transpositionTable.store(key, extremeScore, depth, bound, bestDraw);
+        return extremeScore;
+    }
+
+    /**
+     * The scores of the paranoid search depend on the player to maximize, so the player is part of the key.
+     */
+    private static long transpositionKey(GameState board, int actual) {
+        return board.hash64() ^ GameState.mix(-1, actual);
     }
 
-    private ScoredDraw minimaxAbPrune(GameRound round, PlayerColor actual, int depth, double alpha, double beta, boolean ignoreOthers, List<ScoredDraw> scoredDraws) {
-        if (depth == 0 || round.isEnd()) {
-            double score = evaluatePosition(round, actual);
-            return ScoredDraw.builder().gameRound(round).score(score).build();
+    /**
+     * @param shortenDepth whether to search only one more ply below positions with too many draws
+     */
+    private double minimaxAbPrune(GameState board, DrawBuffer buffer, int actual, int depth, double alpha, double beta, boolean ignoreOthers, Deadline deadline, boolean shortenDepth) {
+        if (depth == 0 || board.isEnd()) {
+            return evaluatePosition(board, actual);
         }
+        deadline.check();
 
+        int undoDepth = board.undoDepth();
         if (ignoreOthers) {
-            Draw emptyDraw = Draw.builder().extension(Set.of()).increase(List.of()).build();
-            while (actual != round.getNext()) {
-                round = franchiseCoreService.manualDraw(round, emptyDraw).getGameRound();
+            while (actual != board.next()) {
+                franchiseCoreService.apply(board, PackedDraw.EMPTY);
             }
         }
 
+        GamePhase phase = evaluateGamePhase(board);
+        int start = buffer.size();
+        int end = start + franchiseCoreService.nextDraws(board, buffer);
         // if we have too many possibilities, then shorten the depth
-        List<Draw> draws = filterAndSortDraws(round, franchiseCoreService.nextDraws(round));
-        if (draws.size() > 5000) {
+        int considered = 0;
+        for (int slot = start; slot < end; slot++) {
+            if (isConsidered(phase, buffer.draw(slot))) {
+                considered++;
+            }
+        }
+        if (shortenDepth && considered > 5000) {
             depth = 1;
         }
 
-        double best = actual == round.getNext() ? -Double.MAX_VALUE : Double.MAX_VALUE;
-        ScoredDraw bestMove = null;
-        for (Draw draw : draws) {
-            GameRound newBoard = franchiseCoreService.manualDraw(round, draw).getGameRound();
-            ScoredDraw scoredDraw = minimaxAbPrune(newBoard, actual, depth - 1, alpha, beta, ignoreOthers, null);
-            scoredDraw = ScoredDraw.builder().gameRound(newBoard).score(scoredDraw.getScore()).draw(draw).build();
-            if (scoredDraws != null) {
-                scoredDraws.add(scoredDraw);
+        boolean maximize = actual == board.next();
+        double best = maximize ? -Double.MAX_VALUE : Double.MAX_VALUE;
+        boolean improved = false;
+        for (int slot = start; slot < end; slot++) {
+            buffer.pickBest(start, slot, end);
+            long draw = buffer.draw(slot);
+            if (!isConsidered(phase, draw)) {
+                continue;
             }
+            franchiseCoreService.apply(board, draw);
+            double score = minimaxAbPrune(board, buffer, actual, depth - 1, alpha, beta, ignoreOthers, deadline, shortenDepth);
+            franchiseCoreService.undo(board);
 
-            if (newBoard.getActual() == actual) {
-                best = Math.max(best, scoredDraw.getScore());
+            if (maximize) {
+                best = Math.max(best, score);
                 if (best > alpha) {
-                    bestMove = scoredDraw;
+                    improved = true;
                     alpha = best;
                 }
-
             } else {
-                best = Math.min(best, scoredDraw.getScore());
+                best = Math.min(best, score);
                 if (best < beta) {
-                    bestMove = scoredDraw;
+                    improved = true;
                     beta = best;
                 }
             }
@@ -254,69 +741,76 @@ public class FranchiseService {
                 break;
             }
         }
-        if (bestMove == null) {
-            return ScoredDraw.builder().score(alpha).build();
-        } else {
-            return bestMove;
+        buffer.truncate(start);
+        while (board.undoDepth() > undoDepth) {
+            franchiseCoreService.undo(board);
         }
+        return improved ? best : alpha;
     }
 
-    private double evaluatePosition(GameRound round, PlayerColor actual) {
-        GamePhase phase = evaluateGamePhase(round);
-        double value = round.getScores().get(actual).getInfluence() * switch (phase) {
+    double evaluatePosition(GameState state, int actual) {
+        GamePhase phase = evaluateGamePhase(state);
+        double value = state.influence(actual) * switch (phase) {
             case START -> 0;
             case GROW -> 0.3;
             case END -> 1;
         };
-        Set<City> ownedCities = franchiseCoreService.retrieveOwnedCities(round.getPlates(), actual);
-        Score score = round.getScores().get(actual);
-        value += ownedCities.stream()
-                .filter(f -> f.getSize() == 1)
-                .count() * switch (phase) {
+        int towns = 0;
+        int freeSlots = 0;
+        int evenCitiesRuled = 0;
+        int oddCitiesRuled = 0;
+        for (City city : GameState.CITIES) {
+            int c = city.ordinal();
+            int ownBranches = state.countBranches(c, actual);
+            if (ownBranches == 0) {
+                continue;
+            }
+            if (city.getSize() == 1) {
+                towns++;
+            }
+            if (state.isClosed(c)) {
+                continue;
+            }
+            freeSlots += city.getSize() - state.branchCount(c);
+            if (city.getSize() % 2 == 0 && ownBranches == 2) {
+                evenCitiesRuled++;
+            }
+            if (city.getSize() % 2 == 1 && ownBranches == 1) {
+                oddCitiesRuled++;
+            }
+        }
+        value += towns * switch (phase) {
             case START -> 0.6;
             case GROW -> 0.8;
             case END -> 1;
         };
         // count of free slots for branches
-        value += ownedCities.stream()
-                .filter(f -> !round.getPlates().get(f).isClosed())
-                .mapToInt(f -> f.getSize() - round.getPlates().get(f).getBranches().size())
-                .sum() * switch (phase) {
+        value += freeSlots * switch (phase) {
             case START -> 1.5;
             case GROW -> 1.0;
             case END -> -0.5;
         };
         // in cities with an even count of slots the player should rule with two branches, excluded the actual expansion
-        value += ownedCities.stream()
-                .filter(f -> !round.getPlates().get(f).isClosed())
-                .filter(f -> f.getSize() % 2 == 0)
-                .filter(f -> round.getPlates().get(f) != null)
-                .filter(f -> round.getPlates().get(f).getBranches().size() - round.getPlates().get(f).getBranches().stream().filter(g -> g != actual).count() == 2)
-                .count() * switch (phase) {
+        value += evenCitiesRuled * switch (phase) {
             case START, GROW -> 3;
             case END -> 0;
         };
         // in cities with an odd count of slots the player should rule with one branch
-        value += ownedCities.stream()
-                .filter(f -> !round.getPlates().get(f).isClosed())
-                .filter(f -> f.getSize() % 2 == 1)
-                .filter(f -> round.getPlates().get(f) != null)
-                .filter(f -> round.getPlates().get(f).getBranches().size() - round.getPlates().get(f).getBranches().stream().filter(g -> g != actual).count() == 1)
-                .count() * switch (phase) {
+        value += oddCitiesRuled * switch (phase) {
             case START, GROW -> 3;
             case END -> 0;
         };
-        value += score.getMoney() * switch (phase) {
+        value += state.money(actual) * switch (phase) {
             case START -> 0.02;
             case GROW -> 0.2;
             case END -> 0.33;
         };
-        value += score.getBonusTiles() * switch (phase) {
+        value += state.bonusTiles(actual) * switch (phase) {
             case START -> 0.5;
             case GROW -> 0.8;
             case END -> 4;
         };
-        value += score.getIncome() * switch (phase) {
+        value += state.income(actual) * switch (phase) {
             case START -> 3;
             case GROW -> 1.5;
             case END -> 0;
@@ -326,45 +820,102 @@ public class FranchiseService {
     }
 
     public Draw divideAndConquer(GameRound round, int depth, int slice, boolean ignoreOthers) {
-        List<ScoredDraw> scoredDraws = new ArrayList<>();
-        minimaxAbPrune(round, round.getNext(), depth, -Double.MAX_VALUE, +Double.MAX_VALUE, ignoreOthers, scoredDraws);
+        return divideAndConquer(round, depth, slice, ignoreOthers, 1);
+    }
+
+    public Draw divideAndConquer(GameRound round, int depth, int slice, boolean ignoreOthers, int threads) {
+        return divideAndConquer(round, depth, slice, ignoreOthers, threads, 0);
+    }
+
+    /**
+     * With more than one thread the draws of the root and the slices are searched in parallel. The root draws are
+     * then searched with independent windows, because their scores rank the draws for the slices.
+     *
+     * @param timeBudgetMs if positive, the depth is deepened iteratively up to {@code depth} until the time budget
+     *                     is used up, searching the best draw of the previous iteration first. Positions with many
+     *                     draws are then no longer cut to one more ply.
+     */
+    public Draw divideAndConquer(GameRound round, int depth, int slice, boolean ignoreOthers, int threads, long timeBudgetMs) {
+        GameState board = GameState.of(round);
+        if (timeBudgetMs <= 0) {
+            return print(divideAndConquer(board, depth, slice, ignoreOthers, threads, TranspositionTable.NO_DRAW, Deadline.NONE, true));
+        }
+        Deadline deadline = Deadline.in(timeBudgetMs);
+        int[] principalDraw = {TranspositionTable.NO_DRAW};
+        return print(iterativeDeepening(depth, deadline, d -> {
+            ScoredDraw result = divideAndConquer(board, d, slice, ignoreOthers, threads, principalDraw[0], d == 1 ? Deadline.NONE : deadline, false);
+            principalDraw[0] = result.getIndex();
+            return result;
+        }));
+    }
+
+    private ScoredDraw divideAndConquer(GameState board, int depth, int slice, boolean ignoreOthers, int threads, int firstDraw, Deadline deadline, boolean shortenDepth) {
+        List<ScoredDraw> scoredDraws = new ArrayList<>(divideAndConquerRoot(board, depth, ignoreOthers, threads, firstDraw, deadline, shortenDepth));
         scoredDraws.sort((o1, o2) -> -Double.compare(o1.getScore(), o2.getScore()));
         if (slice == 0) {
-            return print(scoredDraws.get(0));
-        } else {
-            ScoredDraw result = null;
-            for (ScoredDraw sd : scoredDraws.stream().filter(f -> f.getGameRound() != null).limit(Math.min(scoredDraws.size(), slice)).toList()) {
-                ScoredDraw draw = minimaxAbPrune(sd.getGameRound(), ignoreOthers ? round.getNext() : sd.getGameRound().getNext(), depth, -Double.MAX_VALUE, +Double.MAX_VALUE, ignoreOthers, scoredDraws);
-                if (result == null
-                        || (result.getScore() < draw.getScore() && depth % round.getPlayers().size() == 0)
-                        || (result.getScore() > draw.getScore() && depth % round.getPlayers().size() > 0)) {
-                    result = sd;
-                }
+            return scoredDraws.get(0);
+        }
+        List<ScoredDraw> candidates = scoredDraws.stream().limit(Math.min(scoredDraws.size(), slice)).toList();
+        double[] scores = new double[candidates.size()];
+        forEach(0, candidates.size(), threads, i -> {
+            GameState candidate = candidates.get(i).getBoard();
+            scores[i] = minimaxAbPrune(candidate, new DrawBuffer(), ignoreOthers ? board.next() : candidate.next(), depth, -Double.MAX_VALUE, +Double.MAX_VALUE, ignoreOthers, deadline, shortenDepth);
+        });
+        ScoredDraw result = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (result == null
+                    || (result.getScore() < scores[i] && depth % board.playerCount() == 0)
+                    || (result.getScore() > scores[i] && depth % board.playerCount() > 0)) {
+                result = candidates.get(i);
             }
-            if (result == null) {
-                return print(scoredDraws.get(0));
-            } else {
-                return print(result);
+        }
+        return result == null ? scoredDraws.get(0) : result;
+    }
+
+    private List<ScoredDraw> divideAndConquerRoot(GameState board, int depth, boolean ignoreOthers, int threads, int firstDraw, Deadline deadline, boolean shortenDepth) {
+        if (depth == 0 || board.isEnd()) {
+            return List.of();
+        }
+        RootDraws root = rootDraws(board, firstDraw);
+        // if we have too many possibilities, then shorten the depth
+        int childDepth = shortenDepth && root.draws().length > 5000 ? 0 : depth - 1;
+        ScoredDraw[] scoredDraws = new ScoredDraw[root.draws().length];
+        IntToDoubleBiFunction search = (i, alpha) -> {
+            GameState child = board.copy();
+            franchiseCoreService.apply(child, root.draws()[i]);
+            double score = minimaxAbPrune(child, new DrawBuffer(), board.next(), childDepth, alpha, +Double.MAX_VALUE, ignoreOthers, deadline, shortenDepth);
+            scoredDraws[i] = ScoredDraw.builder().board(child).score(score).draw(PackedDraw.toDraw(root.draws()[i])).index(root.indexes()[i]).build();
+            return score;
+        };
+        if (threads <= 1) {
+            double alpha = -Double.MAX_VALUE;
+            for (int i = 0; i < scoredDraws.length; i++) {
+                alpha = Math.max(alpha, search.apply(i, alpha));
             }
+        } else {
+            forEach(0, scoredDraws.length, threads, i -> search.apply(i, -Double.MAX_VALUE));
         }
+        return List.of(scoredDraws);
     }
 
     private Draw print(ScoredDraw scoredDraw) {
+        GameState board = scoredDraw.getBoard();
         StringBuilder sb = new StringBuilder();
-        sb.append(evaluateGamePhase(scoredDraw.getGameRound()));
+        sb.append(evaluateGamePhase(board));
         sb.append(" ");
         sb.append(scoredDraw.getDraw().toString());
-        for (PlayerColor color : scoredDraw.getGameRound().getPlayers()) {
+        for (int i = 0; i < board.playerCount(); i++) {
+            int color = board.player(i);
             sb.append(" ");
-            sb.append(color);
+            sb.append(GameState.COLORS[color]);
             sb.append(" -> ");
-            sb.append(evaluatePosition(scoredDraw.getGameRound(), color));
+            sb.append(evaluatePosition(board, color));
             sb.append(" (");
-            sb.append(scoredDraw.getGameRound().getScores().get(color).getMoney());
+            sb.append(board.money(color));
             sb.append("/");
-            sb.append(scoredDraw.getGameRound().getScores().get(color).getIncome());
+            sb.append(board.income(color));
             sb.append("/");
-            sb.append(scoredDraw.getGameRound().getScores().get(color).getInfluence());
+            sb.append(board.influence(color));
             sb.append(")");
         }
         log.info(new String(sb));
@@ -377,8 +928,9 @@ public class FranchiseService {
     @ToString
     private static class ScoredDraw {
         private Draw draw;
-        private GameRound gameRound;
+        private GameState board;
         private double score;
+        private int index;
     }
 
     @Getter
@@ -391,6 +943,14 @@ public class FranchiseService {
         private Draw draw;
     }
 
+    private record RootDraws(long[] draws, int[] indexes) {
+    }
+
+    @FunctionalInterface
+    private interface IntToDoubleBiFunction {
+        double apply(int index, double alpha);
+    }
+
     enum GamePhase {
         START,
         GROW,
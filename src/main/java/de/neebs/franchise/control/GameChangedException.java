@@ -0,0 +1,12 @@
+package de.neebs.franchise.control;
+
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import static org.springframework.http.HttpStatus.CONFLICT;
+
+@ResponseStatus(CONFLICT)
+public class GameChangedException extends RuntimeException {
+    public GameChangedException(String message) {
+        super(message);
+    }
+}
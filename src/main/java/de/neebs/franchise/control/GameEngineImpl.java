@@ -5,12 +5,22 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class GameEngineImpl implements GameEngine {
+    private static final String PARALLELISM = "parallelism";
+    private static final String QUEUE_CAPACITY = "queueCapacity";
+    private static final List<GameRoundDraw> END_OF_GAMES = new ArrayList<>();
+
     private final FranchiseService franchiseService;
 
     private final FranchiseRLService franchiseRLService;
@@ -58,7 +68,7 @@ public class GameEngineImpl implements GameEngine {
 
         @Override
         public Draw evaluateDraw(GameRound round) {
-            return franchiseService.minimax(round, getInt(getParams(), DEPTH, 3));
+            return franchiseService.minimax(round, getDepth(DEPTH, 3), getTimeBudgetMs());
         }
     }
 
@@ -84,7 +94,7 @@ public class GameEngineImpl implements GameEngine {
 
         @Override
         public Draw evaluateDraw(GameRound round) {
-            return franchiseService.minimaxAbPrune(round, getInt(getParams(), DEPTH, 3));
+            return franchiseService.minimaxAbPrune(round, getDepth(DEPTH, 3), getThreads(), getTimeBudgetMs());
         }
     }
 
@@ -100,38 +110,49 @@ public class GameEngineImpl implements GameEngine {
         @Override
         public Draw evaluateDraw(GameRound round) {
             return franchiseService.divideAndConquer(round,
-                    getInt(getParams(), DEPTH, 2),
+                    getDepth(DEPTH, 2),
                     getInt(getParams(), SLICE, 0),
-                    getBoolean(getParams(), IGNORE_OTHERS, false));
+                    getBoolean(getParams(), IGNORE_OTHERS, false),
+                    getThreads(),
+                    getTimeBudgetMs());
         }
     }
 
     private class MonteCarloComputerPlayer extends AbstractComputerPlayer {
-        private static final String EPSILON = "epsilon";
-        private static final String TIMES = "times";
-        private final boolean playGame;
-
+        private static final String ITERATIONS = "iterations";
+        private static final String MAX_NODES = "maxNodes";
+        private static final String PARALLELISM = "parallelism";
+        private static final String PARALLELIZATION = "parallelization";
+        private static final String ROOT_PARALLELIZATION = "root";
+        private final List<MonteCarloTree> trees = new ArrayList<>();
+        private final int threadsPerTree;
+
+        /**
+         * With a parallelism above one, the threads either search one shared tree (default) or, with the
+         * parallelization param "root", one tree each.
+         */
         MonteCarloComputerPlayer(PlayerColor color, Map<String, Object> params) {
             super(color, params);
-            playGame = true;
-        }
-
-        MonteCarloComputerPlayer(PlayerColor color, Map<String, Object> params, boolean playGame) {
-            super(color, params);
-            this.playGame = playGame;
+            int parallelism = Math.max(1, AbstractComputerPlayer.getInt(params, PARALLELISM, 1));
+            boolean rootParallelization = ROOT_PARALLELIZATION.equalsIgnoreCase(getString(params, PARALLELIZATION, "tree"));
+            threadsPerTree = rootParallelization ? 1 : parallelism;
+            for (int i = 0; i < parallelism / threadsPerTree; i++) {
+                trees.add(new MonteCarloTree(getInt(params, MAX_NODES, 1 << 18)));
+            }
         }
 
+        /**
+         * Synchronized, as the player and its trees are kept with a game, which may get concurrent requests.
+         */
         @Override
-        public Draw evaluateDraw(GameRound round) {
-            if (playGame) {
-                play(round, createPlayers(round.getPlayers()), Set.of(new MonteCarloLearningModel()), Map.of(), getInt(getParams(), TIMES, 100));
-            }
-            Map<Draw, List<Integer>> learnings = inMemoryMonteCarloLearningModel.getLearnings(round);
-            return franchiseService.monteCarloTreeSearch(round, learnings, getFloat(getParams(), EPSILON, 0.95f));
+        public synchronized Draw evaluateDraw(GameRound round) {
+            return franchiseService.monteCarloTreeSearch(round, trees, threadsPerTree, getInt(getParams(), ITERATIONS, 1000), getTimeBudgetMs(),
+                    inMemoryMonteCarloLearningModel);
         }
 
-        private Set<ComputerPlayer> createPlayers(List<PlayerColor> players) {
-            return players.stream().map(f -> new MonteCarloComputerPlayer(f, getParams(), false)).collect(Collectors.toSet());
+        @Override
+        public ComputerPlayer copy() {
+            return new MonteCarloComputerPlayer(getPlayerColor(), getParams());
         }
     }
 
@@ -170,9 +191,7 @@ public class GameEngineImpl implements GameEngine {
     private class MonteCarloLearningModel implements LearningModel {
         @Override
         public void train(List<GameRoundDraw> gameRoundDraws) {
-            for (GameRoundDraw grd : gameRoundDraws) {
-                inMemoryMonteCarloLearningModel.learn(grd.getGameRound(), grd.getDraw(), franchiseCoreService.score(grd.getGameRound().getScores()));
-            }
+            inMemoryMonteCarloLearningModel.learn(gameRoundDraws);
         }
 
         @Override
@@ -248,21 +267,69 @@ public class GameEngineImpl implements GameEngine {
         }
     }
 
+    /**
+     * Plays the game {@code times} times. With a {@code parallelism} param above one, the games are played on that
+     * many threads, every game with its own {@link ComputerPlayer#copy() copies} of the players. The finished games
+     * are then passed through a queue of {@code queueCapacity} games to one trainer thread per learning model, so
+     * every model is still trained by a single thread.
+     */
     @Override
     public Map<PlayerColor, Integer> play(GameRound round, Set<ComputerPlayer> players, Set<LearningModel> learningModels, Map<String, Object> params, int times) {
+        int parallelism = Math.max(1, AbstractComputerPlayer.getInt(params, PARALLELISM, 1));
+        if (parallelism > 1) {
+            return play(round, players, learningModels, times, parallelism, Math.max(1, AbstractComputerPlayer.getInt(params, QUEUE_CAPACITY, 16)));
+        }
         Map<PlayerColor, Integer> result = new EnumMap<>(PlayerColor.class);
         for (int i = 0; i < times; i++) {
             List<GameRoundDraw> grds = play(round, players);
-            Map<PlayerColor, Integer> map = grds.get(grds.size() - 1).getGameRound().getScores().entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, f -> f.getValue().getInfluence()));
-            log.info("Result: {}: Rounds: {} {}", i, grds.size(), map);
+            countWinner(result, i, grds);
             for (LearningModel learningModel : learningModels) {
                 learningModel.train(grds);
             }
-            PlayerColor winner = map.entrySet().stream().max(Map.Entry.comparingByValue()).orElseThrow().getKey();
-            if (map.values().stream().distinct().count() != 1) {
-                result.put(winner, result.getOrDefault(winner, 0) + 1);
+        }
+        for (LearningModel learningModel : learningModels) {
+            learningModel.save();
+        }
+        return result;
+    }
+
+    private Map<PlayerColor, Integer> play(GameRound round, Set<ComputerPlayer> players, Set<LearningModel> learningModels, int times, int parallelism, int queueCapacity) {
+        Map<PlayerColor, Integer> result = new EnumMap<>(PlayerColor.class);
+        List<BlockingQueue<List<GameRoundDraw>>> queues = new ArrayList<>();
+        ExecutorService trainers = Executors.newFixedThreadPool(Math.max(1, learningModels.size()));
+        ExecutorService games = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> trainings = new ArrayList<>();
+            for (LearningModel learningModel : learningModels) {
+                BlockingQueue<List<GameRoundDraw>> queue = new ArrayBlockingQueue<>(queueCapacity);
+                queues.add(queue);
+                trainings.add(trainers.submit(() -> train(learningModel, queue)));
+            }
+            List<Future<?>> plays = new ArrayList<>();
+            for (int i = 0; i < times; i++) {
+                int game = i;
+                plays.add(games.submit(() -> {
+                    List<GameRoundDraw> grds = play(round, players.stream().map(ComputerPlayer::copy).collect(Collectors.toSet()));
+                    synchronized (result) {
+                        countWinner(result, game, grds);
+                    }
+                    for (BlockingQueue<List<GameRoundDraw>> queue : queues) {
+                        queue.put(grds);
+                    }
+                    return null;
+                }));
+            }
+            RuntimeException failure = await(plays);
+            for (BlockingQueue<List<GameRoundDraw>> queue : queues) {
+                put(queue, END_OF_GAMES);
             }
+            RuntimeException trainingFailure = await(trainings);
+            if (failure != null || trainingFailure != null) {
+                throw failure != null ? failure : trainingFailure;
+            }
+        } finally {
+            games.shutdownNow();
+            trainers.shutdownNow();
         }
         for (LearningModel learningModel : learningModels) {
             learningModel.save();
@@ -270,6 +337,64 @@ public class GameEngineImpl implements GameEngine {
         return result;
     }
 
+    /**
+     * Trains the model with the games of the queue until the end of the games. If the training fails, the remaining
+     * games are still taken from the queue, so the players never block.
+     */
+    private Void train(LearningModel learningModel, BlockingQueue<List<GameRoundDraw>> queue) throws InterruptedException {
+        RuntimeException failure = null;
+        for (List<GameRoundDraw> grds = queue.take(); grds != END_OF_GAMES; grds = queue.take()) {
+            if (failure == null) {
+                try {
+                    learningModel.train(grds);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    private static RuntimeException await(List<Future<?>> futures) {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Playing interrupted", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException runtimeException
+                            ? runtimeException : new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        return failure;
+    }
+
+    private static void put(BlockingQueue<List<GameRoundDraw>> queue, List<GameRoundDraw> grds) {
+        try {
+            queue.put(grds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Playing interrupted", e);
+        }
+    }
+
+    private static void countWinner(Map<PlayerColor, Integer> result, int game, List<GameRoundDraw> grds) {
+        Map<PlayerColor, Integer> map = grds.get(grds.size() - 1).getGameRound().getScores().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, f -> f.getValue().getInfluence()));
+        log.info("Result: {}: Rounds: {} {}", game, grds.size(), map);
+        PlayerColor winner = map.entrySet().stream().max(Map.Entry.comparingByValue()).orElseThrow().getKey();
+        if (map.values().stream().distinct().count() != 1) {
+            result.put(winner, result.getOrDefault(winner, 0) + 1);
+        }
+    }
+
     @Override
     public List<GameRoundDraw> play(GameRound round, Set<ComputerPlayer> players) {
         List<GameRoundDraw> grds = new ArrayList<>();
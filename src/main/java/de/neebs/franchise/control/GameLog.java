@@ -0,0 +1,197 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only event log of one game. The log starts with the initial {@link GameState} of the game, followed by the
+ * draws in their {@link PackedDraw} encoding; rounds are rebuilt by replaying the draws. Undoing draws appends a
+ * truncation to the number of draws kept, and every now and then a snapshot of the state after a number of draws is
+ * appended, so the latest round can be loaded without replaying the whole game.
+ * <p>
+ * Every event is a record {@code [type][length][payload][crc]}. A torn record at the end of the log, left by a crash
+ * during an append, is ignored when reading and cut off before the next append.
+ */
+final class GameLog {
+    private static final byte SETUP = 1;
+    private static final byte DRAW = 2;
+    private static final byte TRUNCATE = 3;
+    private static final byte SNAPSHOT = 4;
+
+    private static final int FRAME_BYTES = 1 + Integer.BYTES + Integer.BYTES;
+
+    private ByteBuffer pending = ByteBuffer.allocate(256);
+    private int payloadStart;
+
+    private GameLog() {
+    }
+
+    /**
+     * @return a new log starting with the initial state of the game
+     */
+    static GameLog create(GameState setup) {
+        GameLog log = new GameLog();
+        log.appendState(SETUP, 0, setup);
+        return log;
+    }
+
+    /**
+     * @return an empty batch of events to append to an existing log
+     */
+    static GameLog append() {
+        return new GameLog();
+    }
+
+    GameLog draw(long draw) {
+        frame(DRAW, Long.BYTES).putLong(draw);
+        return close();
+    }
+
+    GameLog truncate(int draws) {
+        frame(TRUNCATE, Integer.BYTES).putInt(draws);
+        return close();
+    }
+
+    GameLog snapshot(int draws, GameState state) {
+        return appendState(SNAPSHOT, draws, state);
+    }
+
+    private GameLog appendState(byte type, int draws, GameState state) {
+        long[] words = state.words();
+        ByteBuffer buffer = frame(type, Integer.BYTES + words.length * Long.BYTES);
+        buffer.putInt(draws);
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+        return close();
+    }
+
+    private ByteBuffer frame(byte type, int length) {
+        if (pending.remaining() < FRAME_BYTES + length) {
+            pending = ByteBuffer.allocate(2 * (pending.capacity() + FRAME_BYTES + length)).put(pending.flip());
+        }
+        pending.put(type).putInt(length);
+        payloadStart = pending.position();
+        return pending;
+    }
+
+    private GameLog close() {
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), payloadStart, pending.position() - payloadStart);
+        pending.putInt((int) crc.getValue());
+        return this;
+    }
+
+    boolean isEmpty() {
+        return pending.position() == 0;
+    }
+
+    /**
+     * Appends the events to the log behind its first {@code validLength} bytes.
+     *
+     * @param force whether to force the log to disk
+     * @return the new length of the log
+     */
+    long writeTo(Path file, long validLength, boolean force) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(pending.array(), 0, pending.position());
+            long position = validLength;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the valid events of a log.
+     */
+    static Contents read(Path file) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        GameState setup = null;
+        long[] draws = new long[64];
+        int drawCount = 0;
+        GameState snapshot = null;
+        int snapshotDraws = 0;
+        while (buffer.remaining() >= FRAME_BYTES) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length + Integer.BYTES) {
+                buffer.position(start);
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != buffer.getInt(buffer.position() + length)) {
+                buffer.position(start);
+                break;
+            }
+            switch (type) {
+                case SETUP -> {
+                    buffer.getInt();
+                    setup = readState(buffer, length);
+                }
+                case DRAW -> {
+                    if (drawCount == draws.length) {
+                        draws = Arrays.copyOf(draws, 2 * drawCount);
+                    }
+                    draws[drawCount++] = buffer.getLong();
+                }
+                case TRUNCATE -> {
+                    drawCount = Math.min(drawCount, buffer.getInt());
+                    if (snapshotDraws > drawCount) {
+                        snapshot = null;
+                        snapshotDraws = 0;
+                    }
+                }
+                case SNAPSHOT -> {
+                    snapshotDraws = buffer.getInt();
+                    snapshot = readState(buffer, length);
+                }
+                default -> throw new IllegalStateException("Unknown event " + type + " in " + file);
+            }
+            buffer.position(start + FRAME_BYTES + length);
+        }
+        if (setup == null) {
+            throw new IllegalStateException("No setup in " + file);
+        }
+        return new Contents(setup, Arrays.copyOf(draws, drawCount), snapshot, snapshotDraws, buffer.position());
+    }
+
+    private static GameState readState(ByteBuffer buffer, int length) {
+        long[] words = new long[(length - Integer.BYTES) / Long.BYTES];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        return GameState.of(words);
+    }
+
+    /**
+     * @param snapshot      the latest snapshot still valid or {@code null}
+     * @param snapshotDraws the number of draws the snapshot was taken after
+     * @param validLength   the number of bytes of complete events
+     */
+    record Contents(GameState setup, long[] draws, GameState snapshot, int snapshotDraws, long validLength) {
+    }
+}
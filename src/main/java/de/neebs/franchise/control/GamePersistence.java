@@ -2,44 +2,353 @@ package de.neebs.franchise.control;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * Stores every game as a {@link GameLog} in {@code <directory>/<id>.log}. Saving a game appends only the draws made
+ * since the last save (or a truncation, if draws were undone) and a snapshot every {@code snapshotInterval} draws.
+ * Loading replays the draws from the initial state, so saving fails if a changed round does not follow from the draw
+ * of its predecessor. Games saved as JSON by earlier versions are still read and converted to a log on their next save.
+ * <p>
+ * Appends are forced to disk depending on {@code syncIntervalMs}: never for a negative value, on every append for
+ * {@code 0}, otherwise every that many milliseconds for all logs appended to in the meantime (group sync).
+ * <p>
+ * Loaded games are kept in the {@value #CACHE} cache, which is configured with {@code spring.cache.caffeine.spec}
+ * (bounded by size, abandoned games expire) as immutable snapshots. Reading a cached game takes no lock. Loading a
+ * game into the cache and changing it hold one of {@link #LOCK_STRIPES} locks chosen by the game id, so draws on the
+ * same game never interleave; changes go through {@link #updateGame(String, Function)}, which should not run long
+ * computations, as all games of the stripe wait for it.
+ * <p>
+ * Next to a cached game its computer players are kept, see {@link #computerPlayer(String, String, Supplier)}.
+ */
 @Service
-@RequiredArgsConstructor
+@Slf4j
 public class GamePersistence {
+    static final String CACHE = "games";
+
+    private static final int LOCK_STRIPES = 64;
+
     private final ObjectMapper objectMapper;
+    private final FranchiseCoreService franchiseCoreService;
+    private final Path directory;
+    private final int snapshotInterval;
+    private final long syncIntervalMs;
+    private final Cache games;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final Set<Path> unsynced = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService syncer;
 
-    private final Map<String, List<GameRoundDraw>> gameRoundDraws = new HashMap<>();
+    public GamePersistence(ObjectMapper objectMapper,
+                           FranchiseCoreService franchiseCoreService,
+                           CacheManager cacheManager,
+                           @Value("${franchise.games.directory:games}") String directory,
+                           @Value("${franchise.games.snapshot-interval:16}") int snapshotInterval,
+                           @Value("${franchise.games.sync-interval-ms:-1}") long syncIntervalMs) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        this.objectMapper = objectMapper;
+        this.franchiseCoreService = franchiseCoreService;
+        this.directory = Path.of(directory);
+        this.snapshotInterval = snapshotInterval;
+        this.syncIntervalMs = syncIntervalMs;
+        games = cacheManager.getCache(CACHE);
+        if (games == null) {
+            throw new IllegalStateException("No cache " + CACHE + " configured");
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        if (syncIntervalMs > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "game-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    private Lock lock(String gameId) {
+        int hash = gameId.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
 
     public void saveGame(String gameId, List<GameRoundDraw> gameRoundDraw) {
-        gameRoundDraws.put(gameId, gameRoundDraw);
+        Lock lock = lock(gameId);
+        lock.lock();
+        try {
+            save(gameId, gameRoundDraw);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes a game while holding its lock: the update gets a copy of the rounds, and the changed copy is saved
+     * afterwards. If the update fails, the game stays as it was.
+     *
+     * @return the result of the update
+     */
+    public <T> T updateGame(String gameId, Function<List<GameRoundDraw>, T> update) {
+        Lock lock = lock(gameId);
+        lock.lock();
+        try {
+            List<GameRoundDraw> rounds = loadGame(gameId);
+            T result = update.apply(rounds);
+            save(gameId, rounds);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void save(String gameId, List<GameRoundDraw> gameRoundDraw) {
+        long[] draws = new long[gameRoundDraw.size() - 1];
+        for (int i = 0; i < draws.length; i++) {
+            Draw draw = gameRoundDraw.get(i).getDraw();
+            if (draw == null) {
+                throw new IllegalStateException("Round " + i + " of game " + gameId + " has no draw");
+            }
+            draws[i] = PackedDraw.of(draw);
+        }
+        Game game = games.get(gameId, Game.class);
+        if (game == null && Files.exists(logFile(gameId))) {
+            GameLog.Contents contents = GameLog.read(logFile(gameId));
+            game = new Game(null, contents.draws(), contents.snapshotDraws(), contents.validLength(), new ConcurrentHashMap<>());
+        }
+
+        GameLog log;
+        int kept;
+        int snapshotDraws;
+        long length;
+        if (game == null || game.draws() == null) {
+            log = GameLog.create(GameState.of(gameRoundDraw.get(0).getGameRound()));
+            kept = 0;
+            snapshotDraws = 0;
+            length = 0;
+        } else {
+            log = GameLog.append();
+            kept = 0;
+            while (kept < Math.min(draws.length, game.draws().length) && draws[kept] == game.draws()[kept]) {
+                kept++;
+            }
+            if (kept < game.draws().length) {
+                log.truncate(kept);
+            }
+            snapshotDraws = Math.min(game.snapshotDraws(), kept);
+            length = game.length();
+        }
+        // the log only keeps the draws, so every round from the first changed one on must follow from its predecessor
+        for (int i = Math.max(0, kept - 1); i < draws.length; i++) {
+            GameState state = GameState.of(gameRoundDraw.get(i).getGameRound());
+            franchiseCoreService.apply(state, draws[i]);
+            if (!state.equals(GameState.of(gameRoundDraw.get(i + 1).getGameRound()))) {
+                throw new IllegalStateException("Round " + (i + 1) + " of game " + gameId + " does not follow from the draw of round " + i);
+            }
+        }
+        for (int i = kept; i < draws.length; i++) {
+            log.draw(draws[i]);
+        }
+        if (draws.length - snapshotDraws >= snapshotInterval) {
+            snapshotDraws = draws.length;
+            log.snapshot(snapshotDraws, GameState.of(gameRoundDraw.get(draws.length).getGameRound()));
+        }
+        if (!log.isEmpty()) {
+            length = append(gameId, log, length);
+        }
+        games.put(gameId, new Game(Collections.unmodifiableList(copy(gameRoundDraw)), draws, snapshotDraws, length, players(game)));
+    }
+
+    private long append(String gameId, GameLog log, long length) {
         try {
-            Files.write(Path.of("games", gameId + ".json"), objectMapper.writeValueAsBytes(gameRoundDraw), StandardOpenOption.CREATE);
+            Files.createDirectories(directory);
         } catch (IOException e) {
-            throw new IllegalArgumentException(e);
+            throw new UncheckedIOException(e);
         }
+        Path file = logFile(gameId);
+        length = log.writeTo(file, length, syncIntervalMs == 0);
+        if (syncIntervalMs > 0) {
+            unsynced.add(file);
+        }
+        return length;
     }
 
+    /**
+     * @return a copy of the rounds of the game; the rounds themselves must not be changed, see
+     * {@link #updateGame(String, Function)}
+     */
     public List<GameRoundDraw> loadGame(String gameId) {
-        List<GameRoundDraw> gameRoundDraw = gameRoundDraws.get(gameId);
-        if (gameRoundDraw == null) {
+        Game cached = games.get(gameId, Game.class);
+        if (cached != null && cached.rounds() != null) {
+            return copy(cached.rounds());
+        }
+        Lock lock = lock(gameId);
+        lock.lock();
+        try {
+            return copy(load(gameId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static List<GameRoundDraw> copy(List<GameRoundDraw> rounds) {
+        List<GameRoundDraw> copy = new ArrayList<>(rounds.size() + 1);
+        for (GameRoundDraw round : rounds) {
+            copy.add(GameRoundDraw.builder().gameRound(round.getGameRound()).draw(round.getDraw()).build());
+        }
+        return copy;
+    }
+
+    private List<GameRoundDraw> load(String gameId) {
+        Game game = games.get(gameId, Game.class);
+        if (game != null && game.rounds() != null) {
+            return game.rounds();
+        }
+        if (Files.exists(logFile(gameId))) {
+            GameLog.Contents contents = GameLog.read(logFile(gameId));
+            List<GameRoundDraw> rounds = new ArrayList<>(contents.draws().length + 1);
+            GameState state = contents.setup().copy();
+            for (long draw : contents.draws()) {
+                rounds.add(GameRoundDraw.builder().gameRound(state.toGameRound()).draw(PackedDraw.toDraw(draw)).build());
+                franchiseCoreService.apply(state, draw);
+            }
+            rounds.add(GameRoundDraw.builder().gameRound(state.toGameRound()).build());
+            rounds = Collections.unmodifiableList(rounds);
+            games.put(gameId, new Game(rounds, contents.draws(), contents.snapshotDraws(), contents.validLength(), players(game)));
+            return rounds;
+        }
+        try {
+            String s = Files.readString(directory.resolve(gameId + ".json"));
+            List<GameRoundDraw> rounds = Collections.unmodifiableList(objectMapper.readValue(s, new TypeReference<List<GameRoundDraw>>() {}));
+            games.put(gameId, new Game(rounds, null, 0, 0, players(game)));
+            return rounds;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return the latest round of the game, restored from the last snapshot without rebuilding the earlier rounds
+     */
+    public GameRound loadLatestRound(String gameId) {
+        Game cached = games.get(gameId, Game.class);
+        if (cached != null && cached.rounds() != null) {
+            return cached.rounds().get(cached.rounds().size() - 1).getGameRound();
+        }
+        Lock lock = lock(gameId);
+        lock.lock();
+        try {
+            Game game = games.get(gameId, Game.class);
+            if ((game == null || game.rounds() == null) && Files.exists(logFile(gameId))) {
+                GameLog.Contents contents = GameLog.read(logFile(gameId));
+                GameState state = (contents.snapshot() == null ? contents.setup() : contents.snapshot()).copy();
+                for (int i = contents.snapshot() == null ? 0 : contents.snapshotDraws(); i < contents.draws().length; i++) {
+                    franchiseCoreService.apply(state, contents.draws()[i]);
+                }
+                return state.toGameRound();
+            }
+            List<GameRoundDraw> rounds = load(gameId);
+            return rounds.get(rounds.size() - 1).getGameRound();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Map<String, ComputerPlayer> players(Game game) {
+        return game == null ? new ConcurrentHashMap<>() : game.players();
+    }
+
+    /**
+     * Returns the computer player of the game with the key, creating it on first use. Players keep what they learned
+     * during the game for their next draws, like the tree of the Monte Carlo tree search, as long as the game is
+     * cached; they are dropped together with the game.
+     */
+    public ComputerPlayer computerPlayer(String gameId, String key, Supplier<ComputerPlayer> factory) {
+        Game game = games.get(gameId, Game.class);
+        if (game == null || game.rounds() == null) {
+            Lock lock = lock(gameId);
+            lock.lock();
             try {
-                String s = Files.readString(Path.of("games", gameId + ".json"));
-                gameRoundDraw = objectMapper.readValue(s, new TypeReference<List<GameRoundDraw>>() {});
-                gameRoundDraws.put(gameId, gameRoundDraw);
+                load(gameId);
+                game = games.get(gameId, Game.class);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return game.players().computeIfAbsent(key, k -> factory.get());
+    }
+
+    /**
+     * @return hits, misses and evictions of the game cache, if it records statistics
+     */
+    public CacheStats cacheStatistics() {
+        if (games.getNativeCache() instanceof com.github.benmanes.caffeine.cache.Cache<?, ?> cache) {
+            return cache.stats();
+        }
+        return CacheStats.empty();
+    }
+
+    private Path logFile(String gameId) {
+        return directory.resolve(gameId + ".log");
+    }
+
+    private void sync() {
+        for (Iterator<Path> iterator = unsynced.iterator(); iterator.hasNext(); ) {
+            Path file = iterator.next();
+            iterator.remove();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(false);
             } catch (IOException e) {
-                throw new IllegalArgumentException(e);
+                log.warn("Could not sync {}", file, e);
             }
         }
-        return gameRoundDraw;
+    }
+
+    @PreDestroy
+    void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+            sync();
+        }
+    }
+
+    /**
+     * @param rounds        the rounds of the game or {@code null}, if only its log is known
+     * @param draws         the draws in the log or {@code null}, if the game has no log yet
+     * @param snapshotDraws the number of draws of the latest snapshot in the log
+     * @param length        the length of the log in bytes
+     * @param players       the computer players of the game by their key, carried over to every newer version
+     */
+    private record Game(List<GameRoundDraw> rounds, long[] draws, int snapshotDraws, long length, Map<String, ComputerPlayer> players) {
     }
 }
@@ -0,0 +1,577 @@
+package de.neebs.franchise.control;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primitive-backed representation of a {@link GameRound} for the search engines. The whole state lives in one
+ * {@code long[]}, so a copy is a single array clone and no collections are allocated while a search walks the tree.
+ * <p>
+ * Layout of the words:
+ * <ul>
+ *     <li>one word per {@link City} (by ordinal): up to eight branch owners with three bits each, the branch count,
+ *     the closed flag and the extension costs (zero means none)</li>
+ *     <li>one word per {@link PlayerColor} (by ordinal): money, influence, bonus tiles and income</li>
+ *     <li>one meta word: round, next and actual player, end flag and the ordered player list</li>
+ *     <li>one word with the scored regions in the order they have been scored</li>
+ *     <li>one word with the first city scorer of every {@link Region}</li>
+ * </ul>
+ * A state can also be used as a single mutable board: after {@link #mark()} every write records the previous value of
+ * the touched word, and {@link #rollback()} restores everything written since the matching mark.
+ */
+public final class GameState {
+    static final City[] CITIES = City.values();
+    static final PlayerColor[] COLORS = PlayerColor.values();
+    static final Region[] REGIONS = Region.values();
+
+    static final int NONE = -1;
+
+    private static final int PLAYER_WORDS = CITIES.length;
+    private static final int META_WORD = PLAYER_WORDS + COLORS.length;
+    private static final int SCORED_REGIONS_WORD = META_WORD + 1;
+    private static final int FIRST_CITY_WORD = SCORED_REGIONS_WORD + 1;
+    static final int WORDS = FIRST_CITY_WORD + 1;
+
+    // plate word
+    private static final int BRANCH_BITS = 3;
+    private static final long BRANCH_MASK = 0x7L;
+    private static final int MAX_BRANCHES = 8;
+    private static final int COUNT_SHIFT = 24;
+    private static final long COUNT_MASK = 0xFL;
+    private static final int CLOSED_SHIFT = 28;
+    private static final int COSTS_SHIFT = 29;
+    private static final long COSTS_MASK = 0xFL;
+
+    // player word
+    private static final int MONEY_SHIFT = 0;
+    private static final int INFLUENCE_SHIFT = 20;
+    private static final long MONEY_INFLUENCE_MASK = 0xFFFFFL;
+    private static final int BONUS_TILES_SHIFT = 40;
+    private static final int INCOME_SHIFT = 48;
+    private static final long BYTE_MASK = 0xFFL;
+
+    // meta word
+    private static final int ROUND_SHIFT = 0;
+    private static final long ROUND_MASK = 0xFFFFFL;
+    private static final int NEXT_SHIFT = 20;
+    private static final int ACTUAL_SHIFT = 23;
+    private static final int END_SHIFT = 26;
+    private static final int PLAYER_COUNT_SHIFT = 27;
+    private static final int PLAYERS_SHIFT = 30;
+    private static final long COLOR_MASK = 0x7L;
+    private static final long NO_COLOR = 0x7L;
+
+    // scored regions word
+    private static final long REGION_COUNT_MASK = 0xFL;
+    private static final int REGION_BITS = 4;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long[] words;
+
+    private long key;
+
+    // undo log: the previous value of every written word and the log size at every mark
+    private int[] undoIndexes = new int[0];
+    private long[] undoValues = new long[0];
+    private int undoSize;
+    private int[] marks = new int[0];
+    private int markCount;
+
+    private GameState(long[] words, long key) {
+        this.words = words;
+        this.key = key;
+    }
+
+    private GameState(long[] words) {
+        this(words, 0);
+        for (int i = 0; i < words.length; i++) {
+            key ^= mix(i, words[i]);
+        }
+    }
+
+    public static GameState of(GameRound round) {
+        long[] words = new long[WORDS];
+        for (City city : CITIES) {
+            CityPlate plate = round.getPlates().get(city);
+            if (plate != null) {
+                words[city.ordinal()] = encodePlate(city, plate);
+            }
+        }
+        List<PlayerColor> players = round.getPlayers();
+        if (players.size() > COLORS.length) {
+            throw new IllegalArgumentException("Too many players: " + players.size());
+        }
+        for (Map.Entry<PlayerColor, Score> entry : round.getScores().entrySet()) {
+            words[PLAYER_WORDS + entry.getKey().ordinal()] = encodeScore(entry.getValue());
+        }
+        long meta = checkRange(round.getRound(), ROUND_MASK, "round") << ROUND_SHIFT
+                | (long) round.getNext().ordinal() << NEXT_SHIFT
+                | (round.getActual() == null ? NO_COLOR : round.getActual().ordinal()) << ACTUAL_SHIFT
+                | (round.isEnd() ? 1L : 0L) << END_SHIFT
+                | (long) players.size() << PLAYER_COUNT_SHIFT;
+        for (int i = 0; i < players.size(); i++) {
+            meta |= (long) players.get(i).ordinal() << (PLAYERS_SHIFT + i * BRANCH_BITS);
+        }
+        words[META_WORD] = meta;
+        long scoredRegions = round.getScoredRegions().size();
+        for (int i = 0; i < round.getScoredRegions().size(); i++) {
+            scoredRegions |= (long) round.getScoredRegions().get(i).ordinal() << (REGION_BITS + i * REGION_BITS);
+        }
+        words[SCORED_REGIONS_WORD] = scoredRegions;
+        long firstCityScorers = 0;
+        for (Map.Entry<Region, PlayerColor> entry : round.getFirstCityScorers().entrySet()) {
+            firstCityScorers |= (entry.getValue().ordinal() + 1L) << (entry.getKey().ordinal() * BRANCH_BITS);
+        }
+        words[FIRST_CITY_WORD] = firstCityScorers;
+        return new GameState(words);
+    }
+
+    private static long encodePlate(City city, CityPlate plate) {
+        List<PlayerColor> branches = plate.getBranches();
+        if (branches.size() > Math.max(city.getSize(), 1) || branches.size() > MAX_BRANCHES) {
+            throw new IllegalArgumentException("Too many branches in " + city + ": " + branches.size());
+        }
+        long word = 0;
+        for (int i = 0; i < branches.size(); i++) {
+            word |= (long) branches.get(i).ordinal() << (i * BRANCH_BITS);
+        }
+        word |= (long) branches.size() << COUNT_SHIFT;
+        word |= (plate.isClosed() ? 1L : 0L) << CLOSED_SHIFT;
+        if (plate.getExtensionCosts() != null) {
+            word |= checkRange(plate.getExtensionCosts() + 1L, COSTS_MASK, "extension costs") << COSTS_SHIFT;
+        }
+        return word;
+    }
+
+    private static long encodeScore(Score score) {
+        return checkRange(score.getMoney(), MONEY_INFLUENCE_MASK, "money") << MONEY_SHIFT
+                | checkRange(score.getInfluence(), MONEY_INFLUENCE_MASK, "influence") << INFLUENCE_SHIFT
+                | checkRange(score.getBonusTiles(), BYTE_MASK, "bonus tiles") << BONUS_TILES_SHIFT
+                | checkRange(score.getIncome(), BYTE_MASK, "income") << INCOME_SHIFT;
+    }
+
+    private static long checkRange(long value, long mask, String name) {
+        if (value < 0 || value > mask) {
+            throw new IllegalArgumentException("Value of " + name + " out of range: " + value);
+        }
+        return value;
+    }
+
+    public GameRound toGameRound() {
+        List<PlayerColor> players = new ArrayList<>(playerCount());
+        for (int i = 0; i < playerCount(); i++) {
+            players.add(COLORS[player(i)]);
+        }
+        Map<PlayerColor, Score> scores = new EnumMap<>(PlayerColor.class);
+        for (PlayerColor color : players) {
+            Score score = new Score();
+            score.setMoney(money(color.ordinal()));
+            score.setInfluence(influence(color.ordinal()));
+            score.setBonusTiles(bonusTiles(color.ordinal()));
+            score.setIncome(income(color.ordinal()));
+            scores.put(color, score);
+        }
+        Map<City, CityPlate> plates = new EnumMap<>(City.class);
+        for (City city : CITIES) {
+            int c = city.ordinal();
+            List<PlayerColor> branches = new ArrayList<>(branchCount(c));
+            for (int i = 0; i < branchCount(c); i++) {
+                branches.add(COLORS[branch(c, i)]);
+            }
+            int costs = extensionCosts(c);
+            plates.put(city, new CityPlate(isClosed(c), branches, costs == NONE ? null : costs));
+        }
+        List<Region> scoredRegions = new ArrayList<>(scoredRegionCount());
+        for (int i = 0; i < scoredRegionCount(); i++) {
+            scoredRegions.add(REGIONS[scoredRegion(i)]);
+        }
+        Map<Region, PlayerColor> firstCityScorers = new EnumMap<>(Region.class);
+        for (Region region : REGIONS) {
+            int scorer = firstCityScorer(region.ordinal());
+            if (scorer != NONE) {
+                firstCityScorers.put(region, COLORS[scorer]);
+            }
+        }
+        return new GameRound(
+                players,
+                COLORS[next()],
+                actual() == NONE ? null : COLORS[actual()],
+                round(),
+                scores,
+                plates,
+                scoredRegions,
+                firstCityScorers,
+                isEnd());
+    }
+
+    public GameState copy() {
+        return new GameState(words.clone(), key);
+    }
+
+    /**
+     * @return a copy of the packed words, e.g. to persist the state
+     */
+    long[] words() {
+        return words.clone();
+    }
+
+    /**
+     * Restores a state from its packed words, see {@link #words()}.
+     */
+    static GameState of(long[] words) {
+        if (words.length != WORDS) {
+            throw new IllegalArgumentException("Expected " + WORDS + " words, got " + words.length);
+        }
+        return new GameState(words.clone());
+    }
+
+    /**
+     * Stable 64-bit Zobrist key of the complete state. It is the XOR of one pseudo-random key per word and word value,
+     * maintained incrementally on every write, so reading it is free. It does not depend on identity hash codes, so it
+     * can be persisted and compared across JVM runs.
+     */
+    public long hash64() {
+        return key;
+    }
+
+    /**
+     * Derives the Zobrist key of a word value with the SplitMix64 finalizer instead of a random table, because a plate
+     * or player word has far too many values for a table.
+     */
+    static long mix(int index, long word) {
+        long z = word + (index + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // players and turn
+
+    int playerCount() {
+        return (int) ((words[META_WORD] >>> PLAYER_COUNT_SHIFT) & COLOR_MASK);
+    }
+
+    int player(int index) {
+        return (int) ((words[META_WORD] >>> (PLAYERS_SHIFT + index * BRANCH_BITS)) & COLOR_MASK);
+    }
+
+    int playerIndex(int color) {
+        for (int i = 0; i < playerCount(); i++) {
+            if (player(i) == color) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    int round() {
+        return (int) ((words[META_WORD] >>> ROUND_SHIFT) & ROUND_MASK);
+    }
+
+    int next() {
+        return (int) ((words[META_WORD] >>> NEXT_SHIFT) & COLOR_MASK);
+    }
+
+    int actual() {
+        long actual = (words[META_WORD] >>> ACTUAL_SHIFT) & COLOR_MASK;
+        return actual == NO_COLOR ? NONE : (int) actual;
+    }
+
+    public boolean isEnd() {
+        return ((words[META_WORD] >>> END_SHIFT) & 1L) != 0;
+    }
+
+    public PlayerColor getNext() {
+        return COLORS[next()];
+    }
+
+    // scores
+
+    int money(int color) {
+        return (int) ((words[PLAYER_WORDS + color] >>> MONEY_SHIFT) & MONEY_INFLUENCE_MASK);
+    }
+
+    int influence(int color) {
+        return (int) ((words[PLAYER_WORDS + color] >>> INFLUENCE_SHIFT) & MONEY_INFLUENCE_MASK);
+    }
+
+    int bonusTiles(int color) {
+        return (int) ((words[PLAYER_WORDS + color] >>> BONUS_TILES_SHIFT) & BYTE_MASK);
+    }
+
+    int income(int color) {
+        return (int) ((words[PLAYER_WORDS + color] >>> INCOME_SHIFT) & BYTE_MASK);
+    }
+
+    // plates
+
+    int branchCount(int city) {
+        return (int) ((words[city] >>> COUNT_SHIFT) & COUNT_MASK);
+    }
+
+    int branch(int city, int slot) {
+        return (int) ((words[city] >>> (slot * BRANCH_BITS)) & BRANCH_MASK);
+    }
+
+    int countBranches(int city, int color) {
+        long word = words[city];
+        int count = 0;
+        for (int i = 0; i < branchCount(city); i++) {
+            if (((word >>> (i * BRANCH_BITS)) & BRANCH_MASK) == color) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    boolean hasBranch(int city, int color) {
+        return countBranches(city, color) > 0;
+    }
+
+    /**
+     * @return bitmask of the cities (by ordinal) the player has a branch in
+     */
+    long ownedCities(int color) {
+        long owned = 0;
+        for (int city = 0; city < CITIES.length; city++) {
+            if (hasBranch(city, color)) {
+                owned |= 1L << city;
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * @return bitmask of the closed cities by ordinal
+     */
+    long closedCities() {
+        long closed = 0;
+        for (int city = 0; city < CITIES.length; city++) {
+            if (isClosed(city)) {
+                closed |= 1L << city;
+            }
+        }
+        return closed;
+    }
+
+    boolean isClosed(int city) {
+        return ((words[city] >>> CLOSED_SHIFT) & 1L) != 0;
+    }
+
+    int extensionCosts(int city) {
+        return (int) ((words[city] >>> COSTS_SHIFT) & COSTS_MASK) - 1;
+    }
+
+    // regions
+
+    int scoredRegionCount() {
+        return (int) (words[SCORED_REGIONS_WORD] & REGION_COUNT_MASK);
+    }
+
+    int scoredRegion(int index) {
+        return (int) ((words[SCORED_REGIONS_WORD] >>> (REGION_BITS + index * REGION_BITS)) & REGION_COUNT_MASK);
+    }
+
+    boolean isRegionScored(int region) {
+        for (int i = 0; i < scoredRegionCount(); i++) {
+            if (scoredRegion(i) == region) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int firstCityScorer(int region) {
+        return (int) ((words[FIRST_CITY_WORD] >>> (region * BRANCH_BITS)) & COLOR_MASK) - 1;
+    }
+
+    // mutation
+
+    void setRound(int round) {
+        writeMeta(ROUND_SHIFT, ROUND_MASK, round);
+    }
+
+    void setNext(int color) {
+        writeMeta(NEXT_SHIFT, COLOR_MASK, color);
+    }
+
+    void setActual(int color) {
+        writeMeta(ACTUAL_SHIFT, COLOR_MASK, color == NONE ? NO_COLOR : color);
+    }
+
+    void setEnd(boolean end) {
+        writeMeta(END_SHIFT, 1L, end ? 1 : 0);
+    }
+
+    private void writeMeta(int shift, long mask, long value) {
+        write(META_WORD, (words[META_WORD] & ~(mask << shift)) | (value & mask) << shift);
+    }
+
+    void setMoney(int color, int money) {
+        writePlayer(color, MONEY_SHIFT, MONEY_INFLUENCE_MASK, money);
+    }
+
+    void setInfluence(int color, int influence) {
+        writePlayer(color, INFLUENCE_SHIFT, MONEY_INFLUENCE_MASK, influence);
+    }
+
+    void addInfluence(int color, int influence) {
+        setInfluence(color, influence(color) + influence);
+    }
+
+    void setBonusTiles(int color, int bonusTiles) {
+        writePlayer(color, BONUS_TILES_SHIFT, BYTE_MASK, bonusTiles);
+    }
+
+    void setIncome(int color, int income) {
+        writePlayer(color, INCOME_SHIFT, BYTE_MASK, income);
+    }
+
+    private void writePlayer(int color, int shift, long mask, long value) {
+        int index = PLAYER_WORDS + color;
+        write(index, (words[index] & ~(mask << shift)) | (checkRange(value, mask, "score") << shift));
+    }
+
+    void addBranch(int city, int color) {
+        long word = words[city];
+        int count = branchCount(city);
+        word |= (long) color << (count * BRANCH_BITS);
+        write(city, (word & ~(COUNT_MASK << COUNT_SHIFT)) | (long) (count + 1) << COUNT_SHIFT);
+    }
+
+    /**
+     * Removes all branches of the given color from the plate and appends a single one at the end, which is what
+     * happens to the branches of the player scoring a city.
+     */
+    void keepSingleBranch(int city, int color) {
+        long word = words[city];
+        long branches = 0;
+        int count = 0;
+        for (int i = 0; i < branchCount(city); i++) {
+            long branch = (word >>> (i * BRANCH_BITS)) & BRANCH_MASK;
+            if (branch != color) {
+                branches |= branch << (count++ * BRANCH_BITS);
+            }
+        }
+        branches |= (long) color << (count++ * BRANCH_BITS);
+        long rest = word & ~((1L << COUNT_SHIFT) - 1) & ~(COUNT_MASK << COUNT_SHIFT);
+        write(city, rest | branches | (long) count << COUNT_SHIFT);
+    }
+
+    /**
+     * Replaces the plate by a closed plate holding a single branch of the given color and no extension costs.
+     */
+    void occupyTown(int city, int color) {
+        write(city, color | 1L << COUNT_SHIFT | 1L << CLOSED_SHIFT);
+    }
+
+    void setClosed(int city) {
+        write(city, words[city] | 1L << CLOSED_SHIFT);
+    }
+
+    void setExtensionCosts(int city, int costs) {
+        long value = costs == NONE ? 0 : checkRange(costs + 1L, COSTS_MASK, "extension costs");
+        write(city, (words[city] & ~(COSTS_MASK << COSTS_SHIFT)) | value << COSTS_SHIFT);
+    }
+
+    void addScoredRegion(int region) {
+        int count = scoredRegionCount();
+        long word = words[SCORED_REGIONS_WORD] & ~REGION_COUNT_MASK;
+        word |= (long) region << (REGION_BITS + count * REGION_BITS);
+        write(SCORED_REGIONS_WORD, word | (count + 1));
+    }
+
+    void setFirstCityScorer(int region, int color) {
+        int shift = region * BRANCH_BITS;
+        write(FIRST_CITY_WORD, (words[FIRST_CITY_WORD] & ~(COLOR_MASK << shift)) | (color + 1L) << shift);
+    }
+
+    private void write(int index, long value) {
+        long previous = words[index];
+        if (previous == value) {
+            return;
+        }
+        if (markCount > 0) {
+            if (undoSize == undoIndexes.length) {
+                undoIndexes = Arrays.copyOf(undoIndexes, Math.max(16, undoSize * 2));
+                undoValues = Arrays.copyOf(undoValues, undoIndexes.length);
+            }
+            undoIndexes[undoSize] = index;
+            undoValues[undoSize] = previous;
+            undoSize++;
+        }
+        key ^= mix(index, previous) ^ mix(index, value);
+        words[index] = value;
+    }
+
+    // undo
+
+    /**
+     * Starts recording the changes, which can be reverted by the next call of {@link #rollback()}. Marks can be
+     * nested.
+     */
+    void mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, Math.max(16, markCount * 2));
+        }
+        marks[markCount++] = undoSize;
+    }
+
+    /**
+     * Reverts all changes since the last {@link #mark()}.
+     */
+    void rollback() {
+        if (markCount == 0) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        int start = marks[--markCount];
+        while (undoSize > start) {
+            undoSize--;
+            int index = undoIndexes[undoSize];
+            key ^= mix(index, words[index]) ^ mix(index, undoValues[undoSize]);
+            words[index] = undoValues[undoSize];
+        }
+    }
+
+    /**
+     * @return the cities (by ordinal) whose plates were written since the last {@link #mark()}
+     */
+    long changedCities() {
+        if (markCount == 0) {
+            throw new IllegalStateException("Nothing marked");
+        }
+        long cities = 0;
+        for (int i = marks[markCount - 1]; i < undoSize; i++) {
+            if (undoIndexes[i] < PLAYER_WORDS) {
+                cities |= 1L << undoIndexes[i];
+            }
+        }
+        return cities;
+    }
+
+    int undoDepth() {
+        return markCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof GameState other && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (key ^ (key >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "GameState(round=" + round() + ", next=" + getNext() + ", hash=" + Long.toHexString(hash64()) + ")";
+    }
+}
@@ -1,23 +1,168 @@
 package de.neebs.franchise.control;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Statistics of the rewards reached with a draw in a position, learned from played games: the share of the win of the
+ * player who made the draw, as in the playouts of {@link FranchiseService#monteCarloTreeSearch}, which starts the
+ * children of a position with these statistics. Positions are keyed by {@link GameState#hash64()}, draws by their
+ * {@link PackedDraw} encoding, and per draw only the count, the sum and the sum of squares of the rewards are kept.
+ * <p>
+ * The store is bounded: it keeps at most {@code maxStates} positions and evicts the least recently used ones. It is
+ * split into segments with a lock each, so concurrent writers rarely block each other.
+ */
 @Component
 public class InMemoryMonteCarloLearningModel {
-    private final Map<GameRound, Map<Draw, List<Integer>>> learnings = new HashMap<>();
+    private static final int SEGMENTS = 16;
 
-    public void learn(GameRound gameRound, Draw draw, Map<PlayerColor, Integer> playerScores) {
-        Map<Draw, List<Integer>> map = learnings.computeIfAbsent(gameRound, k -> new HashMap<>());
-        List<Integer> list = map.computeIfAbsent(draw, k -> new ArrayList<>());
-        list.add(playerScores.get(gameRound.getNext()));
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public InMemoryMonteCarloLearningModel(@Value("${franchise.monte-carlo.max-states:100000}") int maxStates) {
+        if (maxStates < SEGMENTS) {
+            throw new IllegalArgumentException("At least " + SEGMENTS + " states are needed");
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxStates / SEGMENTS);
+        }
+    }
+
+    /**
+     * Learns all draws of a finished game with the rewards of its end.
+     */
+    public void learn(List<GameRoundDraw> game) {
+        GameState end = GameState.of(game.get(game.size() - 1).getGameRound());
+        if (!end.isEnd()) {
+            return;
+        }
+        double[] rewards = new double[GameState.COLORS.length];
+        FranchiseService.rewards(end, rewards);
+        for (GameRoundDraw grd : game) {
+            if (grd.getDraw() != null) {
+                learn(grd.getGameRound(), grd.getDraw(), rewards[grd.getGameRound().getNext().ordinal()]);
+            }
+        }
+    }
+
+    public void learn(GameRound gameRound, Draw draw, double reward) {
+        learn(GameState.of(gameRound).hash64(), PackedDraw.of(draw), reward);
+    }
+
+    void learn(long state, long draw, double reward) {
+        Segment segment = segment(state);
+        synchronized (segment) {
+            segment.computeIfAbsent(state, k -> new DrawStatistics()).add(draw, reward);
+        }
+    }
+
+    /**
+     * @return the statistics of the draws learned in the position or {@code null}, if the position is unknown
+     */
+    public Map<Draw, Statistics> getLearnings(GameRound round) {
+        Map<Long, Statistics> learnings = getLearnings(GameState.of(round).hash64());
+        if (learnings == null) {
+            return null;
+        }
+        Map<Draw, Statistics> result = new HashMap<>();
+        learnings.forEach((draw, statistics) -> result.put(PackedDraw.toDraw(draw), statistics));
+        return result;
+    }
+
+    Map<Long, Statistics> getLearnings(long state) {
+        Segment segment = segment(state);
+        synchronized (segment) {
+            DrawStatistics statistics = segment.get(state);
+            return statistics == null ? null : statistics.snapshot();
+        }
+    }
+
+    /**
+     * @return the number of positions stored
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
     }
 
-    public Map<Draw, List<Integer>> getLearnings(GameRound round) {
-        return learnings.get(round);
+    private Segment segment(long state) {
+        return segments[(int) ((state ^ (state >>> 32)) & (SEGMENTS - 1))];
+    }
+
+    public record Statistics(int count, double sum, double sumOfSquares) {
+        public double mean() {
+            return sum / count;
+        }
+
+        public double variance() {
+            double mean = mean();
+            return Math.max(0, sumOfSquares / count - mean * mean);
+        }
+    }
+
+    private static class Segment extends LinkedHashMap<Long, DrawStatistics> {
+        private final int maxStates;
+
+        Segment(int maxStates) {
+            super(16, 0.75f, true);
+            this.maxStates = maxStates;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, DrawStatistics> eldest) {
+            return size() > maxStates;
+        }
+    }
+
+    private static class DrawStatistics {
+        private long[] draws = new long[4];
+        private int[] counts = new int[4];
+        private double[] sums = new double[4];
+        private double[] sumsOfSquares = new double[4];
+        private int size;
+
+        void add(long draw, double reward) {
+            int index = indexOf(draw);
+            if (index < 0) {
+                if (size == draws.length) {
+                    draws = Arrays.copyOf(draws, 2 * size);
+                    counts = Arrays.copyOf(counts, 2 * size);
+                    sums = Arrays.copyOf(sums, 2 * size);
+                    sumsOfSquares = Arrays.copyOf(sumsOfSquares, 2 * size);
+                }
+                index = size++;
+                draws[index] = draw;
+            }
+            counts[index]++;
+            sums[index] += reward;
+            sumsOfSquares[index] += reward * reward;
+        }
+
+        private int indexOf(long draw) {
+            for (int i = 0; i < size; i++) {
+                if (draws[i] == draw) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Map<Long, Statistics> snapshot() {
+            Map<Long, Statistics> snapshot = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                snapshot.put(draws[i], new Statistics(counts[i], sums[i], sumsOfSquares[i]));
+            }
+            return snapshot;
+        }
     }
 }
@@ -0,0 +1,127 @@
+package de.neebs.franchise.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Micro-batching of forward passes. Callers of {@link #infer(float[])} from many threads (usually many concurrent
+ * games) are queued; a dispatcher thread takes the first waiting input, collects further ones until the batch is full
+ * or the maximum wait has passed, and runs them through the network as one batch. The rows of the result are handed
+ * back to the waiting callers.
+ */
+final class InferenceBatcher implements AutoCloseable {
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final UnaryOperator<float[][]> forward;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Thread dispatcher;
+
+    private volatile boolean closed;
+
+    /**
+     * @param forward      the forward pass, mapping a batch of inputs to a batch of outputs with the same number of rows
+     * @param maxBatchSize maximum number of inputs in one forward pass
+     * @param maxWaitNanos maximum time the first input of a batch waits for further ones
+     */
+    InferenceBatcher(UnaryOperator<float[][]> forward, int maxBatchSize, long maxWaitNanos) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.forward = forward;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        dispatcher = new Thread(this::dispatch, "inference-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Runs the input through the network together with the inputs of other threads waiting at the same time.
+     *
+     * @return the output of the network for the input
+     */
+    float[] infer(float[] input) {
+        if (closed) {
+            throw new IllegalStateException("Batcher is closed");
+        }
+        Request request = new Request(input, new CompletableFuture<>());
+        requests.add(request);
+        if (closed && requests.remove(request)) {
+            throw new IllegalStateException("Batcher is closed");
+        }
+        try {
+            return request.output().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                Request first = requests.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long end = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = requests.poll(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                run(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        batch.addAll(requests);
+        batch.forEach(f -> f.output().completeExceptionally(new IllegalStateException("Batcher is closed")));
+    }
+
+    private void run(List<Request> batch) {
+        float[][] inputs = new float[batch.size()][];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = batch.get(i).input();
+        }
+        try {
+            float[][] outputs = forward.apply(inputs);
+            if (outputs.length != inputs.length) {
+                throw new IllegalStateException("Expected " + inputs.length + " outputs, got " + outputs.length);
+            }
+            for (int i = 0; i < outputs.length; i++) {
+                batch.get(i).output().complete(outputs[i]);
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(f -> f.output().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Stops the dispatcher; inputs still waiting fail with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    private record Request(float[] input, CompletableFuture<float[]> output) {
+    }
+}
@@ -0,0 +1,321 @@
+package de.neebs.franchise.control;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Node pool of the Monte Carlo tree search. The nodes live in parallel primitive arrays and are addressed by their
+ * index; the children of a node are allocated as one contiguous block when it is expanded. Node {@code 0} is the root.
+ * <p>
+ * The tree is kept between the searches of a player: if the next search starts from a position already in the tree
+ * (usually because the opponents played the expected draws), its subtree is moved to the root and its statistics are
+ * reused.
+ * <p>
+ * Several threads may search the same tree after {@link #reserve()}: visits and values are updated lock-free, a node
+ * is expanded by the thread winning {@link #tryExpand(int)}, and its children become visible with
+ * {@link #publish(int, int, int)}. A visit is counted when a thread passes a node and its reward is added later, so
+ * a path being played out looks like a loss to the other threads (virtual loss). Moving the root and growing the pool
+ * are single-threaded.
+ */
+final class MonteCarloTree {
+    static final int NO_NODE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int LEAF = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+
+    private final int maxNodes;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private long[] draws;
+    private long[] keys;
+    private byte[] movers;
+    private float[] priors;
+    private int[] firstChildren;
+    private int[] childCounts;
+    private AtomicIntegerArray states;
+    private AtomicIntegerArray visits;
+    private AtomicLongArray values;
+
+    /**
+     * @param maxNodes maximum number of nodes; leaves are no longer expanded once the pool is full
+     */
+    MonteCarloTree(int maxNodes) {
+        if (maxNodes < 2) {
+            throw new IllegalArgumentException("At least the root and one child are needed");
+        }
+        this.maxNodes = maxNodes;
+        init(Math.min(INITIAL_CAPACITY, maxNodes));
+    }
+
+    private void init(int capacity) {
+        draws = new long[capacity];
+        keys = new long[capacity];
+        movers = new byte[capacity];
+        priors = new float[capacity];
+        firstChildren = new int[capacity];
+        childCounts = new int[capacity];
+        states = new AtomicIntegerArray(capacity);
+        visits = new AtomicIntegerArray(capacity);
+        values = new AtomicLongArray(capacity);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Prepares the tree for a search from the given position. The subtree of a node with the same key within the
+     * next {@code plies} plies below the old root is kept, otherwise the tree is cleared.
+     *
+     * @return whether a subtree could be reused
+     */
+    boolean moveRoot(long key, int plies) {
+        int node = size() == 0 ? NO_NODE : find(0, key, plies);
+        if (node == NO_NODE) {
+            clear(key);
+            return false;
+        }
+        if (node != 0) {
+            compact(node);
+        }
+        return true;
+    }
+
+    /**
+     * Removes all nodes but a new root for the position.
+     */
+    void clear(long key) {
+        size.set(0);
+        initNode(addNode(), PackedDraw.EMPTY, key, GameState.NONE, 1);
+    }
+
+    private int find(int node, long key, int plies) {
+        if (keys[node] == key) {
+            return node;
+        }
+        if (plies == 0 || !isExpanded(node)) {
+            return NO_NODE;
+        }
+        for (int child = firstChildren[node]; child < firstChildren[node] + childCounts[node]; child++) {
+            if (visits(child) > 0) {
+                int found = find(child, key, plies - 1);
+                if (found != NO_NODE) {
+                    return found;
+                }
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Copies the subtree of the node into fresh arrays, breadth first, so it becomes the root and the blocks of
+     * children stay contiguous.
+     */
+    private void compact(int root) {
+        MonteCarloTree target = new MonteCarloTree(maxNodes);
+        int[] sources = new int[count(root)];
+        sources[0] = root;
+        target.copy(target.addNode(), this, root);
+        int tail = 1;
+        for (int head = 0; head < tail; head++) {
+            int source = sources[head];
+            if (!isExpanded(source)) {
+                continue;
+            }
+            int first = target.size();
+            for (int child = firstChildren[source]; child < firstChildren[source] + childCounts[source]; child++) {
+                target.copy(target.addNode(), this, child);
+                sources[tail++] = child;
+            }
+            target.publish(head, first, childCounts[source]);
+        }
+        size.set(target.size());
+        draws = target.draws;
+        keys = target.keys;
+        movers = target.movers;
+        priors = target.priors;
+        firstChildren = target.firstChildren;
+        childCounts = target.childCounts;
+        states = target.states;
+        visits = target.visits;
+        values = target.values;
+    }
+
+    private void copy(int node, MonteCarloTree source, int sourceNode) {
+        initNode(node, source.draws[sourceNode], source.keys[sourceNode], source.movers[sourceNode], source.priors[sourceNode]);
+        visits.set(node, source.visits(sourceNode));
+        values.set(node, source.values.get(sourceNode));
+    }
+
+    private int count(int node) {
+        int count = 1;
+        if (isExpanded(node)) {
+            for (int child = firstChildren[node]; child < firstChildren[node] + childCounts[node]; child++) {
+                count += count(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of nodes still fitting into the pool
+     */
+    int room() {
+        return maxNodes - size();
+    }
+
+    /**
+     * Allocates the whole pool, so it never grows while several threads search the tree.
+     */
+    void reserve() {
+        if (draws.length < maxNodes) {
+            grow(maxNodes);
+        }
+    }
+
+    private int addNode() {
+        int node = allocate(1);
+        if (node == NO_NODE) {
+            throw new IllegalStateException("Node pool exhausted");
+        }
+        return node;
+    }
+
+    /**
+     * Claims the expansion of a leaf. Only one thread wins; it has to {@link #publish(int, int, int)} the children or
+     * {@link #release(int)} the node.
+     */
+    boolean tryExpand(int node) {
+        return states.compareAndSet(node, LEAF, EXPANDING);
+    }
+
+    void release(int node) {
+        states.set(node, LEAF);
+    }
+
+    /**
+     * Allocates a block of nodes for the children of a node. The caller initializes them with
+     * {@link #initNode(int, long, long, int, float)} and publishes them.
+     *
+     * @return the index of the first node or {@link #NO_NODE} if the pool is full
+     */
+    int allocate(int count) {
+        int first;
+        do {
+            first = size.get();
+            if (first + count > maxNodes) {
+                return NO_NODE;
+            }
+        } while (!size.compareAndSet(first, first + count));
+        if (first + count > draws.length) {
+            grow((int) Math.min(maxNodes, Math.max(2L * draws.length, first + count)));
+        }
+        return first;
+    }
+
+    void initNode(int node, long draw, long key, int mover, float prior) {
+        draws[node] = draw;
+        keys[node] = key;
+        movers[node] = (byte) mover;
+        priors[node] = prior;
+        firstChildren[node] = 0;
+        childCounts[node] = 0;
+        states.set(node, LEAF);
+        visits.set(node, 0);
+        values.set(node, 0);
+    }
+
+    /**
+     * Starts an initialized node with visits and rewards from earlier games, before it is published.
+     */
+    void seed(int node, int visits, double value) {
+        this.visits.set(node, visits);
+        values.set(node, Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Makes the initialized children visible to all threads.
+     */
+    void publish(int node, int first, int count) {
+        firstChildren[node] = first;
+        childCounts[node] = count;
+        states.set(node, EXPANDED);
+    }
+
+    private void grow(int capacity) {
+        draws = Arrays.copyOf(draws, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        movers = Arrays.copyOf(movers, capacity);
+        priors = Arrays.copyOf(priors, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+        AtomicIntegerArray newStates = new AtomicIntegerArray(capacity);
+        AtomicIntegerArray newVisits = new AtomicIntegerArray(capacity);
+        AtomicLongArray newValues = new AtomicLongArray(capacity);
+        for (int i = 0; i < states.length(); i++) {
+            newStates.set(i, states.get(i));
+            newVisits.set(i, visits.get(i));
+            newValues.set(i, values.get(i));
+        }
+        states = newStates;
+        visits = newVisits;
+        values = newValues;
+    }
+
+    boolean isExpanded(int node) {
+        return states.get(node) == EXPANDED;
+    }
+
+    int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    int childCount(int node) {
+        return childCounts[node];
+    }
+
+    long draw(int node) {
+        return draws[node];
+    }
+
+    /**
+     * @return the color of the player who made the draw leading to the node
+     */
+    int mover(int node) {
+        return movers[node];
+    }
+
+    float prior(int node) {
+        return priors[node];
+    }
+
+    int visits(int node) {
+        return visits.get(node);
+    }
+
+    /**
+     * @return the sum of the rewards of the mover of the node
+     */
+    double value(int node) {
+        return Double.longBitsToDouble(values.get(node));
+    }
+
+    /**
+     * Counts a visit of the node, before the reward of the visit is known.
+     */
+    void visit(int node) {
+        visits.incrementAndGet(node);
+    }
+
+    void addReward(int node, double reward) {
+        long bits;
+        do {
+            bits = values.get(node);
+        } while (!values.compareAndSet(node, bits, Double.doubleToLongBits(Double.longBitsToDouble(bits) + reward)));
+    }
+}
@@ -0,0 +1,162 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Linear regression learned online with recursive least squares. Every sample updates the weights and the inverse
+ * covariance in {@code O(d²)}, so the model equals the least squares fit of all samples seen, without keeping them.
+ * Older samples are discounted by the forgetting factor; {@code 1} weights all samples equally.
+ * <p>
+ * The model is persisted as its dimension, the number of samples, the weights and the inverse covariance.
+ */
+final class OnlineRegression {
+    private static final int MAGIC = 0x46524c52;
+    private static final double INITIAL_COVARIANCE = 1000;
+    private static final int PARALLEL_ROWS = 512;
+
+    private final int dimension;
+    private final double forgettingFactor;
+    // the last weight is the intercept
+    private final double[] weights;
+    private final double[] covariance;
+    private final double[] gain;
+    private long samples;
+
+    OnlineRegression(int dimension, double forgettingFactor) {
+        if (dimension < 1 || forgettingFactor <= 0 || forgettingFactor > 1) {
+            throw new IllegalArgumentException("Dimension must be positive and the forgetting factor in (0, 1]");
+        }
+        this.dimension = dimension;
+        this.forgettingFactor = forgettingFactor;
+        weights = new double[dimension + 1];
+        covariance = new double[weights.length * weights.length];
+        gain = new double[weights.length];
+        resetCovariance();
+    }
+
+    private void resetCovariance() {
+        Arrays.fill(covariance, 0);
+        for (int i = 0; i < weights.length; i++) {
+            covariance[i * weights.length + i] = INITIAL_COVARIANCE;
+        }
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    synchronized long samples() {
+        return samples;
+    }
+
+    synchronized double predict(double[] features) {
+        double prediction = weights[dimension];
+        for (int i = 0; i < dimension; i++) {
+            prediction += weights[i] * features[i];
+        }
+        return prediction;
+    }
+
+    /**
+     * Predicts the first {@code rows} rows of a row-major matrix with {@link #dimension()} columns in one
+     * matrix-vector product, which is split across the common pool for large matrices.
+     */
+    void predict(double[] matrix, int rows, double[] predictions) {
+        double[] w;
+        synchronized (this) {
+            w = weights.clone();
+        }
+        IntStream range = IntStream.range(0, rows);
+        (rows >= PARALLEL_ROWS ? range.parallel() : range).forEach(row -> {
+            int offset = row * dimension;
+            double prediction = w[dimension];
+            for (int i = 0; i < dimension; i++) {
+                prediction += w[i] * matrix[offset + i];
+            }
+            predictions[row] = prediction;
+        });
+    }
+
+    synchronized void update(double[] features, double label) {
+        int n = weights.length;
+        // gain = P x / (lambda + x' P x), with x extended by the constant 1 of the intercept
+        double denominator = forgettingFactor;
+        for (int i = 0; i < n; i++) {
+            double sum = covariance[i * n + dimension];
+            for (int j = 0; j < dimension; j++) {
+                sum += covariance[i * n + j] * features[j];
+            }
+            gain[i] = sum;
+            denominator += sum * (i < dimension ? features[i] : 1);
+        }
+        double error = label - predict(features);
+        for (int i = 0; i < n; i++) {
+            gain[i] /= denominator;
+            weights[i] += gain[i] * error;
+        }
+        // P = (P - gain x' P) / lambda; x' P is gain * denominator, as P is symmetric
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                covariance[i * n + j] = (covariance[i * n + j] - gain[i] * gain[j] * denominator) / forgettingFactor;
+            }
+        }
+        samples++;
+    }
+
+    /**
+     * Replaces the weights, e.g. by the result of a bulk fit, and restarts the online learning from there.
+     */
+    synchronized void setWeights(double[] coefficients, double intercept) {
+        if (coefficients.length != dimension) {
+            throw new IllegalArgumentException("Expected " + dimension + " coefficients, got " + coefficients.length);
+        }
+        System.arraycopy(coefficients, 0, weights, 0, dimension);
+        weights[dimension] = intercept;
+        resetCovariance();
+    }
+
+    /**
+     * Writes the model to a temporary file, which then atomically replaces the file.
+     */
+    synchronized void writeTo(Path file) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * 2 + Long.BYTES + Double.BYTES * (weights.length + covariance.length));
+        buffer.putInt(MAGIC).putInt(dimension).putLong(samples);
+        buffer.asDoubleBuffer().put(weights).put(covariance);
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static OnlineRegression read(Path file, double forgettingFactor) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer.remaining() < Integer.BYTES * 2 + Long.BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a regression model: " + file);
+        }
+        OnlineRegression model = new OnlineRegression(buffer.getInt(), forgettingFactor);
+        model.samples = buffer.getLong();
+        if (buffer.remaining() != Double.BYTES * (model.weights.length + model.covariance.length)) {
+            throw new IllegalStateException("Truncated regression model: " + file);
+        }
+        buffer.asDoubleBuffer().get(model.weights).get(model.covariance);
+        return model;
+    }
+}
@@ -0,0 +1,155 @@
+package de.neebs.franchise.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Encodes a {@link Draw} into a single {@code long}, so the search engines can generate and apply draws without
+ * allocating objects. {@link Draw} instances are only materialized at the API boundary.
+ * <p>
+ * Layout: bits 0-44 hold the set of increased cities (by ordinal), bits 45-50 and 51-56 the extended cities, bits
+ * 57-62 the city increased twice (each city plus one, zero means none) and bit 63 the money bonus tile. A second
+ * extension implies the extension bonus tile and a city increased twice the increase bonus tile, so the empty draw is
+ * {@code 0}.
+ */
+final class PackedDraw {
+    static final long EMPTY = 0L;
+
+    private static final int CITY_BITS = 6;
+    private static final long CITY_MASK = 0x3FL;
+    private static final long INCREASE_MASK = (1L << GameState.CITIES.length) - 1;
+    private static final int EXTENSION_1_SHIFT = 45;
+    private static final int EXTENSION_2_SHIFT = EXTENSION_1_SHIFT + CITY_BITS;
+    private static final int DOUBLE_SHIFT = EXTENSION_2_SHIFT + CITY_BITS;
+    private static final long MONEY = 1L << 63;
+
+    private PackedDraw() {}
+
+    static long extension(long draw, int city) {
+        if (extension1(draw) == GameState.NONE) {
+            return draw | (city + 1L) << EXTENSION_1_SHIFT;
+        } else {
+            return draw | (city + 1L) << EXTENSION_2_SHIFT;
+        }
+    }
+
+    static long increase(long draw, int city) {
+        return draw | 1L << city;
+    }
+
+    static long increaseTwice(long draw, int city) {
+        return draw | 1L << city | (city + 1L) << DOUBLE_SHIFT;
+    }
+
+    static long money(long draw) {
+        return draw | MONEY;
+    }
+
+    static int extension1(long draw) {
+        return (int) ((draw >>> EXTENSION_1_SHIFT) & CITY_MASK) - 1;
+    }
+
+    static int extension2(long draw) {
+        return (int) ((draw >>> EXTENSION_2_SHIFT) & CITY_MASK) - 1;
+    }
+
+    static int extensionCount(long draw) {
+        return (extension1(draw) == GameState.NONE ? 0 : 1) + (extension2(draw) == GameState.NONE ? 0 : 1);
+    }
+
+    static long increases(long draw) {
+        return draw & INCREASE_MASK;
+    }
+
+    static int doubledCity(long draw) {
+        return (int) ((draw >>> DOUBLE_SHIFT) & CITY_MASK) - 1;
+    }
+
+    static int increaseCount(long draw) {
+        return Long.bitCount(increases(draw)) + (doubledCity(draw) == GameState.NONE ? 0 : 1);
+    }
+
+    static boolean isMoney(long draw) {
+        return (draw & MONEY) != 0;
+    }
+
+    static BonusTileUsage bonusTileUsage(long draw) {
+        if (isMoney(draw)) {
+            return BonusTileUsage.MONEY;
+        } else if (extension2(draw) != GameState.NONE) {
+            return BonusTileUsage.EXTENSION;
+        } else if (doubledCity(draw) != GameState.NONE) {
+            return BonusTileUsage.INCREASE;
+        } else {
+            return null;
+        }
+    }
+
+    static int bonusTileCount(long draw) {
+        return (isMoney(draw) ? 1 : 0)
+                + (extension2(draw) == GameState.NONE ? 0 : 1)
+                + (doubledCity(draw) == GameState.NONE ? 0 : 1);
+    }
+
+    static Draw toDraw(long draw) {
+        final Set<City> extension;
+        if (extension2(draw) != GameState.NONE) {
+            extension = Set.of(GameState.CITIES[extension1(draw)], GameState.CITIES[extension2(draw)]);
+        } else if (extension1(draw) != GameState.NONE) {
+            extension = Set.of(GameState.CITIES[extension1(draw)]);
+        } else {
+            extension = Set.of();
+        }
+        List<City> increase = new ArrayList<>(increaseCount(draw));
+        for (long cities = increases(draw); cities != 0; cities &= cities - 1) {
+            int city = Long.numberOfTrailingZeros(cities);
+            increase.add(GameState.CITIES[city]);
+            if (city == doubledCity(draw)) {
+                increase.add(GameState.CITIES[city]);
+            }
+        }
+        return Draw.builder()
+                .extension(extension)
+                .increase(increase)
+                .bonusTileUsage(bonusTileUsage(draw))
+                .build();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the draw cannot be encoded, e.g. it expands to more than two cities
+     */
+    static long of(Draw draw) {
+        long packed = EMPTY;
+        if (draw.getExtension() != null) {
+            if (draw.getExtension().size() > 2) {
+                throw new IllegalArgumentException("Cannot encode " + draw);
+            }
+            for (City city : draw.getExtension().stream().sorted().toList()) {
+                packed = extension(packed, city.ordinal());
+            }
+        }
+        if (draw.getIncrease() != null) {
+            Map<City, Long> counts = draw.getIncrease().stream().collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+            for (Map.Entry<City, Long> entry : counts.entrySet()) {
+                if (entry.getValue() == 1) {
+                    packed = increase(packed, entry.getKey().ordinal());
+                } else if (entry.getValue() == 2 && doubledCity(packed) == GameState.NONE) {
+                    packed = increaseTwice(packed, entry.getKey().ordinal());
+                } else {
+                    throw new IllegalArgumentException("Cannot encode " + draw);
+                }
+            }
+        }
+        if (draw.getBonusTileUsage() == BonusTileUsage.MONEY) {
+            packed = money(packed);
+        }
+        if (bonusTileUsage(packed) != draw.getBonusTileUsage()) {
+            throw new IllegalArgumentException("Cannot encode " + draw);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,126 @@
+package de.neebs.franchise.control;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * State abstraction of the Q-learning. The state seen by the next player is reduced to a feature vector: the own and
+ * the opponent branches per city followed by money, influence and bonus tiles (see {@link #features(GameState, float[])}).
+ * <p>
+ * The features are bucketed and packed as a mixed-radix number into two longs: branches are capped at
+ * {@code branchCap} per city and player, a town only records who occupies it, money and influence fall into buckets of
+ * {@code step} points each up to a maximum number of buckets. Near-identical states therefore share a key. The two
+ * longs are folded into the 64-bit key of the {@link QTableStore}; if all features fit into the first long, the key is
+ * the code itself.
+ */
+@Component
+public class QStateEncoder {
+    static final int DIMENSION = 2 * GameState.CITIES.length + 3;
+
+    private static final int MAX_BONUS_TILES = 4;
+
+    private final int branchCap;
+    private final int moneyStep;
+    private final int moneyBuckets;
+    private final int influenceStep;
+    private final int influenceBuckets;
+
+    // one field per city, then money, influence and bonus tiles
+    private final long[] radices = new long[GameState.CITIES.length + 3];
+    private final long[] multipliers = new long[radices.length];
+    private final boolean[] inHighWord = new boolean[radices.length];
+    private final boolean folded;
+
+    public QStateEncoder(@Value("${franchise.q-learning.branch-cap:2}") int branchCap,
+                         @Value("${franchise.q-learning.money-step:5}") int moneyStep,
+                         @Value("${franchise.q-learning.money-buckets:16}") int moneyBuckets,
+                         @Value("${franchise.q-learning.influence-step:5}") int influenceStep,
+                         @Value("${franchise.q-learning.influence-buckets:16}") int influenceBuckets) {
+        if (branchCap < 1 || moneyStep < 1 || moneyBuckets < 1 || influenceStep < 1 || influenceBuckets < 1) {
+            throw new IllegalArgumentException("Caps, steps and buckets must be positive");
+        }
+        this.branchCap = branchCap;
+        this.moneyStep = moneyStep;
+        this.moneyBuckets = moneyBuckets;
+        this.influenceStep = influenceStep;
+        this.influenceBuckets = influenceBuckets;
+        for (City city : GameState.CITIES) {
+            long values = Math.min(branchCap, city.getSize()) + 1L;
+            // a town is empty, own or the opponents'
+            radices[city.ordinal()] = city.getSize() == 1 ? 3 : values * values;
+        }
+        radices[GameState.CITIES.length] = moneyBuckets;
+        radices[GameState.CITIES.length + 1] = influenceBuckets;
+        radices[GameState.CITIES.length + 2] = MAX_BONUS_TILES + 1;
+
+        long multiplier = 1;
+        boolean second = false;
+        for (int i = 0; i < radices.length; i++) {
+            if (multiplier > Long.MAX_VALUE / radices[i]) {
+                if (second) {
+                    throw new IllegalArgumentException("The state does not fit into two longs, reduce the buckets");
+                }
+                second = true;
+                multiplier = 1;
+            }
+            multipliers[i] = multiplier;
+            inHighWord[i] = second;
+            multiplier *= radices[i];
+        }
+        folded = second;
+    }
+
+    /**
+     * Writes the features of the state seen by the next player into the array of {@link #DIMENSION} values.
+     */
+    void features(GameState state, float[] features) {
+        int cities = GameState.CITIES.length;
+        int next = state.next();
+        for (int city = 0; city < cities; city++) {
+            int own = state.countBranches(city, next);
+            features[city] = own;
+            features[cities + city] = state.branchCount(city) - own;
+        }
+        features[2 * cities] = state.money(next);
+        features[2 * cities + 1] = state.influence(next);
+        features[2 * cities + 2] = state.bonusTiles(next);
+    }
+
+    /**
+     * @return the 64-bit key of the bucketed features
+     */
+    long key(float[] features) {
+        int cities = GameState.CITIES.length;
+        long low = 0;
+        long high = 0;
+        for (int i = 0; i < radices.length; i++) {
+            long value;
+            if (i < cities) {
+                int own = (int) features[i];
+                int opponents = (int) features[cities + i];
+                if (GameState.CITIES[i].getSize() == 1) {
+                    value = own > 0 ? 1 : opponents > 0 ? 2 : 0;
+                } else {
+                    int values = Math.min(branchCap, GameState.CITIES[i].getSize()) + 1;
+                    value = (long) Math.min(own, values - 1) * values + Math.min(opponents, values - 1);
+                }
+            } else if (i == cities) {
+                value = bucket(features[2 * cities], moneyStep, moneyBuckets);
+            } else if (i == cities + 1) {
+                value = bucket(features[2 * cities + 1], influenceStep, influenceBuckets);
+            } else {
+                value = bucket(features[2 * cities + 2], 1, MAX_BONUS_TILES + 1);
+            }
+            if (inHighWord[i]) {
+                high += value * multipliers[i];
+            } else {
+                low += value * multipliers[i];
+            }
+        }
+        return folded ? GameState.mix(0, low) ^ GameState.mix(1, high) : low;
+    }
+
+    private static long bucket(float value, int step, int buckets) {
+        return Math.min(buckets - 1, Math.max(0, (int) value) / step);
+    }
+}
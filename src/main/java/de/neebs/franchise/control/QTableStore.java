@@ -0,0 +1,323 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Q-table in a single log-structured file. States are keyed by a 64-bit state key, draws by their {@link PackedDraw}
+ * encoding. The q-values of a state are written as one record
+ * {@code [length][state][count][count x (draw, value)][crc]}; a later record of a state replaces the earlier ones, and
+ * an index from state to its latest record is kept in memory.
+ * <p>
+ * Updates go to a write-back cache of the most recently used states. Dirty states are appended to the log when they
+ * are evicted and on every checkpoint, which happens after {@code checkpointInterval} updates and when the store is
+ * closed. On opening, the log is scanned and a torn or corrupt record at its end, left by a crash, is cut off. Once
+ * the log is more than twice as large as its live records, a checkpoint compacts it: the live records are copied to a
+ * temporary file, which atomically replaces the log, so a crash leaves either the old or the new log.
+ */
+final class QTableStore implements AutoCloseable {
+    private static final int HEADER_BYTES = Integer.BYTES;
+    private static final int MIN_COMPACTION_BYTES = 1 << 20;
+
+    private final Path file;
+    private final int checkpointInterval;
+    private final Map<Long, Location> index = new HashMap<>();
+    private final Cache cache;
+
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+    private int updates;
+
+    /**
+     * @param cacheSize          maximum number of states in the write-back cache
+     * @param checkpointInterval number of updates after which the dirty states are written
+     */
+    QTableStore(Path file, int cacheSize, int checkpointInterval) {
+        if (cacheSize < 1 || checkpointInterval < 1) {
+            throw new IllegalArgumentException("Cache size and checkpoint interval must be positive");
+        }
+        this.file = file;
+        this.checkpointInterval = checkpointInterval;
+        cache = new Cache(cacheSize);
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.deleteIfExists(temporaryFile());
+            channel = open(file);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path temporaryFile() {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length < Long.BYTES + Integer.BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer record = read(position, length);
+            if (record == null) {
+                break;
+            }
+            addToIndex(record.getLong(HEADER_BYTES), position, HEADER_BYTES + length);
+            position += HEADER_BYTES + length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        end = position;
+    }
+
+    /**
+     * @return the record at the position or {@code null} if its checksum does not match
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) < 0) {
+                return null;
+            }
+        }
+        int payload = length - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_BYTES, payload);
+        return (int) crc.getValue() == record.getInt(HEADER_BYTES + payload) ? record : null;
+    }
+
+    private void addToIndex(long state, long offset, int length) {
+        Location old = index.put(state, new Location(offset, length));
+        liveBytes += length - (old == null ? 0 : old.length());
+    }
+
+    /**
+     * @return the q-value of the draw in the state or {@code missing} if it was never stored
+     */
+    synchronized double get(long state, long draw, double missing) {
+        StateValues values = load(state);
+        int i = values.indexOf(draw);
+        return i < 0 ? missing : values.values[i];
+    }
+
+    /**
+     * @return the maximum q-value stored for the state or {@code 0}, if there is none
+     */
+    synchronized double max(long state) {
+        StateValues values = load(state);
+        double max = values.size == 0 ? 0 : -Double.MAX_VALUE;
+        for (int i = 0; i < values.size; i++) {
+            max = Math.max(max, values.values[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of draws stored for the state
+     */
+    synchronized int size(long state) {
+        return load(state).size;
+    }
+
+    synchronized void put(long state, long draw, double value) {
+        load(state).put(draw, value);
+        if (++updates >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    private StateValues load(long state) {
+        StateValues values = cache.get(state);
+        if (values == null) {
+            values = new StateValues();
+            Location location = index.get(state);
+            if (location != null) {
+                try {
+                    ByteBuffer record = read(location.offset(), location.length() - HEADER_BYTES);
+                    if (record == null) {
+                        throw new IllegalStateException("Corrupt q-table record of state " + state);
+                    }
+                    values.read(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            cache.put(state, values);
+        }
+        return values;
+    }
+
+    private void write(long state, StateValues values) {
+        int length = Long.BYTES + Integer.BYTES + values.size * (Long.BYTES + Double.BYTES) + Integer.BYTES;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+        record.putInt(length).putLong(state).putInt(values.size);
+        for (int i = 0; i < values.size; i++) {
+            record.putLong(values.draws[i]).putDouble(values.values[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_BYTES, length - Integer.BYTES);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                end += channel.write(record, end);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        addToIndex(state, end - record.limit(), record.limit());
+        values.dirty = false;
+    }
+
+    /**
+     * Writes all dirty states, forces the log to disk and compacts it, if it has grown too large.
+     */
+    synchronized void checkpoint() {
+        updates = 0;
+        cache.forEach((state, values) -> {
+            if (values.dirty) {
+                write(state, values);
+            }
+        });
+        try {
+            channel.force(false);
+            if (end > MIN_COMPACTION_BYTES && end > 2 * liveBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compact() throws IOException {
+        Path temporary = temporaryFile();
+        Map<Long, Location> compacted = new HashMap<>();
+        long position = 0;
+        try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (Map.Entry<Long, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                for (long copied = 0; copied < location.length(); ) {
+                    copied += channel.transferTo(location.offset() + copied, location.length() - copied, target);
+                }
+                compacted.put(entry.getKey(), new Location(position, location.length()));
+                position += location.length();
+            }
+            target.force(true);
+        }
+        channel.close();
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = open(file);
+        index.clear();
+        index.putAll(compacted);
+        end = position;
+        liveBytes = position;
+    }
+
+    /**
+     * @return the size of the log in bytes
+     */
+    synchronized long fileSize() {
+        return end;
+    }
+
+    @Override
+    public synchronized void close() {
+        checkpoint();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Location(long offset, int length) {
+    }
+
+    private class Cache extends LinkedHashMap<Long, StateValues> {
+        private final int maxStates;
+
+        Cache(int maxStates) {
+            super(16, 0.75f, true);
+            this.maxStates = maxStates;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, StateValues> eldest) {
+            if (size() <= maxStates) {
+                return false;
+            }
+            if (eldest.getValue().dirty) {
+                write(eldest.getKey(), eldest.getValue());
+            }
+            return true;
+        }
+    }
+
+    private static class StateValues {
+        private long[] draws = new long[4];
+        private double[] values = new double[4];
+        private int size;
+        private boolean dirty;
+
+        int indexOf(long draw) {
+            for (int i = 0; i < size; i++) {
+                if (draws[i] == draw) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void put(long draw, double value) {
+            int i = indexOf(draw);
+            if (i < 0) {
+                if (size == draws.length) {
+                    draws = Arrays.copyOf(draws, 2 * size);
+                    values = Arrays.copyOf(values, 2 * size);
+                }
+                i = size++;
+                draws[i] = draw;
+            }
+            values[i] = value;
+            dirty = true;
+        }
+
+        void read(ByteBuffer record) {
+            int count = record.getInt(HEADER_BYTES + Long.BYTES);
+            draws = new long[Math.max(4, count)];
+            values = new double[draws.length];
+            int position = HEADER_BYTES + Long.BYTES + Integer.BYTES;
+            for (int i = 0; i < count; i++) {
+                draws[i] = record.getLong(position);
+                values[i] = record.getDouble(position + Long.BYTES);
+                position += Long.BYTES + Double.BYTES;
+            }
+            size = count;
+        }
+    }
+}
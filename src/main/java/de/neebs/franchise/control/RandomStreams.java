@@ -0,0 +1,52 @@
+package de.neebs.franchise.control;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Random numbers for the services. Every thread gets a stream of its own, split from a common root generator the first
+ * time it asks for one, so drawing numbers never contends for a lock. The root can be seeded with the system property
+ * {@code franchise.random.seed} or with {@link #reseed(long)}; the streams are then reproducible as long as the
+ * threads ask for them in the same order, for example in a single-threaded run.
+ */
+final class RandomStreams {
+    private static final ThreadLocal<Stream> STREAMS = new ThreadLocal<>();
+
+    private static SplittableRandom root = createRoot();
+    private static volatile int generation;
+
+    private RandomStreams() {
+    }
+
+    private static SplittableRandom createRoot() {
+        Long seed = Long.getLong("franchise.random.seed");
+        return seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+    }
+
+    /**
+     * @return the stream of the calling thread
+     */
+    static RandomGenerator current() {
+        Stream stream = STREAMS.get();
+        if (stream == null || stream.generation() != generation) {
+            stream = split();
+            STREAMS.set(stream);
+        }
+        return stream.random();
+    }
+
+    private static synchronized Stream split() {
+        return new Stream(generation, root.split());
+    }
+
+    /**
+     * Seeds the root generator again; every thread gets a new stream on its next call of {@link #current()}.
+     */
+    static synchronized void reseed(long seed) {
+        root = new SplittableRandom(seed);
+        generation++;
+    }
+
+    private record Stream(int generation, SplittableRandom random) {
+    }
+}
@@ -0,0 +1,216 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.random.RandomGenerator;
+
+/**
+ * Ring buffer of transitions (state, action, reward, next state, done) for experience replay. States are float vectors
+ * of a fixed dimension, actions are packed draws (see {@link PackedDraw}). Once the buffer is full, the oldest
+ * transitions are overwritten.
+ * <p>
+ * The transitions are stored in fixed-size records of one {@link ByteBuffer}, either on the heap or memory-mapped from a
+ * scratch file, so a large buffer does not need to fit into the heap. The priorities for prioritized sampling are kept
+ * in a sum tree on the heap: a transition is drawn with a probability proportional to its priority raised to
+ * {@link #PRIORITY_EXPONENT}. The bias of this sampling is corrected by the {@link #weights(int[], double) importance
+ * sampling weights} of the drawn transitions.
+ */
+final class ReplayBuffer {
+    static final double PRIORITY_EXPONENT = 0.6;
+
+    private static final double MIN_PRIORITY = 1e-6;
+
+    private final int capacity;
+    private final int stateDimension;
+    private final int recordBytes;
+    private final ByteBuffer records;
+    private final double[] priorities;
+    private final int leaves;
+
+    private int size;
+    private int next;
+
+    /**
+     * Creates a buffer on the heap.
+     */
+    ReplayBuffer(int capacity, int stateDimension) {
+        this(capacity, stateDimension, null);
+    }
+
+    /**
+     * @param file scratch file the transitions are memory-mapped to or {@code null} to keep them on the heap; an
+     *             existing file is overwritten
+     */
+    ReplayBuffer(int capacity, int stateDimension, Path file) {
+        if (capacity < 1 || stateDimension < 1) {
+            throw new IllegalArgumentException("Capacity and state dimension must be positive");
+        }
+        this.capacity = capacity;
+        this.stateDimension = stateDimension;
+        recordBytes = 2 * Float.BYTES * stateDimension + Long.BYTES + Float.BYTES + Integer.BYTES;
+        long bytes = (long) capacity * recordBytes;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Replay buffer too large: " + bytes + " bytes");
+        }
+        records = file == null ? ByteBuffer.allocate((int) bytes) : map(file, bytes);
+        leaves = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        priorities = new double[2 * leaves];
+    }
+
+    private static ByteBuffer map(Path file, long bytes) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int stateDimension() {
+        return stateDimension;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stores a transition, overwriting the oldest one if the buffer is full.
+     *
+     * @param priority the priority for prioritized sampling, usually the magnitude of the error of the transition
+     * @return the index of the transition
+     */
+    synchronized int add(float[] state, long action, float reward, float[] nextState, boolean done, double priority) {
+        if (state.length != stateDimension || nextState.length != stateDimension) {
+            throw new IllegalArgumentException("States must have " + stateDimension + " dimensions");
+        }
+        int index = next;
+        int position = index * recordBytes;
+        for (float value : state) {
+            records.putFloat(position, value);
+            position += Float.BYTES;
+        }
+        for (float value : nextState) {
+            records.putFloat(position, value);
+            position += Float.BYTES;
+        }
+        records.putLong(position, action);
+        records.putFloat(position + Long.BYTES, reward);
+        records.putInt(position + Long.BYTES + Float.BYTES, done ? 1 : 0);
+        updatePriority(index, priority);
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+        return index;
+    }
+
+    synchronized void updatePriority(int index, double priority) {
+        int node = leaves + index;
+        double delta = Math.pow(Math.max(MIN_PRIORITY, Math.abs(priority)), PRIORITY_EXPONENT) - priorities[node];
+        for (; node > 0; node >>= 1) {
+            priorities[node] += delta;
+        }
+    }
+
+    /**
+     * @return the indexes of {@code count} transitions drawn with replacement, uniformly or by priority
+     */
+    int[] sample(int count, boolean prioritized, RandomGenerator random) {
+        return prioritized ? samplePrioritized(count, random) : sampleUniform(count, random);
+    }
+
+    /**
+     * @return the indexes of {@code count} transitions drawn uniformly with replacement
+     */
+    synchronized int[] sampleUniform(int count, RandomGenerator random) {
+        checkNotEmpty();
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = random.nextInt(size);
+        }
+        return indexes;
+    }
+
+    /**
+     * @return the indexes of {@code count} transitions drawn with replacement, proportionally to their priorities
+     */
+    synchronized int[] samplePrioritized(int count, RandomGenerator random) {
+        checkNotEmpty();
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            double target = random.nextDouble() * priorities[1];
+            int node = 1;
+            while (node < leaves) {
+                node <<= 1;
+                if (target >= priorities[node] && priorities[node + 1] > 0) {
+                    target -= priorities[node];
+                    node++;
+                }
+            }
+            indexes[i] = Math.min(node - leaves, size - 1);
+        }
+        return indexes;
+    }
+
+    /**
+     * The importance sampling weights {@code (N * P(i))^-exponent} of drawn transitions, divided by the largest of them,
+     * so the weights only scale losses down.
+     *
+     * @param exponent from 0 for no correction up to 1 for a full correction of the prioritized sampling
+     */
+    synchronized double[] weights(int[] indexes, double exponent) {
+        checkNotEmpty();
+        double[] weights = new double[indexes.length];
+        double max = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            double probability = priorities[leaves + indexes[i]] / priorities[1];
+            weights[i] = Math.pow(size * probability, -exponent);
+            max = Math.max(max, weights[i]);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= max;
+        }
+        return weights;
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) {
+            throw new IllegalStateException("Replay buffer is empty");
+        }
+    }
+
+    synchronized float[] state(int index) {
+        return readState(index * recordBytes);
+    }
+
+    synchronized float[] nextState(int index) {
+        return readState(index * recordBytes + Float.BYTES * stateDimension);
+    }
+
+    private float[] readState(int position) {
+        float[] state = new float[stateDimension];
+        for (int i = 0; i < stateDimension; i++) {
+            state[i] = records.getFloat(position + i * Float.BYTES);
+        }
+        return state;
+    }
+
+    synchronized long action(int index) {
+        return records.getLong(index * recordBytes + 2 * Float.BYTES * stateDimension);
+    }
+
+    synchronized float reward(int index) {
+        return records.getFloat(index * recordBytes + 2 * Float.BYTES * stateDimension + Long.BYTES);
+    }
+
+    synchronized boolean isDone(int index) {
+        return records.getInt(index * recordBytes + 2 * Float.BYTES * stateDimension + Long.BYTES + Float.BYTES) != 0;
+    }
+}
@@ -113,6 +113,39 @@ class Rules {
             new Connection(Set.of(City.OGALLALA, City.SIOUX_FALLS), 1)
     );
 
+    /**
+     * Marker for "no connection" in {@link #extensionCosts(int, long)}.
+     */
+    static final int NO_CONNECTION = -1;
+
+    // precomputed lookup tables, indexed by city ordinal; neighbours are sorted by ascending costs
+    private static final int[][] NEIGHBOURS = new int[City.values().length][];
+    private static final int[][] NEIGHBOUR_COSTS = new int[City.values().length][];
+    private static final Region[] REGIONS = new Region[City.values().length];
+    private static final long TOWNS;
+
+    static {
+        for (City city : City.values()) {
+            List<Connection> connections = CONNECTIONS.stream()
+                    .filter(f -> f.getCities().contains(city))
+                    .sorted(Comparator.comparingInt(Connection::getCosts)
+                            .thenComparing(f -> f.getCities().stream().filter(g -> g != city).findAny().orElseThrow()))
+                    .toList();
+            NEIGHBOURS[city.ordinal()] = connections.stream()
+                    .mapToInt(f -> f.getCities().stream().filter(g -> g != city).findAny().orElseThrow().ordinal())
+                    .toArray();
+            NEIGHBOUR_COSTS[city.ordinal()] = connections.stream().mapToInt(Connection::getCosts).toArray();
+            REGIONS[city.ordinal()] = Arrays.stream(Region.values()).filter(f -> f.getCities().contains(city)).findAny().orElseThrow();
+        }
+        long towns = 0;
+        for (City city : City.values()) {
+            if (city.getSize() == 1) {
+                towns |= 1L << city.ordinal();
+            }
+        }
+        TOWNS = towns;
+    }
+
     private static final Map<Integer, MoneyMap> MONEY_MAP = Map.of(
             2, new MoneyMap(7)
                     .addEarn(0, 3, 1)
@@ -168,6 +201,50 @@ class Rules {
         return MONEY_MAP.get(playerCount).getMoneyByScore(freeBranches);
     }
 
+    static int neighbourCount(int city) {
+        return NEIGHBOURS[city].length;
+    }
+
+    /**
+     * @return the i-th neighbour of the city, neighbours are sorted by ascending connection costs
+     */
+    static int neighbour(int city, int i) {
+        return NEIGHBOURS[city][i];
+    }
+
+    static int neighbourCosts(int city, int i) {
+        return NEIGHBOUR_COSTS[city][i];
+    }
+
+    /**
+     * @param owned bitmask of the cities (by ordinal) the player has a branch in
+     * @return the costs of the cheapest connection from an owned city to the city or {@link #NO_CONNECTION}
+     */
+    static int extensionCosts(int city, long owned) {
+        int[] neighbours = NEIGHBOURS[city];
+        for (int i = 0; i < neighbours.length; i++) {
+            if ((owned & 1L << neighbours[i]) != 0) {
+                return NEIGHBOUR_COSTS[city][i];
+            }
+        }
+        return NO_CONNECTION;
+    }
+
+    static Region regionOf(City city) {
+        return REGIONS[city.ordinal()];
+    }
+
+    /**
+     * @return bitmask of all towns (cities of size one) by ordinal
+     */
+    static long towns() {
+        return TOWNS;
+    }
+
+    static boolean isTown(int city) {
+        return (TOWNS & 1L << city) != 0;
+    }
+
     private static class MoneyMap {
         private final Map<Integer, Integer> earn = new HashMap<>();
         private final List<Integer> initial = new ArrayList<>();
@@ -0,0 +1,11 @@
+package de.neebs.franchise.control;
+
+/**
+ * Aborts a search whose {@link Deadline} has passed. It is thrown from deep inside the search, so it does not fill in
+ * a stack trace.
+ */
+class SearchTimeoutException extends RuntimeException {
+    SearchTimeoutException() {
+        super("Time budget of the search exceeded", null, false, false);
+    }
+}
@@ -0,0 +1,331 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Versioned binary format of {@link GameRound}s, {@link Draw}s and whole games, used by {@link TrajectoryWriter} and
+ * {@link TrajectoryReader}. A round is stored as the packed words of its {@link GameState}, so plates, players and
+ * regions are already bit-packed with enum ordinals; every word is written as an unsigned varint. Within a game, a
+ * round only stores the words that changed since the previous round: a bit mask of the changed words followed by the
+ * zigzag varint of the difference of each.
+ * <p>
+ * A draw is a flag byte (present, money, first and second extension, city increased twice), the ordinals of the
+ * flagged cities and the ordinals of the increased cities behind their count.
+ * <p>
+ * Every encoding starts with {@link #MAGIC} and {@link #VERSION}, followed by the number of words per state.
+ */
+public final class TrajectoryCodec {
+    static final byte[] MAGIC = {'F', 'R', 'T'};
+    static final int VERSION = 1;
+
+    private static final int PRESENT = 1;
+    private static final int MONEY = 2;
+    private static final int EXTENSION_1 = 4;
+    private static final int EXTENSION_2 = 8;
+    private static final int DOUBLED = 16;
+
+    private TrajectoryCodec() {
+    }
+
+    public static byte[] encode(GameRound round) {
+        Output out = new Output(null);
+        writeHeader(out);
+        writeState(out, GameState.of(round).words(), null);
+        return out.toByteArray();
+    }
+
+    public static GameRound decodeRound(byte[] bytes) {
+        Input in = new Input(bytes);
+        readHeader(in);
+        return GameState.of(readState(in, null)).toGameRound();
+    }
+
+    public static byte[] encode(Draw draw) {
+        Output out = new Output(null);
+        writeHeader(out);
+        writeDraw(out, draw == null ? null : PackedDraw.of(draw));
+        return out.toByteArray();
+    }
+
+    public static Draw decodeDraw(byte[] bytes) {
+        Input in = new Input(bytes);
+        readHeader(in);
+        return toDraw(readDraw(in));
+    }
+
+    public static byte[] encode(GameRoundDraw roundDraw) {
+        Output out = new Output(null);
+        writeHeader(out);
+        writeState(out, GameState.of(roundDraw.getGameRound()).words(), null);
+        writeDraw(out, roundDraw.getDraw() == null ? null : PackedDraw.of(roundDraw.getDraw()));
+        return out.toByteArray();
+    }
+
+    public static GameRoundDraw decodeRoundDraw(byte[] bytes) {
+        Input in = new Input(bytes);
+        readHeader(in);
+        GameRound round = GameState.of(readState(in, null)).toGameRound();
+        return GameRoundDraw.builder().gameRound(round).draw(toDraw(readDraw(in))).build();
+    }
+
+    private static Draw toDraw(Long draw) {
+        return draw == null ? null : PackedDraw.toDraw(draw);
+    }
+
+    static void writeHeader(Output out) {
+        for (byte b : MAGIC) {
+            out.writeByte(b);
+        }
+        out.writeVarLong(VERSION);
+        out.writeVarLong(GameState.WORDS);
+    }
+
+    static void readHeader(Input in) {
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IllegalArgumentException("Not a trajectory encoding");
+            }
+        }
+        long version = in.readVarLong();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported trajectory format version " + version);
+        }
+        long words = in.readVarLong();
+        if (words != GameState.WORDS) {
+            throw new IllegalArgumentException("Expected " + GameState.WORDS + " words per state, got " + words);
+        }
+    }
+
+    /**
+     * @param previous the words of the previous round of the game or {@code null} to write all words
+     */
+    static void writeState(Output out, long[] words, long[] previous) {
+        if (previous == null) {
+            for (long word : words) {
+                out.writeVarLong(word);
+            }
+            return;
+        }
+        // GameState.WORDS is below 64, so the changed words fit into one mask
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != previous[i]) {
+                changed |= 1L << i;
+            }
+        }
+        out.writeVarLong(changed);
+        for (long bits = changed; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            long delta = words[i] - previous[i];
+            out.writeVarLong((delta << 1) ^ (delta >> 63));
+        }
+    }
+
+    static long[] readState(Input in, long[] previous) {
+        if (previous == null) {
+            long[] words = new long[GameState.WORDS];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readVarLong();
+            }
+            return words;
+        }
+        long[] words = previous.clone();
+        for (long bits = in.readVarLong(); bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            if (i >= words.length) {
+                throw new IllegalArgumentException("Word " + i + " out of range");
+            }
+            long zigzag = in.readVarLong();
+            words[i] += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        return words;
+    }
+
+    /**
+     * @param draw the packed draw or {@code null} for a round without draw
+     */
+    static void writeDraw(Output out, Long draw) {
+        if (draw == null) {
+            out.writeByte(0);
+            return;
+        }
+        int extension1 = PackedDraw.extension1(draw);
+        int extension2 = PackedDraw.extension2(draw);
+        int doubled = PackedDraw.doubledCity(draw);
+        out.writeByte(PRESENT
+                | (PackedDraw.isMoney(draw) ? MONEY : 0)
+                | (extension1 == GameState.NONE ? 0 : EXTENSION_1)
+                | (extension2 == GameState.NONE ? 0 : EXTENSION_2)
+                | (doubled == GameState.NONE ? 0 : DOUBLED));
+        if (extension1 != GameState.NONE) {
+            out.writeByte(extension1);
+        }
+        if (extension2 != GameState.NONE) {
+            out.writeByte(extension2);
+        }
+        if (doubled != GameState.NONE) {
+            out.writeByte(doubled);
+        }
+        long increases = PackedDraw.increases(draw);
+        out.writeByte(Long.bitCount(increases));
+        for (; increases != 0; increases &= increases - 1) {
+            out.writeByte(Long.numberOfTrailingZeros(increases));
+        }
+    }
+
+    static Long readDraw(Input in) {
+        int flags = in.readByte();
+        if ((flags & PRESENT) == 0) {
+            return null;
+        }
+        long draw = PackedDraw.EMPTY;
+        if ((flags & EXTENSION_1) != 0) {
+            draw = PackedDraw.extension(draw, readCity(in));
+        }
+        if ((flags & EXTENSION_2) != 0) {
+            draw = PackedDraw.extension(draw, readCity(in));
+        }
+        if ((flags & DOUBLED) != 0) {
+            draw = PackedDraw.increaseTwice(draw, readCity(in));
+        }
+        for (int count = in.readByte(); count > 0; count--) {
+            draw = PackedDraw.increase(draw, readCity(in));
+        }
+        if ((flags & MONEY) != 0) {
+            draw = PackedDraw.money(draw);
+        }
+        return draw;
+    }
+
+    private static int readCity(Input in) {
+        int city = in.readByte();
+        if (city >= GameState.CITIES.length) {
+            throw new IllegalArgumentException("Unknown city " + city);
+        }
+        return city;
+    }
+
+    /**
+     * A game in its packed form: the states of all rounds and the draws made in them. Every round but the last has a
+     * draw; the last one has a draw, if {@code draws} is as long as {@code states}.
+     */
+    record Trajectory(GameState[] states, long[] draws) {
+        Trajectory {
+            if (states.length == 0 || draws.length < states.length - 1 || draws.length > states.length) {
+                throw new IllegalArgumentException(states.length + " rounds cannot have " + draws.length + " draws");
+            }
+        }
+    }
+
+    /**
+     * Growing byte buffer, which is drained to a stream, if there is one.
+     */
+    static final class Output {
+        private final OutputStream stream;
+        private byte[] buffer = new byte[1 << 12];
+        private int size;
+
+        Output(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        void writeByte(int b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * size);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        void drain() {
+            try {
+                stream.write(buffer, 0, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Reads bytes from an array, refilled from a stream, if there is one.
+     */
+    static final class Input {
+        private final InputStream stream;
+        private final byte[] buffer;
+        private int position;
+        private int limit;
+
+        Input(byte[] bytes) {
+            stream = null;
+            buffer = bytes;
+            limit = bytes.length;
+        }
+
+        Input(InputStream stream, int bufferSize) {
+            this.stream = stream;
+            buffer = new byte[bufferSize];
+        }
+
+        /**
+         * @return whether there is at least one more byte
+         */
+        boolean hasMore() {
+            if (position < limit) {
+                return true;
+            }
+            if (stream == null) {
+                return false;
+            }
+            try {
+                int read;
+                do {
+                    read = stream.read(buffer, 0, buffer.length);
+                } while (read == 0);
+                position = 0;
+                limit = Math.max(0, read);
+                return read > 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        int readByte() {
+            if (!hasMore()) {
+                throw new IllegalArgumentException("Unexpected end of trajectory data");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
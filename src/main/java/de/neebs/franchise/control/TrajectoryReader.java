@@ -0,0 +1,93 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the games written by a {@link TrajectoryWriter} one after another. {@link #readPacked()} restores only the
+ * packed states and draws, which is much cheaper than materializing {@link GameRound}s with {@link #read()}.
+ */
+public final class TrajectoryReader implements AutoCloseable {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final InputStream stream;
+    private final TrajectoryCodec.Input in;
+
+    public TrajectoryReader(InputStream stream) {
+        this.stream = stream;
+        in = new TrajectoryCodec.Input(stream, BUFFER_BYTES);
+        TrajectoryCodec.readHeader(in);
+    }
+
+    public static TrajectoryReader open(Path file) {
+        try {
+            return new TrajectoryReader(Files.newInputStream(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the next game or {@code null} at the end of the stream
+     */
+    public List<GameRoundDraw> read() {
+        TrajectoryCodec.Trajectory game = readPacked();
+        if (game == null) {
+            return null;
+        }
+        List<GameRoundDraw> rounds = new ArrayList<>(game.states().length);
+        for (int i = 0; i < game.states().length; i++) {
+            rounds.add(GameRoundDraw.builder()
+                    .gameRound(game.states()[i].toGameRound())
+                    .draw(i < game.draws().length ? PackedDraw.toDraw(game.draws()[i]) : null)
+                    .build());
+        }
+        return rounds;
+    }
+
+    /**
+     * @return the next game or {@code null} at the end of the stream
+     */
+    TrajectoryCodec.Trajectory readPacked() {
+        if (!in.hasMore()) {
+            return null;
+        }
+        long count = in.readVarLong();
+        if (count < 1 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of rounds " + count);
+        }
+        GameState[] states = new GameState[(int) count];
+        long[] draws = new long[states.length];
+        int drawCount = 0;
+        long[] words = null;
+        for (int i = 0; i < states.length; i++) {
+            words = TrajectoryCodec.readState(in, words);
+            states[i] = GameState.of(words);
+            Long draw = TrajectoryCodec.readDraw(in);
+            if (draw != null) {
+                if (drawCount < i) {
+                    throw new IllegalArgumentException("Round " + drawCount + " has no draw");
+                }
+                draws[drawCount++] = draw;
+            } else if (i < states.length - 1) {
+                throw new IllegalArgumentException("Round " + i + " has no draw");
+            }
+        }
+        return new TrajectoryCodec.Trajectory(states, drawCount == draws.length ? draws : Arrays.copyOf(draws, drawCount));
+    }
+
+    @Override
+    public void close() {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.neebs.franchise.control;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes games one after another into a stream in the {@link TrajectoryCodec} format. Every game is its number of
+ * rounds followed by the rounds, each as the delta of its state to the previous round and its draw.
+ */
+public final class TrajectoryWriter implements AutoCloseable {
+    private static final int DRAIN_BYTES = 1 << 16;
+
+    private final OutputStream stream;
+    private final TrajectoryCodec.Output out;
+
+    public TrajectoryWriter(OutputStream stream) {
+        this.stream = stream;
+        out = new TrajectoryCodec.Output(stream);
+        TrajectoryCodec.writeHeader(out);
+    }
+
+    public static TrajectoryWriter open(Path file) {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            return new TrajectoryWriter(Files.newOutputStream(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void write(List<GameRoundDraw> game) {
+        if (game.isEmpty()) {
+            throw new IllegalArgumentException("A game has at least one round");
+        }
+        out.writeVarLong(game.size());
+        long[] previous = null;
+        for (GameRoundDraw roundDraw : game) {
+            long[] words = GameState.of(roundDraw.getGameRound()).words();
+            TrajectoryCodec.writeState(out, words, previous);
+            TrajectoryCodec.writeDraw(out, roundDraw.getDraw() == null ? null : PackedDraw.of(roundDraw.getDraw()));
+            previous = words;
+        }
+        drainIfFull();
+    }
+
+    void write(TrajectoryCodec.Trajectory game) {
+        GameState[] states = game.states();
+        out.writeVarLong(states.length);
+        long[] previous = null;
+        for (int i = 0; i < states.length; i++) {
+            long[] words = states[i].words();
+            TrajectoryCodec.writeState(out, words, previous);
+            TrajectoryCodec.writeDraw(out, i < game.draws().length ? game.draws()[i] : null);
+            previous = words;
+        }
+        drainIfFull();
+    }
+
+    private void drainIfFull() {
+        if (out.size() >= DRAIN_BYTES) {
+            out.drain();
+        }
+    }
+
+    public void flush() {
+        out.drain();
+        try {
+            stream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            stream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.neebs.franchise.control;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free transposition table for the alpha-beta search. Every entry stores the score of a position
+ * together with the remaining search depth, the kind of bound and the index of the best draw.
+ * <p>
+ * The table is organized in buckets of two entries: the first one keeps the deepest result of the actual search and
+ * is only replaced by a result at least as deep or by any result of a new search, the second one is always replaced.
+ * Entries are written without locks; the key is stored XOR-ed with the data words, so an entry torn by a concurrent
+ * write simply does not match on the next probe. Clearing the table only changes the salt XOR-ed into the keys, so all
+ * older entries miss without touching the table.
+ */
+class TranspositionTable {
+    static final int EXACT = 0;
+    static final int LOWER_BOUND = 1;
+    static final int UPPER_BOUND = 2;
+
+    static final int NO_DRAW = -1;
+
+    private static final int SLOTS_PER_BUCKET = 2;
+    private static final int WORDS_PER_SLOT = 3;
+
+    // info word
+    private static final long DEPTH_MASK = 0xFFL;
+    private static final int BOUND_SHIFT = 8;
+    private static final long BOUND_MASK = 0x3L;
+    private static final int GENERATION_SHIFT = 10;
+    private static final long GENERATION_MASK = 0xFFL;
+    private static final int DRAW_SHIFT = 18;
+    private static final long DRAW_MASK = 0xFFFFFFL;
+    private static final long USED = 1L << 62;
+    private static final long SALT_INCREMENT = 0x9E3779B97F4A7C15L;
+
+    private final AtomicLongArray table;
+    private final int bucketMask;
+    private volatile int generation;
+    private volatile long salt;
+
+    /**
+     * @param size number of entries, rounded up to a power of two
+     */
+    TranspositionTable(int size) {
+        int buckets = 1;
+        while (buckets * SLOTS_PER_BUCKET < size) {
+            buckets <<= 1;
+        }
+        table = new AtomicLongArray(buckets * SLOTS_PER_BUCKET * WORDS_PER_SLOT);
+        bucketMask = buckets - 1;
+    }
+
+    /**
+     * Starts a new search. Results of older searches stay usable, but are replaced preferably.
+     */
+    void newSearch() {
+        generation = (generation + 1) & (int) GENERATION_MASK;
+    }
+
+    /**
+     * Forgets all entries, e.g. to measure a search from a cold table. The entries of a new search replace them.
+     */
+    void clear() {
+        salt += SALT_INCREMENT;
+        newSearch();
+    }
+
+    /**
+     * @return the entry stored for the key or {@code null}
+     */
+    Entry probe(long key) {
+        long salted = key ^ salt;
+        int bucket = bucket(key);
+        for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            int index = (bucket + slot) * WORDS_PER_SLOT;
+            long check = table.get(index);
+            long score = table.get(index + 1);
+            long info = table.get(index + 2);
+            if ((info & USED) != 0 && (check ^ score ^ info) == salted) {
+                return new Entry(
+                        Double.longBitsToDouble(score),
+                        (int) (info & DEPTH_MASK),
+                        (int) ((info >>> BOUND_SHIFT) & BOUND_MASK),
+                        (int) ((info >>> DRAW_SHIFT) & DRAW_MASK) - 1);
+            }
+        }
+        return null;
+    }
+
+    void store(long key, double score, int depth, int bound, int bestDraw) {
+        long salted = key ^ salt;
+        int bucket = bucket(key);
+        int first = bucket * WORDS_PER_SLOT;
+        long firstInfo = table.get(first + 2);
+        boolean sameKey = (table.get(first) ^ table.get(first + 1) ^ firstInfo) == salted;
+        boolean oldGeneration = ((firstInfo >>> GENERATION_SHIFT) & GENERATION_MASK) != generation;
+        int index = (firstInfo & USED) == 0 || sameKey || oldGeneration || depth >= (firstInfo & DEPTH_MASK)
+                ? first
+                : first + WORDS_PER_SLOT;
+        long info = USED
+                | Math.min(depth, DEPTH_MASK)
+                | (long) bound << BOUND_SHIFT
+                | (long) generation << GENERATION_SHIFT
+                | ((bestDraw + 1L) & DRAW_MASK) << DRAW_SHIFT;
+        long scoreBits = Double.doubleToRawLongBits(score);
+        table.set(index, salted ^ scoreBits ^ info);
+        table.set(index + 1, scoreBits);
+        table.set(index + 2, info);
+    }
+
+    private int bucket(long key) {
+        return (int) ((key ^ (key >>> 32)) & bucketMask) * SLOTS_PER_BUCKET;
+    }
+
+    record Entry(double score, int depth, int bound, int bestDraw) {
+    }
+}
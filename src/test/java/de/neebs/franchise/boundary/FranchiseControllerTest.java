@@ -0,0 +1,97 @@
+package de.neebs.franchise.boundary;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.neebs.franchise.client.entity.City;
+import de.neebs.franchise.client.entity.ComputerPlayer;
+import de.neebs.franchise.client.entity.ComputerStrategy;
+import de.neebs.franchise.client.entity.HumanDraw;
+import de.neebs.franchise.client.entity.PlayerColor;
+import de.neebs.franchise.client.entity.PlayerType;
+import de.neebs.franchise.control.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class FranchiseControllerTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void computerReusesTreeTest(@TempDir Path directory) {
+        FranchiseService franchiseService = new FranchiseService(franchiseCoreService);
+        GameEngine gameEngine = new GameEngineImpl(franchiseService, null, franchiseCoreService, null, null, new InMemoryMonteCarloLearningModel(1000));
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager("games");
+        GamePersistence gamePersistence = new GamePersistence(new ObjectMapper(), franchiseCoreService, cacheManager, directory.toString(), 16, -1);
+        FranchiseController controller = new FranchiseController(gameEngine, gamePersistence);
+        gamePersistence.saveGame("game", position());
+
+        Logger logger = (Logger) LoggerFactory.getLogger(FranchiseService.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            GameRound round = gamePersistence.loadLatestRound("game");
+            ComputerPlayer computer = ComputerPlayer.builder()
+                    .strategy(ComputerStrategy.MONTE_CARLO_TREE_SEARCH)
+                    .params(Map.of("iterations", 3000))
+                    .color(PlayerColor.valueOf(round.getNext().name()))
+                    .playerType(PlayerType.COMPUTER)
+                    .build();
+            controller.createDraw("game", computer);
+
+            // the opponent answers, then the computer draws again from a position in its tree
+            round = gamePersistence.loadLatestRound("game");
+            Draw reply = franchiseCoreService.nextDraws(round).get(0);
+            controller.createDraw("game", HumanDraw.builder()
+                    .extension(reply.getExtension().stream().map(f -> City.valueOf(f.name())).toList())
+                    .increase(reply.getIncrease().stream().map(f -> City.valueOf(f.name())).toList())
+                    .color(PlayerColor.valueOf(round.getNext().name()))
+                    .playerType(PlayerType.HUMAN)
+                    .build());
+            controller.createDraw("game", computer);
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        List<String> searches = appender.list.stream().map(ILoggingEvent::getFormattedMessage).filter(f -> f.contains("tree reused")).toList();
+        Assertions.assertEquals(2, searches.size());
+        Assertions.assertTrue(searches.get(0).endsWith("tree reused: false"), searches.get(0));
+        Assertions.assertTrue(searches.get(1).endsWith("tree reused: true"), searches.get(1));
+    }
+
+    /**
+     * @return a game of two players up to a position with few draws for both of them, so the search visits all answers
+     */
+    private List<GameRoundDraw> position() {
+        GameRound round = franchiseCoreService.init(List.of(de.neebs.franchise.control.PlayerColor.BLUE, de.neebs.franchise.control.PlayerColor.RED));
+        List<GameRoundDraw> rounds = new ArrayList<>();
+        Random random = new Random(11);
+        while (!round.isEnd()) {
+            GameRound current = round;
+            List<Draw> draws = franchiseCoreService.nextDraws(current);
+            if (rounds.size() > 20 && draws.size() <= 20 && draws.stream().allMatch(f -> fewAnswers(current, f))) {
+                break;
+            }
+            Draw draw = draws.get(random.nextInt(draws.size()));
+            rounds.add(GameRoundDraw.builder().gameRound(round).draw(draw).build());
+            round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+        }
+        rounds.add(GameRoundDraw.builder().gameRound(round).build());
+        return rounds;
+    }
+
+    private boolean fewAnswers(GameRound round, Draw draw) {
+        GameRound next = franchiseCoreService.manualDraw(round, draw).getGameRound();
+        return !next.isEnd() && franchiseCoreService.nextDraws(next).size() <= 20;
+    }
+}
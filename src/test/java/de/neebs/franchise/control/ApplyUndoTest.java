@@ -0,0 +1,126 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Differential tests of {@link FranchiseCoreService#apply(GameState, Draw)} and
+ * {@link FranchiseCoreService#undo(GameState)} against {@link FranchiseCoreService#manualDraw(GameRound, Draw)} on
+ * randomly played games.
+ */
+class ApplyUndoTest {
+    private static final List<List<PlayerColor>> PLAYERS = List.of(
+            List.of(PlayerColor.BLUE, PlayerColor.RED),
+            List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK),
+            List.of(PlayerColor.WHITE, PlayerColor.ORANGE, PlayerColor.BLUE, PlayerColor.RED));
+
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void applyMatchesManualDrawTest() {
+        Random random = new Random(42);
+        for (int game = 0; game < 30; game++) {
+            GameRound round = franchiseCoreService.init(PLAYERS.get(game % PLAYERS.size()));
+            GameState state = GameState.of(round);
+            while (!round.isEnd()) {
+                List<Draw> draws = franchiseCoreService.nextDraws(round);
+                Draw draw = draws.get(random.nextInt(draws.size()));
+                GameRound expected = franchiseCoreService.manualDraw(round, draw).getGameRound();
+                GameState before = state.copy();
+
+                franchiseCoreService.apply(state, draw);
+                Assertions.assertEquals(GameState.of(expected), state, "Draw " + draw + " in round " + round.getRound());
+
+                franchiseCoreService.undo(state);
+                Assertions.assertEquals(before, state);
+
+                franchiseCoreService.apply(state, draw);
+                round = expected;
+            }
+        }
+    }
+
+    @Test
+    void undoWholeGameTest() {
+        Random random = new Random(7);
+        for (List<PlayerColor> players : PLAYERS) {
+            GameRound round = franchiseCoreService.init(players);
+            GameState state = GameState.of(round);
+            Deque<GameState> history = new ArrayDeque<>();
+            while (!round.isEnd()) {
+                List<Draw> draws = franchiseCoreService.nextDraws(round);
+                Draw draw = draws.get(random.nextInt(draws.size()));
+                history.push(state.copy());
+                franchiseCoreService.apply(state, draw);
+                round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+            }
+            Assertions.assertEquals(history.size(), state.undoDepth());
+            while (!history.isEmpty()) {
+                franchiseCoreService.undo(state);
+                Assertions.assertEquals(history.pop(), state);
+            }
+            Assertions.assertEquals(GameState.of(franchiseCoreService.init(players)), state);
+        }
+    }
+
+    @Test
+    void illegalDrawsTest() {
+        Random random = new Random(11);
+        for (int game = 0; game < 10; game++) {
+            GameRound round = franchiseCoreService.init(PLAYERS.get(game % PLAYERS.size()));
+            GameState state = GameState.of(round);
+            while (!round.isEnd()) {
+                Draw candidate = randomDraw(round, random);
+                GameRound expected = null;
+                try {
+                    expected = franchiseCoreService.manualDraw(round, candidate).getGameRound();
+                } catch (IllegalDrawException e) {
+                    // the state must reject the draw as well
+                }
+                GameState before = state.copy();
+                if (expected == null) {
+                    Assertions.assertThrows(IllegalDrawException.class, () -> franchiseCoreService.apply(state, candidate));
+                    Assertions.assertEquals(before, state);
+                } else {
+                    franchiseCoreService.apply(state, candidate);
+                    Assertions.assertEquals(GameState.of(expected), state);
+                    franchiseCoreService.undo(state);
+                    Assertions.assertEquals(before, state);
+                }
+
+                List<Draw> draws = franchiseCoreService.nextDraws(round);
+                Draw draw = draws.get(random.nextInt(draws.size()));
+                franchiseCoreService.apply(state, draw);
+                round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+            }
+        }
+    }
+
+    private Draw randomDraw(GameRound round, Random random) {
+        City[] cities = City.values();
+        Set<City> extension = new HashSet<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            extension.add(cities[random.nextInt(cities.length)]);
+        }
+        List<City> owned = new ArrayList<>(franchiseCoreService.retrieveOwnedCities(round.getPlates(), round.getNext()));
+        List<City> increase = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0 && !owned.isEmpty(); i--) {
+            increase.add(owned.get(random.nextInt(owned.size())));
+        }
+        BonusTileUsage[] usages = BonusTileUsage.values();
+        int usage = random.nextInt(usages.length + 1);
+        return Draw.builder()
+                .extension(extension)
+                .increase(increase)
+                .bonusTileUsage(usage == usages.length ? null : usages[usage])
+                .build();
+    }
+}
@@ -0,0 +1,105 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class BoardFeaturizerTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+    private final BoardFeaturizer featurizer = new BoardFeaturizer();
+
+    private List<GameRound> play(int plies) {
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.ORANGE));
+        List<GameRound> rounds = new ArrayList<>(List.of(round));
+        Random random = new Random(4);
+        for (int ply = 0; ply < plies && !round.isEnd(); ply++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+            rounds.add(round);
+        }
+        return rounds;
+    }
+
+    @Test
+    void ordinalTest() {
+        for (GameRound round : play(30)) {
+            float[] row = new float[featurizer.dimension(BoardFeaturizer.Encoding.ORDINAL, true)];
+            featurizer.write(GameState.of(round), BoardFeaturizer.Encoding.ORDINAL, true, row, 0);
+
+            List<Float> expected = new ArrayList<>();
+            expected.add((float) (round.getActual() == null ? round.getNext() : round.getActual()).ordinal());
+            expected.add((float) round.getNext().ordinal());
+            for (City city : City.values()) {
+                CityPlate plate = round.getPlates().get(city);
+                for (int i = 0; i < city.getSize(); i++) {
+                    expected.add(plate != null && i < plate.getBranches().size() ? plate.getBranches().get(i).ordinal() : -1f);
+                }
+            }
+            for (PlayerColor color : PlayerColor.values()) {
+                Score score = round.getScores().get(color);
+                expected.add(score == null ? -1f : score.getBonusTiles());
+                expected.add(score == null ? -1f : score.getInfluence());
+                expected.add(score == null ? -1f : score.getMoney());
+            }
+            Assertions.assertEquals(expected.size(), row.length);
+            for (int i = 0; i < row.length; i++) {
+                Assertions.assertEquals(expected.get(i), row[i]);
+            }
+        }
+    }
+
+    @Test
+    void encodingsTest() {
+        int colors = PlayerColor.values().length;
+        for (GameRound round : play(30)) {
+            GameState state = GameState.of(round);
+            float[] ordinal = new float[featurizer.dimension(BoardFeaturizer.Encoding.ORDINAL, false)];
+            featurizer.write(state, BoardFeaturizer.Encoding.ORDINAL, false, ordinal, 0);
+
+            float[] oneHot = new float[featurizer.dimension(BoardFeaturizer.Encoding.ONE_HOT, false)];
+            featurizer.write(state, BoardFeaturizer.Encoding.ONE_HOT, false, oneHot, 0);
+            Assertions.assertEquals(ordinal.length * colors, oneHot.length);
+            for (int i = 0; i < ordinal.length; i++) {
+                for (int color = 0; color < colors; color++) {
+                    Assertions.assertEquals(ordinal[i] == color ? 1 : 0, oneHot[i * colors + color]);
+                }
+            }
+
+            // the acting player is seat 0 and its stats come first
+            double[] relative = new double[featurizer.dimension(BoardFeaturizer.Encoding.RELATIVE, true)];
+            featurizer.write(state, BoardFeaturizer.Encoding.RELATIVE, true, relative, 0);
+            Assertions.assertEquals(0, relative[0]);
+            PlayerColor acting = round.getActual() == null ? round.getNext() : round.getActual();
+            Assertions.assertEquals(round.getScores().get(acting).getMoney(), relative[ordinal.length + 2]);
+            for (int i = 2; i < ordinal.length; i++) {
+                Assertions.assertEquals(ordinal[i] == ordinal[0], relative[i] == 0);
+            }
+        }
+    }
+
+    @Test
+    void targetsTest() {
+        List<GameRound> rounds = play(20);
+        int dimension = featurizer.dimension(BoardFeaturizer.Encoding.ORDINAL, true);
+        GameState[] states = rounds.stream().map(GameState::of).toArray(GameState[]::new);
+        float[] matrix = new float[states.length * dimension];
+        featurizer.write(states, states.length, BoardFeaturizer.Encoding.ORDINAL, true, matrix);
+
+        FloatBuffer buffer = FloatBuffer.allocate(dimension);
+        int[] ints = new int[dimension];
+        for (int row = 0; row < states.length; row++) {
+            featurizer.write(states[row], BoardFeaturizer.Encoding.ORDINAL, true, buffer, 0);
+            featurizer.write(states[row], BoardFeaturizer.Encoding.ORDINAL, true, ints, 0);
+            for (int i = 0; i < dimension; i++) {
+                Assertions.assertEquals(matrix[row * dimension + i], buffer.get(i));
+                Assertions.assertEquals(matrix[row * dimension + i], ints[i]);
+            }
+        }
+        Assertions.assertEquals(dimension, featurizer.header(BoardFeaturizer.Encoding.ORDINAL, true).size());
+        Assertions.assertEquals(featurizer.dimension(BoardFeaturizer.Encoding.ONE_HOT, true), featurizer.header(BoardFeaturizer.Encoding.ONE_HOT, true).size());
+    }
+}
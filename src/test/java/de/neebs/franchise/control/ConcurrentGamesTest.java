@@ -0,0 +1,61 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "franchise.q-learning.file=target/qlearning/qtable.log")
+class ConcurrentGamesTest {
+    @Autowired
+    private GameEngine gameEngine;
+
+    /**
+     * Plays the openings of many games at the same time with the search players of the shared services.
+     */
+    @Test
+    void concurrentGamesTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<GameRound>> games = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                games.add(executor.submit(() -> {
+                    GameRound round = gameEngine.initGame(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+                    Map<PlayerColor, ComputerPlayer> players = Map.of(
+                            PlayerColor.BLUE, gameEngine.createComputerPlayer(Algorithm.MINIMAX_AB_PRUNE, PlayerColor.BLUE, Map.of("depth", 2)),
+                            PlayerColor.RED, gameEngine.createComputerPlayer(Algorithm.MONTE_CARLO_TREE_SEARCH, PlayerColor.RED, Map.of("iterations", 20)),
+                            PlayerColor.BLACK, gameEngine.createComputerPlayer(Algorithm.Q_LEARNING, PlayerColor.BLACK, Map.of("epsilon", 0f)));
+                    for (int ply = 0; ply < 12; ply++) {
+                        Draw draw = players.get(round.getNext()).evaluateDraw(round);
+                        Assertions.assertTrue(gameEngine.nextPossibleDraws(round).contains(draw));
+                        round = gameEngine.makeDraw(round, draw).getGameRound();
+                    }
+                    return round;
+                }));
+            }
+            int start = gameEngine.initGame(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK)).getRound();
+            for (Future<GameRound> game : games) {
+                Assertions.assertEquals(start + 12, game.get().getRound());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void reproducibleRandomStreamsTest() {
+        RandomStreams.reseed(42);
+        int[] first = IntStream.range(0, 10).map(i -> RandomStreams.current().nextInt(1000)).toArray();
+        RandomStreams.reseed(42);
+        int[] second = IntStream.range(0, 10).map(i -> RandomStreams.current().nextInt(1000)).toArray();
+        Assertions.assertArrayEquals(first, second);
+    }
+}
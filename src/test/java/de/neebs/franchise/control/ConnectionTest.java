@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -189,4 +190,23 @@ class ConnectionTest {
         Assertions.assertEquals(25, map.get(5));
 
     }
+
+    @Test
+    void testNeighbourTables() {
+        for (City city : City.values()) {
+            int c = city.ordinal();
+            Assertions.assertEquals(Rules.CONNECTIONS.stream().filter(f -> f.getCities().contains(city)).count(), Rules.neighbourCount(c));
+            for (int i = 0; i < Rules.neighbourCount(c); i++) {
+                City neighbour = City.values()[Rules.neighbour(c, i)];
+                Assertions.assertTrue(Rules.CONNECTIONS.contains(new Connection(Set.of(city, neighbour), 0)));
+                Assertions.assertTrue(i == 0 || Rules.neighbourCosts(c, i - 1) <= Rules.neighbourCosts(c, i));
+            }
+            Assertions.assertTrue(Rules.regionOf(city).getCities().contains(city));
+            Assertions.assertEquals(city.getSize() == 1, Rules.isTown(c));
+        }
+        long owned = 1L << City.DENVER.ordinal() | 1L << City.PUEBLO.ordinal();
+        Assertions.assertEquals(0, Rules.extensionCosts(City.PHOENIX.ordinal(), owned));
+        Assertions.assertEquals(1, Rules.extensionCosts(City.SALT_LAKE_CITY.ordinal(), owned));
+        Assertions.assertEquals(Rules.NO_CONNECTION, Rules.extensionCosts(City.SEATTLE.ordinal(), owned));
+    }
 }
@@ -0,0 +1,123 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class FeatureStoreTest {
+    private static final List<String> NAMES = List.of("a", "b", "score");
+    private static final int[] WIDTHS = {1, 1, 2};
+
+    private static Map<List<Integer>, Integer> contents(FeatureStore store) {
+        Map<List<Integer>, Integer> contents = new HashMap<>();
+        store.scan((row, count) -> contents.put(List.of(row[0], row[1], row[2]), count));
+        return contents;
+    }
+
+    @Test
+    void deduplicationTest(@TempDir Path directory) {
+        Path file = directory.resolve("data.bin");
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 4)) {
+            for (int i = 0; i < 10; i++) {
+                store.add(new int[]{i % 3, -1, 1000 + i % 3});
+            }
+            Assertions.assertEquals(3, store.rows());
+            Assertions.assertEquals(Map.of(List.of(0, -1, 1000), 4, List.of(1, -1, 1001), 3, List.of(2, -1, 1002), 3), contents(store));
+        }
+
+        // duplicates of stored rows are counted in place
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 4)) {
+            store.add(new int[]{1, -1, 1001});
+            store.add(new int[]{5, 7, -300});
+            Assertions.assertEquals(4, store.rows());
+        }
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 4)) {
+            Map<List<Integer>, Integer> contents = contents(store);
+            Assertions.assertEquals(4, contents.get(List.of(1, -1, 1001)));
+            Assertions.assertEquals(1, contents.get(List.of(5, 7, -300)));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> store.add(new int[]{128, 0, 0}));
+        }
+    }
+
+    @Test
+    void statisticsTest(@TempDir Path directory) {
+        try (FeatureStore store = new FeatureStore(directory.resolve("data.bin"), NAMES, WIDTHS, 2)) {
+            store.add(new int[]{1, 5, 10});
+            store.add(new int[]{3, -2, 20});
+            store.add(new int[]{-4, 0, 30});
+            store.flush();
+            Assertions.assertEquals(2, store.groupCount());
+            Assertions.assertEquals(1, store.min(0, 0));
+            Assertions.assertEquals(3, store.max(0, 0));
+            Assertions.assertEquals(-2, store.min(0, 1));
+            Assertions.assertEquals(30, store.max(1, 2));
+        }
+    }
+
+    @Test
+    void recoveryTest(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("data.bin");
+        List<int[]> rows = new ArrayList<>();
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 8)) {
+            for (int i = 0; i < 20; i++) {
+                rows.add(new int[]{i, i % 5, i * 10});
+                store.add(rows.get(i));
+            }
+        }
+        Files.write(file, new byte[]{0, 0, 0, 5, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 8)) {
+            Assertions.assertEquals(20, store.rows());
+            store.add(rows.get(3));
+            Assertions.assertEquals(2, contents(store).get(List.of(3, 3, 30)));
+        }
+        Assertions.assertThrows(IllegalStateException.class, () -> new FeatureStore(file, List.of("a", "b", "label"), WIDTHS, 8));
+    }
+
+    @Test
+    void manyRowsTest(@TempDir Path directory) {
+        Path file = directory.resolve("data.bin");
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 1000)) {
+            for (int i = 0; i < 6000; i++) {
+                store.add(new int[]{i % 100, i / 100 % 30, i % 3000});
+            }
+            Assertions.assertEquals(3000, store.rows());
+        }
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 1000)) {
+            store.add(new int[]{7, 0, 7});
+            Assertions.assertEquals(3000, store.rows());
+            Assertions.assertEquals(3, contents(store).get(List.of(7, 0, 7)));
+        }
+    }
+
+    @Test
+    void scanGroupTest(@TempDir Path directory) {
+        Path file = directory.resolve("data.bin");
+        Map<List<Integer>, Integer> contents;
+        long[] offsets;
+        try (FeatureStore store = new FeatureStore(file, NAMES, WIDTHS, 4)) {
+            for (int i = 0; i < 10; i++) {
+                store.add(new int[]{i % 6, i, -i});
+                store.add(new int[]{i % 6, i, -i});
+            }
+            offsets = store.groupOffsets();
+            contents = contents(store);
+        }
+        Assertions.assertEquals(3, offsets.length);
+
+        Map<List<Integer>, Integer> groups = new HashMap<>();
+        for (long offset : offsets) {
+            FeatureStore.scan(file, WIDTHS, offset, (row, count) -> groups.put(List.of(row[0], row[1], row[2]), count));
+        }
+        Assertions.assertEquals(contents, groups);
+    }
+}
@@ -0,0 +1,206 @@
+package de.neebs.franchise.control;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class GamePersistenceTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    private GamePersistence persistence(Path directory) {
+        return persistence(directory, cacheManager());
+    }
+
+    private GamePersistence persistence(Path directory, CaffeineCacheManager cacheManager) {
+        return new GamePersistence(new ObjectMapper(), franchiseCoreService, cacheManager, directory.toString(), 8, -1);
+    }
+
+    private static CaffeineCacheManager cacheManager() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(GamePersistence.CACHE);
+        cacheManager.setCacheSpecification("maximumSize=10,recordStats");
+        return cacheManager;
+    }
+
+    private List<GameRoundDraw> play(GamePersistence persistence, String gameId, int plies) {
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.ORANGE));
+        List<GameRoundDraw> rounds = new ArrayList<>(List.of(GameRoundDraw.builder().gameRound(round).build()));
+        persistence.saveGame(gameId, rounds);
+        Random random = new Random(17);
+        for (int ply = 0; ply < plies && !round.isEnd(); ply++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            Draw draw = draws.get(random.nextInt(draws.size()));
+            rounds.get(rounds.size() - 1).setDraw(draw);
+            round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+            rounds.add(GameRoundDraw.builder().gameRound(round).build());
+            persistence.saveGame(gameId, rounds);
+        }
+        return rounds;
+    }
+
+    private static void assertSameGame(List<GameRoundDraw> expected, List<GameRoundDraw> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(GameState.of(expected.get(i).getGameRound()), GameState.of(actual.get(i).getGameRound()));
+            Draw draw = expected.get(i).getDraw();
+            Assertions.assertEquals(draw == null ? null : PackedDraw.of(draw), actual.get(i).getDraw() == null ? null : PackedDraw.of(actual.get(i).getDraw()));
+        }
+    }
+
+    @Test
+    void replayTest(@TempDir Path directory) {
+        List<GameRoundDraw> rounds = play(persistence(directory), "game", 40);
+
+        GamePersistence cold = persistence(directory);
+        GameRound latest = cold.loadLatestRound("game");
+        Assertions.assertEquals(GameState.of(rounds.get(rounds.size() - 1).getGameRound()), GameState.of(latest));
+        assertSameGame(rounds, cold.loadGame("game"));
+    }
+
+    @Test
+    void undoTest(@TempDir Path directory) {
+        GamePersistence persistence = persistence(directory);
+        List<GameRoundDraw> rounds = play(persistence, "game", 20);
+        // undo the last three draws like the controller does
+        for (int i = 0; i < 3; i++) {
+            rounds.remove(rounds.size() - 1);
+        }
+        rounds.get(rounds.size() - 1).setDraw(null);
+        persistence.saveGame("game", rounds);
+
+        GamePersistence cold = persistence(directory);
+        Assertions.assertEquals(GameState.of(rounds.get(rounds.size() - 1).getGameRound()), GameState.of(cold.loadLatestRound("game")));
+        assertSameGame(rounds, cold.loadGame("game"));
+    }
+
+    @Test
+    void undoMiddleTest(@TempDir Path directory) {
+        CaffeineCacheManager cacheManager = cacheManager();
+        GamePersistence persistence = persistence(directory, cacheManager);
+        List<GameRoundDraw> rounds = play(persistence, "game", 20);
+
+        // a round removed from the middle breaks the chain of draws, so the game is not saved
+        Assertions.assertThrows(IllegalStateException.class, () -> persistence.updateGame("game", gdrs -> gdrs.remove(10)));
+        assertSameGame(rounds, persistence.loadGame("game"));
+
+        // undoing from the middle drops the round and all later ones
+        persistence.updateGame("game", gdrs -> {
+            gdrs.subList(10, gdrs.size()).clear();
+            gdrs.get(9).setDraw(null);
+            return null;
+        });
+        List<GameRoundDraw> expected = new ArrayList<>(rounds.subList(0, 10));
+        expected.set(9, GameRoundDraw.builder().gameRound(rounds.get(9).getGameRound()).build());
+        cacheManager.getCache(GamePersistence.CACHE).clear();
+        Assertions.assertEquals(GameState.of(expected.get(9).getGameRound()), GameState.of(persistence.loadLatestRound("game")));
+        assertSameGame(expected, persistence.loadGame("game"));
+    }
+
+    @Test
+    void tornAppendTest(@TempDir Path directory) throws IOException {
+        List<GameRoundDraw> rounds = play(persistence(directory), "game", 10);
+        Files.write(directory.resolve("game.log"), new byte[]{2, 0, 0, 0, 8, 1, 2}, StandardOpenOption.APPEND);
+
+        GamePersistence cold = persistence(directory);
+        List<GameRoundDraw> loaded = cold.loadGame("game");
+        assertSameGame(rounds, loaded);
+
+        // the next append cuts the torn record off
+        GameRound round = loaded.get(loaded.size() - 1).getGameRound();
+        Draw draw = franchiseCoreService.nextDraws(round).get(0);
+        loaded.get(loaded.size() - 1).setDraw(draw);
+        loaded.add(GameRoundDraw.builder().gameRound(franchiseCoreService.manualDraw(round, draw).getGameRound()).build());
+        cold.saveGame("game", loaded);
+        assertSameGame(loaded, persistence(directory).loadGame("game"));
+    }
+
+    private Draw makeDraw(List<GameRoundDraw> rounds, int choice) {
+        GameRound round = rounds.get(rounds.size() - 1).getGameRound();
+        List<Draw> draws = franchiseCoreService.nextDraws(round);
+        Draw draw = draws.get(choice % draws.size());
+        rounds.get(rounds.size() - 1).setDraw(draw);
+        rounds.add(GameRoundDraw.builder().gameRound(franchiseCoreService.manualDraw(round, draw).getGameRound()).build());
+        return draw;
+    }
+
+    @Test
+    void concurrentUpdateTest(@TempDir Path directory) throws Exception {
+        GamePersistence persistence = persistence(directory);
+        play(persistence, "game", 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                int choice = i;
+                futures.add(executor.submit(() -> persistence.updateGame("game", rounds -> makeDraw(rounds, choice))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // no draw is lost, and the log agrees with the cache
+        List<GameRoundDraw> rounds = persistence.loadGame("game");
+        Assertions.assertEquals(21, rounds.size());
+        assertSameGame(rounds, persistence(directory).loadGame("game"));
+        Assertions.assertTrue(persistence.cacheStatistics().hitCount() >= 20);
+    }
+
+    @Test
+    void failedUpdateTest(@TempDir Path directory) {
+        GamePersistence persistence = persistence(directory);
+        List<GameRoundDraw> rounds = play(persistence, "game", 5);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> persistence.updateGame("game", r -> {
+            makeDraw(r, 0);
+            throw new IllegalStateException("rejected");
+        }));
+        assertSameGame(rounds, persistence.loadGame("game"));
+    }
+
+    @Test
+    void readWhileUpdatingTest(@TempDir Path directory) throws Exception {
+        GamePersistence persistence = persistence(directory);
+        List<GameRoundDraw> rounds = play(persistence, "game", 5);
+        CountDownLatch updating = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> update = executor.submit(() -> persistence.updateGame("game", r -> {
+                updating.countDown();
+                try {
+                    return read.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            updating.await();
+            // cached reads do not wait for the update holding the lock
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                assertSameGame(rounds, persistence.loadGame("game"));
+                Assertions.assertEquals(GameState.of(rounds.get(rounds.size() - 1).getGameRound()), GameState.of(persistence.loadLatestRound("game")));
+            });
+            read.countDown();
+            update.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class GameStateTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void roundTripInitialRoundTest() {
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        assertSameRound(round, GameState.of(round).toGameRound());
+    }
+
+    @Test
+    void roundTripPlayedGamesTest() {
+        Random random = new Random(4711);
+        for (List<PlayerColor> players : List.of(
+                List.of(PlayerColor.BLUE, PlayerColor.RED),
+                List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK),
+                List.of(PlayerColor.WHITE, PlayerColor.ORANGE, PlayerColor.BLUE, PlayerColor.RED))) {
+            GameRound round = franchiseCoreService.init(players);
+            while (!round.isEnd()) {
+                List<Draw> draws = franchiseCoreService.nextDraws(round);
+                round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+                GameState state = GameState.of(round);
+                assertSameRound(round, state.toGameRound());
+                Assertions.assertEquals(state, GameState.of(state.toGameRound()));
+            }
+        }
+    }
+
+    @Test
+    void copyAndHashTest() {
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        GameState state = GameState.of(round);
+        GameState copy = state.copy();
+        Assertions.assertEquals(state, copy);
+        Assertions.assertEquals(state.hash64(), copy.hash64());
+
+        GameRound next = franchiseCoreService.manualDraw(round, franchiseCoreService.nextDraws(round).get(0)).getGameRound();
+        Assertions.assertNotEquals(state.hash64(), GameState.of(next).hash64());
+    }
+
+    @Test
+    void incrementalHashTest() {
+        Random random = new Random(1);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        GameState state = GameState.of(round);
+        long initialHash = state.hash64();
+        while (!round.isEnd()) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            Draw draw = draws.get(random.nextInt(draws.size()));
+            franchiseCoreService.apply(state, draw);
+            round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+            Assertions.assertEquals(GameState.of(round).hash64(), state.hash64());
+        }
+        while (state.undoDepth() > 0) {
+            franchiseCoreService.undo(state);
+        }
+        Assertions.assertEquals(initialHash, state.hash64());
+    }
+
+    private void assertSameRound(GameRound expected, GameRound actual) {
+        Assertions.assertEquals(expected.getPlayers(), actual.getPlayers());
+        Assertions.assertEquals(expected.getNext(), actual.getNext());
+        Assertions.assertEquals(expected.getActual(), actual.getActual());
+        Assertions.assertEquals(expected.getRound(), actual.getRound());
+        Assertions.assertEquals(expected.isEnd(), actual.isEnd());
+        Assertions.assertEquals(expected.getPlates(), actual.getPlates());
+        Assertions.assertEquals(expected.getScoredRegions(), actual.getScoredRegions());
+        Assertions.assertEquals(expected.getFirstCityScorers(), actual.getFirstCityScorers());
+        Assertions.assertEquals(expected.getScores().keySet(), actual.getScores().keySet());
+        for (Map.Entry<PlayerColor, Score> entry : expected.getScores().entrySet()) {
+            Score score = actual.getScores().get(entry.getKey());
+            Assertions.assertEquals(entry.getValue().getMoney(), score.getMoney());
+            Assertions.assertEquals(entry.getValue().getInfluence(), score.getInfluence());
+            Assertions.assertEquals(entry.getValue().getBonusTiles(), score.getBonusTiles());
+            Assertions.assertEquals(entry.getValue().getIncome(), score.getIncome());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class InferenceBatcherTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void batchTest() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+        try (InferenceBatcher batcher = new InferenceBatcher(inputs -> {
+            synchronized (batchSizes) {
+                batchSizes.add(inputs.length);
+            }
+            float[][] outputs = new float[inputs.length][];
+            for (int i = 0; i < inputs.length; i++) {
+                outputs[i] = new float[]{2 * inputs[i][0]};
+            }
+            return outputs;
+        }, 4, 1_000_000)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Float>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                float input = i;
+                results.add(executor.submit(() -> batcher.infer(new float[]{input})[0]));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assertions.assertEquals(2f * i, results.get(i).get());
+            }
+            executor.shutdown();
+        }
+        Assertions.assertEquals(100, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        Assertions.assertTrue(batchSizes.stream().allMatch(f -> f >= 1 && f <= 4));
+    }
+
+    @Test
+    void failureTest() {
+        try (InferenceBatcher batcher = new InferenceBatcher(inputs -> {
+            throw new IllegalArgumentException("broken");
+        }, 4, 0)) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> batcher.infer(new float[1]));
+        }
+    }
+
+    @Test
+    void outputMappingMatchesIncludesTest() {
+        List<Draw> outputDimension = new ArrayList<>();
+        for (City city : City.values()) {
+            outputDimension.add(Draw.builder().extension(Set.of(city)).build());
+        }
+        for (City city : City.values()) {
+            outputDimension.add(Draw.builder().increase(List.of(city)).build());
+        }
+        Random random = new Random(13);
+        float[] outputs = new float[outputDimension.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = random.nextInt(100);
+        }
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        for (int ply = 0; ply < 20 && !round.isEnd(); ply++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            for (Draw draw : draws) {
+                float[] mask = new float[outputs.length];
+                FranchiseRLService.mask(PackedDraw.of(draw), mask, 0);
+                float expected = 0;
+                for (int j = 0; j < outputs.length; j++) {
+                    if (draw.includes(outputDimension.get(j))) {
+                        expected += outputs[j];
+                    }
+                    Assertions.assertEquals(draw.includes(outputDimension.get(j)) ? 1f : 0f, mask[j]);
+                }
+                if (draw.isNull()) {
+                    expected = -Float.MAX_VALUE;
+                }
+                Assertions.assertEquals(expected, FranchiseRLService.rate(PackedDraw.of(draw), outputs));
+            }
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+        }
+    }
+}
@@ -1,13 +1,159 @@
 package de.neebs.franchise.control;
 
 import lombok.extern.log4j.Log4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 @Log4j
 class MachineLearningTest {
     @Test
     void test() {
-        FranchiseMLService service = new FranchiseMLService(new FranchiseCoreService());
+        FranchiseMLService service = new FranchiseMLService(new FranchiseCoreService(), new BoardFeaturizer(), "ml-model/model.bin", 1.0, false, "ml-model/data.bin", 65536);
         log.info(String.join(",", service.createHeader()));
     }
+
+    @Test
+    void onlineRegressionTest(@TempDir Path directory) {
+        double[] coefficients = {2, -1, 0.5};
+        OnlineRegression model = new OnlineRegression(coefficients.length, 1.0);
+        Random random = new Random(5);
+        double[] features = new double[coefficients.length];
+        for (int sample = 0; sample < 200; sample++) {
+            double label = 3;
+            for (int i = 0; i < features.length; i++) {
+                features[i] = random.nextInt(10) - 1;
+                label += coefficients[i] * features[i];
+            }
+            model.update(features, label);
+        }
+        // the least squares fit of exact samples is the function itself, up to the prior of the initial covariance
+        Assertions.assertEquals(3 + 2 * 4 - 1 * 2 + 0.5 * 6, model.predict(new double[]{4, 2, 6}), 1e-3);
+
+        Path file = directory.resolve("model.bin");
+        model.writeTo(file);
+        OnlineRegression loaded = OnlineRegression.read(file, 1.0);
+        Assertions.assertEquals(200, loaded.samples());
+        Assertions.assertEquals(model.predict(new double[]{1, 7, -1}), loaded.predict(new double[]{1, 7, -1}));
+
+        // large matrices are scored in parallel
+        double[] matrix = new double[1000 * coefficients.length];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = random.nextInt(10);
+        }
+        double[] predictions = new double[1000];
+        loaded.predict(matrix, 1000, predictions);
+        for (int row = 0; row < 1000; row++) {
+            double[] values = Arrays.copyOfRange(matrix, row * coefficients.length, (row + 1) * coefficients.length);
+            Assertions.assertEquals(loaded.predict(values), predictions[row], 1e-9);
+        }
+    }
+
+    @Test
+    void candidateFeaturesTest(@TempDir Path directory) {
+        FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+        FranchiseMLService service = new FranchiseMLService(franchiseCoreService, new BoardFeaturizer(), directory.resolve("model.bin").toString(), 1.0, false, directory.resolve("data.bin").toString(), 65536);
+        int dimension = service.createHeader().size() - 1 - 3 * PlayerColor.values().length;
+        GameState state = GameState.of(franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.ORANGE)));
+        Random random = new Random(11);
+        DrawBuffer draws = new DrawBuffer();
+        for (int ply = 0; ply < 60 && !state.isEnd(); ply++) {
+            draws.truncate(0);
+            int count = franchiseCoreService.nextDraws(state, draws);
+            double[] matrix = new double[count * dimension];
+            service.candidateFeatures(state, draws, count, matrix);
+
+            // every row equals the features of the board after the draw
+            double[] expected = new double[dimension];
+            for (int row = 0; row < count; row++) {
+                GameState next = state.copy();
+                franchiseCoreService.apply(next, draws.draw(row));
+                new BoardFeaturizer().write(next, BoardFeaturizer.Encoding.ORDINAL, false, expected, 0);
+                for (int i = 0; i < dimension; i++) {
+                    Assertions.assertEquals(expected[i], matrix[row * dimension + i]);
+                }
+            }
+            franchiseCoreService.apply(state, draws.draw(random.nextInt(count)));
+        }
+    }
+
+    @Test
+    void trainingDataTest(@TempDir Path directory) {
+        FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        List<GameRoundDraw> game = new ArrayList<>();
+        Random random = new Random(2);
+        for (int ply = 0; ply < 40 && !round.isEnd(); ply++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            Draw draw = draws.get(random.nextInt(draws.size()));
+            game.add(GameRoundDraw.builder().gameRound(round).draw(draw).build());
+            round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+        }
+        game.add(GameRoundDraw.builder().gameRound(round).build());
+
+        FranchiseMLService service = new FranchiseMLService(franchiseCoreService, new BoardFeaturizer(), directory.resolve("model.bin").toString(), 1.0, true, directory.resolve("data.bin").toString(), 16);
+        service.train(game);
+        service.train(game);
+        service.save();
+        service.close();
+        Assertions.assertEquals(service.createHeader().size(), service.trainingRow(GameState.of(round), 0).length);
+
+        // the same game twice is stored once with two occurrences
+        try (FeatureStore store = service.openFeatureStore()) {
+            Assertions.assertEquals(game.size(), store.rows());
+            store.scan((row, count) -> Assertions.assertEquals(2, count));
+        }
+
+        // without a model, the model is learned from the stored rows
+        FranchiseMLService fresh = new FranchiseMLService(franchiseCoreService, new BoardFeaturizer(), directory.resolve("fresh.bin").toString(), 1.0, false, directory.resolve("data.bin").toString(), 16);
+        fresh.init();
+        Assertions.assertNotNull(fresh.machineLearning(game.get(10).getGameRound(), 3));
+        fresh.close();
+    }
+
+    @Test
+    void bulkRetrainTest(@TempDir Path directory) {
+        String modelFile = directory.resolve("model.bin").toString();
+        String dataFile = directory.resolve("data.bin").toString();
+        FranchiseMLService service = new FranchiseMLService(new FranchiseCoreService(), new BoardFeaturizer(), modelFile, 1.0, false, dataFile, 64);
+        int dimension = new BoardFeaturizer().dimension(BoardFeaturizer.Encoding.ORDINAL, false);
+        // the score is a known linear function of the board columns, the stats columns are noise
+        double[] weights = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            weights[i] = i % 5 - 2;
+        }
+        Random random = new Random(5);
+        try (FeatureStore store = service.openFeatureStore()) {
+            for (int r = 0; r < 4 * dimension; r++) {
+                int[] row = new int[service.createHeader().size()];
+                double score = 7;
+                for (int i = 0; i < row.length - 1; i++) {
+                    row[i] = random.nextInt(5) - 1;
+                    score += i < dimension ? weights[i] * row[i] : 0;
+                }
+                row[row.length - 1] = (int) score;
+                store.add(row);
+            }
+        }
+
+        service.bulkRetrain();
+        service.close();
+
+        // the coefficients are mapped to the features in the column order of the online model
+        OnlineRegression model = OnlineRegression.read(Path.of(modelFile), 1.0);
+        double[] features = new double[dimension];
+        double intercept = model.predict(features);
+        Assertions.assertEquals(7, intercept, 1e-6);
+        for (int i = 0; i < dimension; i++) {
+            features[i] = 1;
+            Assertions.assertEquals(weights[i], model.predict(features) - intercept, 1e-6, "Weight " + i);
+            features[i] = 0;
+        }
+    }
 }
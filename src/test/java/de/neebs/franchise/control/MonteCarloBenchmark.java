@@ -0,0 +1,47 @@
+package de.neebs.franchise.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reports the playouts per second of the parallel Monte Carlo tree search from one thread up to all available cores,
+ * for a shared tree and for one tree per thread. Run it with the test classpath, optionally passing the time budget
+ * per search in milliseconds.
+ */
+public class MonteCarloBenchmark {
+    public static void main(String[] args) {
+        long timeBudgetMs = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        GameRound round = position(franchiseCoreService);
+        int cores = Runtime.getRuntime().availableProcessors();
+        service.monteCarloTreeSearch(round, new MonteCarloTree(1 << 18), 1, timeBudgetMs);
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            MonteCarloTree shared = new MonteCarloTree(1 << 18);
+            service.monteCarloTreeSearch(round, List.of(shared), threads, 1, timeBudgetMs);
+            List<MonteCarloTree> trees = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                trees.add(new MonteCarloTree(1 << 18));
+            }
+            service.monteCarloTreeSearch(round, trees, 1, 1, timeBudgetMs);
+            int rootPlayouts = trees.stream().mapToInt(f -> f.visits(0)).sum();
+            System.out.printf("threads: %2d, tree parallel: %8.0f playouts/s, root parallel: %8.0f playouts/s%n",
+                    threads, shared.visits(0) * 1000.0 / timeBudgetMs, rootPlayouts * 1000.0 / timeBudgetMs);
+            if (threads < cores && threads * 2 > cores) {
+                threads = cores / 2;
+            }
+        }
+        service.shutdownPool();
+    }
+
+    private static GameRound position(FranchiseCoreService franchiseCoreService) {
+        Random random = new Random(3);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        for (int i = 0; i < 9; i++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+        }
+        return round;
+    }
+}
@@ -0,0 +1,96 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+class MonteCarloLearningModelTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void learnTest() {
+        InMemoryMonteCarloLearningModel model = new InMemoryMonteCarloLearningModel(1000);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        Draw draw = franchiseCoreService.nextDraws(round).get(0);
+        Assertions.assertNull(model.getLearnings(round));
+        model.learn(round, draw, 1.0);
+        model.learn(round, draw, 0.0);
+
+        InMemoryMonteCarloLearningModel.Statistics statistics = model.getLearnings(round).get(draw);
+        Assertions.assertEquals(2, statistics.count());
+        Assertions.assertEquals(0.5, statistics.mean(), 1e-9);
+        Assertions.assertEquals(0.25, statistics.variance(), 1e-9);
+    }
+
+    @Test
+    void learnGameTest() {
+        InMemoryMonteCarloLearningModel model = new InMemoryMonteCarloLearningModel(1000);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        List<GameRoundDraw> game = new ArrayList<>();
+        Random random = new Random(5);
+        while (!round.isEnd()) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            Draw draw = draws.get(random.nextInt(draws.size()));
+            game.add(GameRoundDraw.builder().gameRound(round).draw(draw).build());
+            round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+        }
+        model.learn(game.subList(0, 10));
+        Assertions.assertEquals(0, model.size());
+
+        game.add(GameRoundDraw.builder().gameRound(round).build());
+        model.learn(game);
+        double[] rewards = new double[GameState.COLORS.length];
+        FranchiseService.rewards(GameState.of(round), rewards);
+        GameRoundDraw first = game.get(0);
+        InMemoryMonteCarloLearningModel.Statistics statistics = model.getLearnings(first.getGameRound()).get(first.getDraw());
+        Assertions.assertEquals(rewards[first.getGameRound().getNext().ordinal()], statistics.mean(), 1e-9);
+    }
+
+    @Test
+    void searchUsesLearningsTest() {
+        InMemoryMonteCarloLearningModel model = new InMemoryMonteCarloLearningModel(1000);
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        List<Draw> draws = franchiseCoreService.nextDraws(round);
+        Draw learned = draws.stream().filter(f -> !f.getExtension().isEmpty() && f.getBonusTileUsage() == null).reduce((a, b) -> b).orElseThrow();
+        for (int i = 0; i < 100; i++) {
+            model.learn(round, learned, 1.0);
+        }
+        // the learned visits outweigh the few iterations of the search
+        MonteCarloTree tree = new MonteCarloTree(1 << 12);
+        Assertions.assertEquals(learned, service.monteCarloTreeSearch(round, List.of(tree), 1, 5, 0, model));
+        int visits = 0;
+        for (int child = tree.firstChild(0); child < tree.firstChild(0) + tree.childCount(0); child++) {
+            if (tree.draw(child) == PackedDraw.of(learned)) {
+                visits = tree.visits(child);
+            }
+        }
+        Assertions.assertTrue(visits >= 32, "visits " + visits);
+    }
+
+    @Test
+    void evictionTest() {
+        InMemoryMonteCarloLearningModel model = new InMemoryMonteCarloLearningModel(64);
+        for (long state = 0; state < 10_000; state++) {
+            model.learn(state * 0x9E3779B97F4A7C15L, 1, 1);
+        }
+        Assertions.assertTrue(model.size() <= 64);
+        Assertions.assertNotNull(model.getLearnings(9_999 * 0x9E3779B97F4A7C15L));
+        Assertions.assertNull(model.getLearnings(0));
+    }
+
+    @Test
+    void concurrentLearnTest() {
+        InMemoryMonteCarloLearningModel model = new InMemoryMonteCarloLearningModel(1000);
+        IntStream.range(0, 40_000).parallel().forEach(i -> model.learn(i % 100, i % 3, 1));
+        int count = 0;
+        for (long state = 0; state < 100; state++) {
+            count += model.getLearnings(state).values().stream().mapToInt(InMemoryMonteCarloLearningModel.Statistics::count).sum();
+        }
+        Assertions.assertEquals(40_000, count);
+    }
+}
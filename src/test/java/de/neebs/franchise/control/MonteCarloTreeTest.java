@@ -0,0 +1,96 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+class MonteCarloTreeTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void searchReusesTreeTest() {
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        MonteCarloTree tree = new MonteCarloTree(1 << 16);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        Draw draw = service.monteCarloTreeSearch(round, tree, 200, 0);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+        Assertions.assertEquals(200, tree.visits(0));
+
+        GameRound next = franchiseCoreService.manualDraw(round, draw).getGameRound();
+        int visits = visitsOf(tree, draw);
+        Assertions.assertTrue(tree.moveRoot(GameState.of(next).hash64(), 2));
+        Assertions.assertEquals(visits, tree.visits(0));
+        Assertions.assertTrue(tree.isExpanded(0));
+
+        Assertions.assertFalse(tree.moveRoot(GameState.of(round).hash64(), 2));
+        Assertions.assertEquals(1, tree.size());
+    }
+
+    @Test
+    void poolIsBoundedTest() {
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        MonteCarloTree tree = new MonteCarloTree(100);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        Draw draw = service.monteCarloTreeSearch(round, tree, 50, 0);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+        Assertions.assertTrue(tree.size() <= 100);
+    }
+
+    @Test
+    void expansionIsCappedTest() {
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        Random random = new Random(1);
+        while (franchiseCoreService.nextDraws(round).size() <= 2 * FranchiseService.MAX_CHILDREN) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+        }
+
+        MonteCarloTree tree = new MonteCarloTree(1 << 16);
+        service.monteCarloTreeSearch(round, tree, 300, 0);
+        Assertions.assertEquals(FranchiseService.MAX_CHILDREN, tree.childCount(0));
+        for (int child = tree.firstChild(0); child < tree.firstChild(0) + tree.childCount(0); child++) {
+            Assertions.assertTrue(tree.childCount(child) <= FranchiseService.MAX_CHILDREN);
+        }
+
+        // the root takes only the draws still fitting into the pool
+        MonteCarloTree small = new MonteCarloTree(100);
+        Draw draw = service.monteCarloTreeSearch(round, small, 50, 0);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+        Assertions.assertEquals(99, small.childCount(0));
+    }
+
+    @Test
+    void parallelSearchTest() {
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        MonteCarloTree shared = new MonteCarloTree(1 << 16);
+        Draw draw = service.monteCarloTreeSearch(round, List.of(shared), 4, 400, 0);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+        Assertions.assertEquals(400, shared.visits(0));
+        int children = 0;
+        for (int child = shared.firstChild(0); child < shared.firstChild(0) + shared.childCount(0); child++) {
+            children += shared.visits(child);
+        }
+        // the root is expanded up front, so no thread rolls out from it without visiting a child
+        Assertions.assertEquals(shared.visits(0), children);
+
+        List<MonteCarloTree> trees = List.of(new MonteCarloTree(1 << 16), new MonteCarloTree(1 << 16));
+        draw = service.monteCarloTreeSearch(round, trees, 1, 400, 0);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+        Assertions.assertEquals(400, trees.get(0).visits(0) + trees.get(1).visits(0));
+        service.shutdownPool();
+    }
+
+    private int visitsOf(MonteCarloTree tree, Draw draw) {
+        long packed = PackedDraw.of(draw);
+        for (int child = tree.firstChild(0); child < tree.firstChild(0) + tree.childCount(0); child++) {
+            if (tree.draw(child) == packed) {
+                return tree.visits(child);
+            }
+        }
+        throw new IllegalStateException("Draw not in the tree");
+    }
+}
@@ -0,0 +1,99 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests of the packed draw generator {@link FranchiseCoreService#nextDraws(GameState, DrawBuffer)} on randomly played
+ * games.
+ */
+class NextDrawsTest {
+    private static final List<List<PlayerColor>> PLAYERS = List.of(
+            List.of(PlayerColor.BLUE, PlayerColor.RED),
+            List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK),
+            List.of(PlayerColor.WHITE, PlayerColor.ORANGE, PlayerColor.BLUE, PlayerColor.RED));
+
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void packedDrawsAreLegalAndDistinctTest() {
+        Random random = new Random(5);
+        DrawBuffer buffer = new DrawBuffer(16);
+        for (int game = 0; game < 6; game++) {
+            GameRound round = franchiseCoreService.init(PLAYERS.get(game % PLAYERS.size()));
+            GameState state = GameState.of(round);
+            while (!state.isEnd()) {
+                buffer.truncate(0);
+                int count = franchiseCoreService.nextDraws(state, buffer);
+                Set<Long> draws = new HashSet<>();
+                for (int slot = 0; slot < count; slot++) {
+                    long draw = buffer.draw(slot);
+                    Assertions.assertTrue(draws.add(draw));
+                    Assertions.assertEquals(draw, PackedDraw.of(PackedDraw.toDraw(draw)));
+
+                    GameState expected = state.copy();
+                    franchiseCoreService.apply(expected, PackedDraw.toDraw(draw));
+                    franchiseCoreService.apply(state, draw);
+                    Assertions.assertEquals(expected, state);
+                    franchiseCoreService.undo(state);
+                }
+                franchiseCoreService.apply(state, buffer.draw(random.nextInt(count)));
+            }
+        }
+    }
+
+    @Test
+    void nextDrawsMatchesPackedDrawsTest() {
+        GameRound round = franchiseCoreService.init(PLAYERS.get(1));
+        Random random = new Random(8);
+        while (!round.isEnd()) {
+            DrawBuffer buffer = new DrawBuffer();
+            int count = franchiseCoreService.nextDraws(GameState.of(round), buffer);
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            Assertions.assertEquals(count, draws.size());
+            Assertions.assertEquals(count, new HashSet<>(draws).size());
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+        }
+    }
+
+    @Test
+    void pickBestTest() {
+        DrawBuffer buffer = new DrawBuffer(2);
+        long empty = PackedDraw.EMPTY;
+        long increase = PackedDraw.increase(empty, City.DENVER.ordinal());
+        long extension = PackedDraw.extension(empty, City.DALLAS.ordinal());
+        long money = PackedDraw.money(empty);
+        buffer.add(empty);
+        buffer.add(increase);
+        buffer.add(extension);
+        buffer.add(money);
+
+        Assertions.assertTrue(buffer.moveToFront(0, 4, 1));
+        Assertions.assertEquals(increase, buffer.draw(0));
+        for (int slot = 1; slot < 4; slot++) {
+            buffer.pickBest(0, slot, 4);
+        }
+        Assertions.assertEquals(money, buffer.draw(1));
+        Assertions.assertEquals(extension, buffer.draw(2));
+        Assertions.assertEquals(empty, buffer.draw(3));
+        Assertions.assertEquals(2, buffer.index(2));
+        Assertions.assertFalse(buffer.moveToFront(1, 4, 1));
+    }
+
+    @Test
+    void illegalPackedDrawTest() {
+        GameRound round = franchiseCoreService.init(PLAYERS.get(0));
+        GameState state = GameState.of(round);
+        GameState before = state.copy();
+        Assertions.assertThrows(IllegalDrawException.class, () -> franchiseCoreService.apply(state, PackedDraw.EMPTY));
+        Assertions.assertEquals(before, state);
+        long city = PackedDraw.extension(PackedDraw.EMPTY, City.DALLAS.ordinal());
+        Assertions.assertThrows(IllegalDrawException.class, () -> franchiseCoreService.apply(state, city));
+        Assertions.assertEquals(before, state);
+    }
+}
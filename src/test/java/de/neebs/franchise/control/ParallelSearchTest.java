@@ -0,0 +1,56 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class ParallelSearchTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void minimaxAbPruneIsDeterministicTest() {
+        for (GameRound round : positions()) {
+            Draw sequential = new FranchiseService(franchiseCoreService).minimaxAbPrune(round, 3, 1);
+            Assertions.assertEquals(sequential, new FranchiseService(franchiseCoreService).minimaxAbPrune(round, 3, 4));
+            FranchiseService service = new FranchiseService(franchiseCoreService);
+            Assertions.assertEquals(service.minimaxAbPrune(round, 3, 4), service.minimaxAbPrune(round, 3, 4));
+            service.shutdownPool();
+        }
+    }
+
+    @Test
+    void divideAndConquerIsDeterministicTest() {
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        for (GameRound round : positions()) {
+            Draw draw = service.divideAndConquer(round, 2, 2, false, 4);
+            Assertions.assertEquals(draw, service.divideAndConquer(round, 2, 2, false, 4));
+        }
+        service.shutdownPool();
+    }
+
+    @Test
+    void threadsAreBoundedTest() {
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        GameRound round = positions().get(0);
+        Assertions.assertEquals(service.minimaxAbPrune(round, 2, 1), service.minimaxAbPrune(round, 2, Integer.MAX_VALUE));
+        Assertions.assertEquals(service.divideAndConquer(round, 1, 2, false, 1), service.divideAndConquer(round, 1, 2, false, 100_000));
+        service.shutdownPool();
+    }
+
+    private List<GameRound> positions() {
+        Random random = new Random(17);
+        List<GameRound> positions = new ArrayList<>();
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        for (int i = 0; i < 12 && !round.isEnd(); i++) {
+            if (i >= 6) {
+                positions.add(round);
+            }
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+        }
+        return positions;
+    }
+}
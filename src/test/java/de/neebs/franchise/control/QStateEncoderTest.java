@@ -0,0 +1,57 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class QStateEncoderTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    private final QStateEncoder encoder = new QStateEncoder(2, 5, 16, 5, 16);
+
+    @Test
+    void bucketTest() {
+        float[] features = new float[QStateEncoder.DIMENSION];
+        int money = 2 * GameState.CITIES.length;
+        features[money] = 12;
+        long key = encoder.key(features);
+        features[money] = 14;
+        Assertions.assertEquals(key, encoder.key(features));
+        features[money] = 15;
+        Assertions.assertNotEquals(key, encoder.key(features));
+
+        // more than two own branches in a city are not told apart
+        int chicago = City.CHICAGO.ordinal();
+        features[chicago] = 3;
+        key = encoder.key(features);
+        features[chicago] = 5;
+        Assertions.assertEquals(key, encoder.key(features));
+        features[chicago] = 1;
+        Assertions.assertNotEquals(key, encoder.key(features));
+        features[GameState.CITIES.length + chicago] = 1;
+        Assertions.assertNotEquals(key, encoder.key(features));
+    }
+
+    @Test
+    void featuresTest() {
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        round = franchiseCoreService.manualDraw(round, franchiseCoreService.nextDraws(round).get(0)).getGameRound();
+        GameState state = GameState.of(round);
+        float[] features = new float[QStateEncoder.DIMENSION];
+        encoder.features(state, features);
+        for (City city : GameState.CITIES) {
+            CityPlate plate = round.getPlates().get(city);
+            List<PlayerColor> branches = plate == null ? List.of() : plate.getBranches();
+            PlayerColor next = round.getNext();
+            Assertions.assertEquals(branches.stream().filter(f -> f == next).count(), (long) features[city.ordinal()]);
+            Assertions.assertEquals(branches.stream().filter(f -> f != next).count(), (long) features[GameState.CITIES.length + city.ordinal()]);
+        }
+        Assertions.assertEquals(round.getScores().get(round.getNext()).getMoney(), features[2 * GameState.CITIES.length]);
+    }
+
+    @Test
+    void tooManyBucketsTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new QStateEncoder(8, 1, 1000, 1, 1000));
+    }
+}
@@ -0,0 +1,73 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class QTableStoreTest {
+    @Test
+    void reopenTest(@TempDir Path directory) {
+        Path file = directory.resolve("qtable.log");
+        try (QTableStore store = new QTableStore(file, 2, 100)) {
+            for (long state = 0; state < 10; state++) {
+                store.put(state, 1, state);
+                store.put(state, 2, -state);
+            }
+            store.put(3, 1, 42);
+            Assertions.assertEquals(42, store.get(3, 1, Double.NaN));
+            Assertions.assertEquals(0, store.max(100));
+            Assertions.assertTrue(Double.isNaN(store.get(100, 1, Double.NaN)));
+        }
+        try (QTableStore store = new QTableStore(file, 2, 100)) {
+            Assertions.assertEquals(42, store.get(3, 1, Double.NaN));
+            Assertions.assertEquals(-9, store.get(9, 2, Double.NaN));
+            Assertions.assertEquals(9, store.max(9));
+            Assertions.assertEquals(2, store.size(5));
+        }
+    }
+
+    @Test
+    void tornRecordTest(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("qtable.log");
+        try (QTableStore store = new QTableStore(file, 10, 100)) {
+            store.put(7, 1, 0.5);
+        }
+        long size = Files.size(file);
+        // a crash in the middle of appending a record
+        Files.write(file, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        try (QTableStore store = new QTableStore(file, 10, 100)) {
+            Assertions.assertEquals(size, store.fileSize());
+            Assertions.assertEquals(0.5, store.get(7, 1, Double.NaN));
+            store.put(7, 1, 0.75);
+        }
+        try (QTableStore store = new QTableStore(file, 10, 100)) {
+            Assertions.assertEquals(0.75, store.get(7, 1, Double.NaN));
+        }
+    }
+
+    @Test
+    void compactionTest(@TempDir Path directory) {
+        Path file = directory.resolve("qtable.log");
+        try (QTableStore store = new QTableStore(file, 1, Integer.MAX_VALUE)) {
+            // every put evicts the other state and appends it to the log
+            for (int i = 0; i < 40_000; i++) {
+                store.put(i % 2, 1, i);
+            }
+            Assertions.assertTrue(store.fileSize() > 1 << 20);
+            store.checkpoint();
+            Assertions.assertTrue(store.fileSize() < 1_000, "Size " + store.fileSize());
+            Assertions.assertEquals(39_998, store.get(0, 1, Double.NaN));
+            Assertions.assertEquals(39_999, store.get(1, 1, Double.NaN));
+        }
+        Assertions.assertFalse(Files.exists(directory.resolve("qtable.log.tmp")));
+        try (QTableStore store = new QTableStore(file, 1, 100)) {
+            Assertions.assertEquals(39_998, store.get(0, 1, Double.NaN));
+            Assertions.assertEquals(39_999, store.get(1, 1, Double.NaN));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+class ReplayBufferTest {
+    @Test
+    void ringTest() {
+        ReplayBuffer buffer = new ReplayBuffer(3, 2);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(new float[]{i, -i}, i, i / 2f, new float[]{i + 1, -i - 1}, i == 4, 1);
+        }
+        Assertions.assertEquals(3, buffer.size());
+        // slots 0 and 1 were overwritten by the transitions 3 and 4
+        Assertions.assertArrayEquals(new float[]{3, -3}, buffer.state(0));
+        Assertions.assertArrayEquals(new float[]{5, -5}, buffer.nextState(1));
+        Assertions.assertEquals(4, buffer.action(1));
+        Assertions.assertEquals(2f, buffer.reward(1));
+        Assertions.assertTrue(buffer.isDone(1));
+        Assertions.assertEquals(2, buffer.action(2));
+        Assertions.assertFalse(buffer.isDone(2));
+    }
+
+    @Test
+    void memoryMappedTest(@TempDir Path directory) {
+        ReplayBuffer buffer = new ReplayBuffer(100, 4, directory.resolve("replay.bin"));
+        long draw = PackedDraw.increase(PackedDraw.extension(PackedDraw.EMPTY, City.DENVER.ordinal()), City.DALLAS.ordinal());
+        buffer.add(new float[]{1, 2, 3, 4}, draw, -1.5f, new float[]{5, 6, 7, 8}, false, 1);
+        Assertions.assertArrayEquals(new float[]{1, 2, 3, 4}, buffer.state(0));
+        Assertions.assertArrayEquals(new float[]{5, 6, 7, 8}, buffer.nextState(0));
+        Assertions.assertEquals(draw, buffer.action(0));
+        Assertions.assertEquals(-1.5f, buffer.reward(0));
+    }
+
+    @Test
+    void prioritizedSamplingTest() {
+        ReplayBuffer buffer = new ReplayBuffer(10, 1);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(new float[]{i}, i, 0, new float[]{i}, false, i == 7 ? 1000 : 1);
+        }
+        int[] counts = new int[10];
+        for (int index : buffer.sample(10_000, true, new SplittableRandom(3))) {
+            counts[index]++;
+        }
+        // 1000^0.6 = 63, so index 7 is drawn with a probability of 63 / 72
+        Assertions.assertTrue(counts[7] > 8_000, "Drawn " + counts[7] + " times");
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(counts[i] > 0);
+        }
+
+        buffer.updatePriority(7, 1);
+        counts = new int[10];
+        for (int index : buffer.sample(10_000, true, new SplittableRandom(3))) {
+            counts[index]++;
+        }
+        Assertions.assertTrue(counts[7] < 1_500, "Drawn " + counts[7] + " times");
+    }
+
+    @Test
+    void weightsTest() {
+        ReplayBuffer buffer = new ReplayBuffer(4, 1);
+        for (int i = 0; i < 4; i++) {
+            buffer.add(new float[]{i}, i, 0, new float[]{i}, false, i == 3 ? Math.pow(4, 1 / ReplayBuffer.PRIORITY_EXPONENT) : 1);
+        }
+        // P = 1/7 for the first three transitions and 4/7 for the last one
+        double[] weights = buffer.weights(new int[]{0, 3, 1}, 1);
+        Assertions.assertEquals(1, weights[0], 1e-9);
+        Assertions.assertEquals(0.25, weights[1], 1e-9);
+        Assertions.assertEquals(1, weights[2], 1e-9);
+
+        weights = buffer.weights(new int[]{0, 3}, 0);
+        Assertions.assertArrayEquals(new double[]{1, 1}, weights, 1e-9);
+    }
+}
@@ -0,0 +1,70 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+class SelfPlayTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    private final GameEngine gameEngine = new GameEngineImpl(null, null, franchiseCoreService, null, null, null);
+
+    @Test
+    void parallelPlayTest() {
+        GameRound round = gameEngine.initGame(List.of(PlayerColor.BLUE, PlayerColor.RED));
+        Set<ComputerPlayer> players = Set.of(new RandomPlayer(PlayerColor.BLUE), new RandomPlayer(PlayerColor.RED));
+        CountingModel model = new CountingModel();
+
+        Map<PlayerColor, Integer> result = gameEngine.play(round, players, Set.of(model), Map.of("parallelism", 4, "queueCapacity", 2), 20);
+
+        Assertions.assertEquals(20, model.games);
+        Assertions.assertEquals(1, model.threads.size());
+        Assertions.assertTrue(model.saved);
+        Assertions.assertEquals(model.wins, result);
+    }
+
+    private class RandomPlayer implements ComputerPlayer {
+        private final PlayerColor playerColor;
+
+        RandomPlayer(PlayerColor playerColor) {
+            this.playerColor = playerColor;
+        }
+
+        @Override
+        public PlayerColor getPlayerColor() {
+            return playerColor;
+        }
+
+        @Override
+        public Draw evaluateDraw(GameRound round) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            return draws.get(ThreadLocalRandom.current().nextInt(draws.size()));
+        }
+    }
+
+    private static class CountingModel implements LearningModel {
+        private final Set<Thread> threads = new HashSet<>();
+        private final Map<PlayerColor, Integer> wins = new EnumMap<>(PlayerColor.class);
+        private int games;
+        private boolean saved;
+
+        @Override
+        public void train(List<GameRoundDraw> gameRoundDraws) {
+            threads.add(Thread.currentThread());
+            games++;
+            Map<PlayerColor, Score> scores = gameRoundDraws.get(gameRoundDraws.size() - 1).getGameRound().getScores();
+            int best = scores.values().stream().mapToInt(Score::getInfluence).max().orElseThrow();
+            List<PlayerColor> winners = scores.entrySet().stream().filter(f -> f.getValue().getInfluence() == best).map(Map.Entry::getKey).toList();
+            if (winners.size() == 1) {
+                wins.merge(winners.get(0), 1, Integer::sum);
+            }
+        }
+
+        @Override
+        public void save() {
+            saved = true;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+class TimeBudgetTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    @Test
+    void iterativeDeepeningMatchesFixedDepthTest() {
+        GameRound round = position();
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        Assertions.assertEquals(service.minimaxAbPrune(round, 3, 1), service.minimaxAbPrune(round, 3, 1, 600_000));
+    }
+
+    @Test
+    void timeBudgetReturnsLegalDrawTest() {
+        GameRound round = position();
+        FranchiseService service = new FranchiseService(franchiseCoreService);
+        long start = System.currentTimeMillis();
+        Draw draw = service.minimaxAbPrune(round, FranchiseService.MAX_DEPTH, 1, 300);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+
+        start = System.currentTimeMillis();
+        draw = service.divideAndConquer(round, FranchiseService.MAX_DEPTH, 2, false, 1, 300);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assertions.assertTrue(franchiseCoreService.nextDraws(round).contains(draw));
+    }
+
+    private GameRound position() {
+        Random random = new Random(23);
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.BLACK));
+        for (int i = 0; i < 8; i++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            round = franchiseCoreService.manualDraw(round, draws.get(random.nextInt(draws.size()))).getGameRound();
+        }
+        return round;
+    }
+}
@@ -0,0 +1,102 @@
+package de.neebs.franchise.control;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class TrajectoryCodecTest {
+    private final FranchiseCoreService franchiseCoreService = new FranchiseCoreService();
+
+    private List<GameRoundDraw> play(long seed, int plies) {
+        GameRound round = franchiseCoreService.init(List.of(PlayerColor.BLUE, PlayerColor.RED, PlayerColor.ORANGE));
+        List<GameRoundDraw> rounds = new ArrayList<>();
+        Random random = new Random(seed);
+        for (int ply = 0; ply < plies && !round.isEnd(); ply++) {
+            List<Draw> draws = franchiseCoreService.nextDraws(round);
+            Draw draw = draws.get(random.nextInt(draws.size()));
+            rounds.add(GameRoundDraw.builder().gameRound(round).draw(draw).build());
+            round = franchiseCoreService.manualDraw(round, draw).getGameRound();
+        }
+        rounds.add(GameRoundDraw.builder().gameRound(round).build());
+        return rounds;
+    }
+
+    private static void assertSameGame(List<GameRoundDraw> expected, List<GameRoundDraw> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(GameState.of(expected.get(i).getGameRound()), GameState.of(actual.get(i).getGameRound()));
+            Draw draw = expected.get(i).getDraw();
+            Assertions.assertEquals(draw == null ? null : PackedDraw.of(draw), actual.get(i).getDraw() == null ? null : PackedDraw.of(actual.get(i).getDraw()));
+        }
+    }
+
+    @Test
+    void singleValueTest() {
+        List<GameRoundDraw> game = play(3, 30);
+        for (GameRoundDraw roundDraw : game) {
+            GameRound round = TrajectoryCodec.decodeRound(TrajectoryCodec.encode(roundDraw.getGameRound()));
+            Assertions.assertEquals(GameState.of(roundDraw.getGameRound()), GameState.of(round));
+            assertSameGame(List.of(roundDraw), List.of(TrajectoryCodec.decodeRoundDraw(TrajectoryCodec.encode(roundDraw))));
+            if (roundDraw.getDraw() != null) {
+                Draw draw = TrajectoryCodec.decodeDraw(TrajectoryCodec.encode(roundDraw.getDraw()));
+                Assertions.assertEquals(PackedDraw.of(roundDraw.getDraw()), PackedDraw.of(draw));
+            }
+        }
+        Assertions.assertNull(TrajectoryCodec.decodeDraw(TrajectoryCodec.encode((Draw) null)));
+    }
+
+    @Test
+    void streamTest() throws Exception {
+        List<List<GameRoundDraw>> games = new ArrayList<>();
+        for (int seed = 0; seed < 5; seed++) {
+            games.add(play(seed, 200));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TrajectoryWriter writer = new TrajectoryWriter(bytes)) {
+            games.forEach(writer::write);
+        }
+
+        try (TrajectoryReader reader = new TrajectoryReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (List<GameRoundDraw> game : games) {
+                assertSameGame(game, reader.read());
+            }
+            Assertions.assertNull(reader.read());
+        }
+
+        int json = 0;
+        for (List<GameRoundDraw> game : games) {
+            json += new ObjectMapper().writeValueAsBytes(game).length;
+        }
+        Assertions.assertTrue(bytes.size() * 20 < json, bytes.size() + " bytes, as JSON " + json);
+    }
+
+    @Test
+    void packedTest() {
+        List<GameRoundDraw> game = play(9, 50);
+        GameState[] states = game.stream().map(r -> GameState.of(r.getGameRound())).toArray(GameState[]::new);
+        long[] draws = game.stream().filter(r -> r.getDraw() != null).mapToLong(r -> PackedDraw.of(r.getDraw())).toArray();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TrajectoryWriter writer = new TrajectoryWriter(bytes)) {
+            writer.write(new TrajectoryCodec.Trajectory(states, draws));
+        }
+
+        try (TrajectoryReader reader = new TrajectoryReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            TrajectoryCodec.Trajectory trajectory = reader.readPacked();
+            Assertions.assertArrayEquals(states, trajectory.states());
+            Assertions.assertArrayEquals(draws, trajectory.draws());
+        }
+    }
+
+    @Test
+    void versionTest() {
+        byte[] bytes = TrajectoryCodec.encode(play(1, 0).get(0).getGameRound());
+        bytes[TrajectoryCodec.MAGIC.length] = TrajectoryCodec.VERSION + 1;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TrajectoryCodec.decodeRound(bytes));
+    }
+}
@@ -0,0 +1,56 @@
+package de.neebs.franchise.control;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TranspositionTableTest {
+    @Test
+    void storeAndProbeTest() {
+        TranspositionTable table = new TranspositionTable(1024);
+        table.store(4711L, 12.5, 3, TranspositionTable.LOWER_BOUND, 17);
+
+        TranspositionTable.Entry entry = table.probe(4711L);
+        Assertions.assertNotNull(entry);
+        Assertions.assertEquals(12.5, entry.score());
+        Assertions.assertEquals(3, entry.depth());
+        Assertions.assertEquals(TranspositionTable.LOWER_BOUND, entry.bound());
+        Assertions.assertEquals(17, entry.bestDraw());
+        Assertions.assertNull(table.probe(4712L));
+    }
+
+    @Test
+    void noDrawTest() {
+        TranspositionTable table = new TranspositionTable(16);
+        table.store(1L, -3.0, 1, TranspositionTable.EXACT, TranspositionTable.NO_DRAW);
+        Assertions.assertEquals(TranspositionTable.NO_DRAW, table.probe(1L).bestDraw());
+    }
+
+    @Test
+    void depthPreferredReplacementTest() {
+        TranspositionTable table = new TranspositionTable(2);
+        // all keys share the single bucket
+        table.store(1L, 1.0, 5, TranspositionTable.EXACT, 0);
+        table.store(2L, 2.0, 2, TranspositionTable.EXACT, 0);
+        table.store(3L, 3.0, 1, TranspositionTable.EXACT, 0);
+
+        Assertions.assertEquals(5, table.probe(1L).depth(), "the deep entry is kept");
+        Assertions.assertNull(table.probe(2L), "the shallow entry is replaced");
+        Assertions.assertEquals(3.0, table.probe(3L).score());
+
+        table.newSearch();
+        table.store(4L, 4.0, 1, TranspositionTable.EXACT, 0);
+        Assertions.assertNull(table.probe(1L), "entries of older searches are replaced");
+        Assertions.assertEquals(4.0, table.probe(4L).score());
+    }
+
+    @Test
+    void clearTest() {
+        TranspositionTable table = new TranspositionTable(16);
+        table.store(1L, 1.0, 5, TranspositionTable.EXACT, 0);
+        table.clear();
+        Assertions.assertNull(table.probe(1L));
+
+        table.store(2L, 2.0, 1, TranspositionTable.EXACT, 0);
+        Assertions.assertEquals(2.0, table.probe(2L).score());
+    }
+}